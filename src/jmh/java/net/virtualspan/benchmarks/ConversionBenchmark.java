@@ -0,0 +1,141 @@
+package net.virtualspan.benchmarks;
+
+import net.virtualspan.AssetInventory;
+import net.virtualspan.CopyExecutor;
+import net.virtualspan.FileUtils;
+import net.virtualspan.model.ConversionChoices;
+import net.virtualspan.model.FrameCount;
+import net.virtualspan.model.Hotspots;
+import net.virtualspan.model.SoundResult;
+import net.virtualspan.model.SpriteResult;
+import net.virtualspan.processors.FrameCountProcessor;
+import net.virtualspan.processors.HotspotProcessor;
+import net.virtualspan.processors.SoundProcessor;
+import net.virtualspan.processors.SpriteProcessor;
+import net.virtualspan.rules.ConversionRules;
+import net.virtualspan.rules.GremlinRules;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Each stage of one gremlin conversion, against small/typical/huge gremlins on tmpfs and on disk
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Djava.awt.headless=true", "--enable-native-access=ALL-UNNAMED",
+        "--add-modules", "jdk.incubator.vector"})
+public class ConversionBenchmark {
+    private static final GremlinRules RULES = ConversionRules.forGremlin("bench");
+    private static final ConversionChoices CHOICES =
+            new ConversionChoices("Emotes/emote1.png", "Emotes/emote1.png", "emote1.wav");
+
+    @Param({"small", "typical", "huge"})
+    public String size;
+
+    @Param({"tmpfs", "disk"})
+    public String storage;
+
+    private Path root;
+    private Path spriteSheetFolder;
+    private Path soundFolder;
+    private Path configPath;
+    private Path gremlinFolder;
+    private Path convertedSpriteFolder;
+    private Path convertedSoundFolder;
+    private Path installFolder;
+    private Map<String, String> chosen;
+    private Map<String, Path> hotspotSheets;
+    private SpriteResult spriteResult;
+    private AssetInventory convertedInventory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = GremlinFixture.storageRoot(storage);
+        Path[] folders = GremlinFixture.create(root, "Bench", GremlinFixture.Size.valueOf(size.toUpperCase(Locale.ROOT)));
+        spriteSheetFolder = folders[0];
+        soundFolder = folders[1];
+        configPath = spriteSheetFolder.resolve("config.txt");
+
+        gremlinFolder = root.resolve("ConvertedGremlins/bench");
+        convertedSpriteFolder = gremlinFolder.resolve("sprites");
+        convertedSoundFolder = gremlinFolder.resolve("sounds");
+        installFolder = root.resolve("gremlins/bench");
+        Files.createDirectories(convertedSpriteFolder);
+        Files.createDirectories(convertedSoundFolder);
+
+        chosen = RULES.choose(AssetInventory.scan(spriteSheetFolder, soundFolder), spriteSheetFolder, soundFolder, CHOICES);
+
+        // One full conversion up front so frame counting and copyFolder have real output to work on
+        spriteResult = spriteProcessor();
+        soundProcessor();
+        convertedInventory = AssetInventory.scan(spriteSheetFolder, soundFolder, gremlinFolder);
+        hotspotSheets = HotspotProcessor.sheets(CopyExecutor.plan(
+                RULES.spriteCopies(spriteSheetFolder, convertedSpriteFolder, chosen), Files::exists), convertedSpriteFolder);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        GremlinFixture.delete(root);
+    }
+
+    @Benchmark
+    public SpriteResult spriteProcessor() throws IOException {
+        return SpriteProcessor.process(
+                spriteSheetFolder,
+                convertedSpriteFolder,
+                configPath,
+                RULES,
+                chosen,
+                AssetInventory.scan(spriteSheetFolder, soundFolder, gremlinFolder));
+    }
+
+    @Benchmark
+    public SoundResult soundProcessor() throws IOException {
+        return SoundProcessor.process(
+                soundFolder,
+                convertedSoundFolder,
+                RULES,
+                chosen,
+                AssetInventory.scan(spriteSheetFolder, soundFolder, gremlinFolder));
+    }
+
+    @Benchmark
+    public FrameCount frameCountProcessor() {
+        // The processor fills in fallbacks in place, so every call gets its own copy
+        Map<String, Integer> values = new HashMap<>(spriteResult.values());
+
+        return FrameCountProcessor.process(
+                RULES,
+                convertedSpriteFolder,
+                chosen,
+                spriteResult.skip(),
+                values,
+                convertedInventory);
+    }
+
+    // Vector scan by default, add -jvmArgsAppend -Dgremlin.scalarAlphaScan=true to the jmh args for the scalar one
+    @Benchmark
+    public Hotspots hotspotProcessor() {
+        return HotspotProcessor.measure(hotspotSheets, spriteResult.values(), new ArrayList<>());
+    }
+
+    @Benchmark
+    public Map<String, Integer> readConfig() {
+        return SpriteProcessor.readConfig(configPath);
+    }
+
+    @Benchmark
+    public Path copyFolder() throws IOException {
+        FileUtils.copyFolder(gremlinFolder, installFolder);
+        return installFolder;
+    }
+}
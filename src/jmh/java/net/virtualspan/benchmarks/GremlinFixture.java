@@ -0,0 +1,154 @@
+package net.virtualspan.benchmarks;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Writes synthetic Desktop_Gremlin folders (SpriteSheet/Gremlins/<name> and Sounds/<name>) for the benchmarks
+public class GremlinFixture {
+    public enum Size {
+        // Low-sprite gremlin with only the sheets the converter needs
+        SMALL(64, 8, 0.5, false),
+        // Every sheet, frame sizes like most Desktop_Gremlin packs
+        TYPICAL(200, 24, 2, true),
+        // Every sheet with large frames and long sounds
+        HUGE(512, 64, 10, true);
+
+        final int frameSize;
+        final int frames;
+        final double soundSeconds;
+        final boolean allSheets;
+
+        Size(int frameSize, int frames, double soundSeconds, boolean allSheets) {
+            this.frameSize = frameSize;
+            this.frames = frames;
+            this.soundSeconds = soundSeconds;
+            this.allSheets = allSheets;
+        }
+    }
+
+    private static final int COLUMNS = 8;
+
+    private static final List<String> REQUIRED_SHEETS = List.of(
+            "Actions/idle.png", "Actions/hover.png", "Actions/grab.png", "Run/runRight.png", "Emotes/emote1.png");
+
+    private static final List<String> OPTIONAL_SHEETS = List.of(
+            "Actions/sleep.png", "Actions/intro.png", "Actions/outro.png", "Actions/runIdle.png", "Actions/click.png",
+            "Run/runLeft.png", "Run/runUp.png", "Run/runDown.png",
+            "Run/upLeft.png", "Run/upRight.png", "Run/downLeft.png", "Run/downRight.png",
+            "Emotes/emote2.png", "Emotes/emote3.png", "Emotes/emote4.png");
+
+    private static final List<String> SOUNDS = List.of(
+            "intro.wav", "outro.wav", "grab.wav", "hover.wav", "sleep.wav", "walk.wav", "pat.wav", "poke.wav",
+            "emote1.wav", "emote2.wav", "emote3.wav", "emote4.wav");
+
+    // tmpfs is /dev/shm when the machine has one, disk is under the Gradle build folder
+    public static Path storageRoot(String storage) throws IOException {
+        Path root;
+        if (storage.equals("tmpfs") && Files.isDirectory(Path.of("/dev/shm")) && Files.isWritable(Path.of("/dev/shm"))) {
+            root = Path.of("/dev/shm");
+        } else if (storage.equals("tmpfs")) {
+            root = Path.of(System.getProperty("java.io.tmpdir"));
+        } else {
+            root = Path.of("build", "jmh-fixtures").toAbsolutePath();
+        }
+
+        Files.createDirectories(root);
+        return Files.createTempDirectory(root, "gremlin-bench-");
+    }
+
+    // Creates the gremlin under root and returns {spritesheet folder, sounds folder}
+    public static Path[] create(Path root, String name, Size size) throws IOException {
+        Path spriteSheetFolder = root.resolve("SpriteSheet/Gremlins").resolve(name);
+        Path soundFolder = root.resolve("Sounds").resolve(name);
+        Random random = new Random(42);
+
+        List<String> sheets = new ArrayList<>(REQUIRED_SHEETS);
+        if (size.allSheets) {
+            sheets.addAll(OPTIONAL_SHEETS);
+        }
+
+        StringBuilder config = new StringBuilder("// Synthetic benchmark gremlin\n")
+                .append("SCALE=1\n")
+                .append("COLUMN=").append(COLUMNS).append('\n')
+                .append("WIDTH=").append(size.frameSize).append('\n')
+                .append("HEIGHT=").append(size.frameSize).append('\n');
+
+        for (String sheet : sheets) {
+            writeSheet(spriteSheetFolder.resolve(sheet), size, random);
+            config.append(configKey(sheet)).append('=').append(size.frames).append('\n');
+        }
+
+        Files.writeString(spriteSheetFolder.resolve("config.txt"), config);
+
+        Files.createDirectories(soundFolder);
+        for (String sound : SOUNDS) {
+            writeWav(soundFolder.resolve(sound), size.soundSeconds);
+        }
+
+        return new Path[]{spriteSheetFolder, soundFolder};
+    }
+
+    public static void delete(Path root) throws IOException {
+        if (root == null || !Files.exists(root)) return;
+
+        try (Stream<Path> stream = Files.walk(root)) {
+            for (Path path : stream.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static String configKey(String sheet) {
+        return sheet.substring(sheet.indexOf('/') + 1, sheet.length() - ".png".length()).toUpperCase(Locale.ROOT);
+    }
+
+    // Frames are a moving blob on a transparent background with some noise so the PNGs don't compress unrealistically
+    private static void writeSheet(Path path, Size size, Random random) throws IOException {
+        int rows = (size.frames + COLUMNS - 1) / COLUMNS;
+        int frame = size.frameSize;
+        BufferedImage image = new BufferedImage(COLUMNS * frame, rows * frame, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+
+        for (int i = 0; i < size.frames; i++) {
+            int x = i % COLUMNS * frame;
+            int y = i / COLUMNS * frame;
+            graphics.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            graphics.fillOval(x + frame / 8 + i % 4, y + frame / 4, frame * 3 / 4, frame * 3 / 4 - i % 4);
+
+            for (int n = 0; n < frame; n++) {
+                image.setRGB(x + random.nextInt(frame), y + random.nextInt(frame), random.nextInt() | 0xFF000000);
+            }
+        }
+
+        graphics.dispose();
+        Files.createDirectories(path.getParent());
+        ImageIO.write(image, "png", path.toFile());
+    }
+
+    // 16 bit stereo PCM at 44.1 kHz
+    private static void writeWav(Path path, double seconds) throws IOException {
+        int dataLength = (int) (44_100 * seconds) * 4;
+        ByteBuffer header = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RIFF".getBytes()).putInt(36 + dataLength).put("WAVE".getBytes())
+                .put("fmt ".getBytes()).putInt(16)
+                .putShort((short) 1).putShort((short) 2).putInt(44_100).putInt(44_100 * 4)
+                .putShort((short) 4).putShort((short) 16)
+                .put("data".getBytes()).putInt(dataLength);
+
+        byte[] file = new byte[44 + dataLength];
+        System.arraycopy(header.array(), 0, file, 0, 44);
+        Files.write(path, file);
+    }
+}
@@ -0,0 +1,106 @@
+package net.virtualspan;
+
+import net.virtualspan.model.GremlinJob;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+// Lets spritesheet and sounds folders be read straight out of a Desktop_Gremlin release zip
+// A folder inside an archive is written as <archive>.zip!/<folder>, e.g. Desktop_Gremlin.zip!/Sounds/Agnes
+// Each archive is opened once with jdk.zipfs and everything is read in place, nothing gets extracted
+public class ArchiveInputs {
+    private static final String SEPARATOR = "!/";
+
+    private static final Map<Path, FileSystem> archives = new HashMap<>();
+
+    // Turns a command line or manifest entry into a Path, relative paths resolve against base
+    public static Path resolve(Path base, String spec) throws IOException {
+        int separator = spec.indexOf(SEPARATOR);
+        if (separator < 0) {
+            return base.resolve(spec);
+        }
+
+        Path archive = base.resolve(spec.substring(0, separator));
+        return open(archive).getPath("/" + spec.substring(separator + SEPARATOR.length()));
+    }
+
+    // Every SpriteSheet/Gremlins/<name> folder in the archive, paired with the Sounds/<name> folder next to it
+    // Release zips sometimes wrap everything in one top level folder, so that is looked through too
+    public static List<GremlinJob> discover(Path archive) throws IOException {
+        FileSystem fileSystem = open(archive);
+        List<GremlinJob> jobs = new ArrayList<>();
+
+        List<Path> gremlinFolders;
+        try (Stream<Path> stream = Files.walk(fileSystem.getPath("/"), 3)) {
+            gremlinFolders = stream
+                    .filter(path -> path.getNameCount() >= 2
+                            && path.getFileName().toString().equals("Gremlins")
+                            && path.getParent().getFileName().toString().equals("SpriteSheet")
+                            && Files.isDirectory(path))
+                    .toList();
+        }
+
+        for (Path gremlins : gremlinFolders) {
+            Path sounds = gremlins.getParent().resolveSibling("Sounds");
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(gremlins, Files::isDirectory)) {
+                for (Path spriteSheetFolder : stream) {
+                    jobs.add(new GremlinJob(spriteSheetFolder, sounds.resolve(spriteSheetFolder.getFileName().toString())));
+                }
+            }
+        }
+
+        if (jobs.isEmpty()) {
+            throw new IOException("No SpriteSheet/Gremlins folders found in " + archive);
+        }
+
+        // Zip listings come back in no particular order
+        jobs.sort(Comparator.comparing(job -> job.spriteSheetFolder().toString()));
+        return jobs;
+    }
+
+    public static boolean isArchive(Path path) {
+        return path.getFileSystem() != FileSystems.getDefault();
+    }
+
+    public static synchronized void closeAll() {
+        for (FileSystem fileSystem : archives.values()) {
+            try {
+                fileSystem.close();
+            } catch (IOException e) {
+                // Only ever read from, so there is nothing to lose
+            }
+        }
+        archives.clear();
+    }
+
+    // For archives that go away once their gremlins are converted, e.g. uploads to the conversion server
+    public static synchronized void close(Path archive) {
+        FileSystem fileSystem = archives.remove(archive.toAbsolutePath().normalize());
+        if (fileSystem == null) return;
+
+        try {
+            fileSystem.close();
+        } catch (IOException e) {
+            // Only ever read from, so there is nothing to lose
+        }
+    }
+
+    // Sprite and sound folders from the same archive share one open zip
+    private static synchronized FileSystem open(Path archive) throws IOException {
+        Path key = archive.toAbsolutePath().normalize();
+
+        FileSystem fileSystem = archives.get(key);
+        if (fileSystem == null) {
+            fileSystem = FileSystems.newFileSystem(key);
+            archives.put(key, fileSystem);
+        }
+        return fileSystem;
+    }
+}
@@ -0,0 +1,93 @@
+package net.virtualspan;
+
+import net.virtualspan.events.Metrics;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// One directory listing per folder instead of a stat call per Files.exists
+// The listings are taken once and never change, files written or deleted during the conversion are recorded on top
+public class AssetInventory {
+    // Sub-folders of the spritesheet folder and of the converted gremlin folder that get listed too
+    private static final Set<String> SUBFOLDERS = Set.of("Actions", "Run", "Emotes", "sprites", "sounds");
+
+    private final Set<Path> listed;
+    private final Set<Path> entries;
+    private final Set<Path> written = ConcurrentHashMap.newKeySet();
+    private final Set<Path> deleted = ConcurrentHashMap.newKeySet();
+
+    private AssetInventory(Set<Path> listed, Set<Path> entries) {
+        this.listed = Set.copyOf(listed);
+        this.entries = Set.copyOf(entries);
+    }
+
+    // Lists each root (a missing root just counts as empty) and its known sub-folders
+    public static AssetInventory scan(Path... roots) throws IOException {
+        Set<Path> listed = new HashSet<>();
+        Set<Path> entries = new HashSet<>();
+
+        for (Path root : roots) {
+            Path folder = root.normalize();
+            list(folder, listed, entries);
+
+            for (String subfolder : SUBFOLDERS) {
+                Path child = folder.resolve(subfolder);
+                if (entries.contains(child)) {
+                    list(child, listed, entries);
+                }
+            }
+        }
+
+        return new AssetInventory(listed, entries);
+    }
+
+    private static void list(Path folder, Set<Path> listed, Set<Path> entries) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path entry : stream) {
+                entries.add(entry);
+            }
+        } catch (NoSuchFileException | NotDirectoryException e) {
+            // Nothing in it
+        }
+        listed.add(folder);
+    }
+
+    public boolean exists(Path path) {
+        path = path.normalize();
+        if (written.contains(path)) return true;
+        if (deleted.contains(path)) return false;
+
+        Path parent = path.getParent();
+        if (parent == null) return statExists(path);
+        if (listed.contains(parent)) return entries.contains(path);
+
+        // A sub-folder that wasn't in its parent's listing doesn't exist, so neither does anything in it
+        Path grandparent = parent.getParent();
+        if (grandparent != null && listed.contains(grandparent) && !entries.contains(parent)) return false;
+
+        // Outside the listed folders
+        return statExists(path);
+    }
+
+    private static boolean statExists(Path path) {
+        Metrics.stat();
+        return Files.exists(path);
+    }
+
+    public void recordWritten(Path path) {
+        written.add(path.normalize());
+    }
+
+    public void recordDeleted(Path path) {
+        path = path.normalize();
+        written.remove(path);
+        deleted.add(path);
+    }
+}
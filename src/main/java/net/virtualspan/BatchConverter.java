@@ -0,0 +1,481 @@
+package net.virtualspan;
+
+import net.virtualspan.events.Metrics;
+import net.virtualspan.model.ConversionChoices;
+import net.virtualspan.model.ConversionOptions;
+import net.virtualspan.model.ConversionResult;
+import net.virtualspan.model.ExportStrategy;
+import net.virtualspan.model.FailureKind;
+import net.virtualspan.model.GremlinJob;
+import net.virtualspan.model.OutputFormat;
+import net.virtualspan.processors.DecodePool;
+import net.virtualspan.processors.ScaleProcessor;
+import net.virtualspan.processors.SheetStream;
+import net.virtualspan.rules.ConversionRules;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+public class BatchConverter {
+    private static final String USAGE = """
+            Usage: java -jar GremlinConverter.jar [options] <spritesheet-folder> <sounds-folder> [...]
+
+            Converts every (spritesheet folder, sounds folder) pair without any dialogs.
+            Folders inside a zip are written as <archive>.zip!/<folder>, e.g. Desktop_Gremlin.zip!/Sounds/Agnes
+
+            Options:
+              --manifest <file>          read pairs from a file, one "<spritesheet-folder>|<sounds-folder>" per line
+              --archive <zip>            convert every SpriteSheet/Gremlins/<name> in a release zip without extracting it
+              --parallelism <n>          gremlins converted at once (default: available processors)
+              --copy-parallelism <n>     file copies in flight across the whole batch (default: max(4, processors))
+              --output <folder>          export folder (default: ~/ConvertedGremlins)
+              --no-install               don't copy into ~/.config/linux-desktop-gremlin/gremlins
+              --package <format>         write each gremlin as one <name>.zip or <name>.tar in the export folder
+                                         instead of a folder, ready to extract into another machine's gremlins folder
+              --export-strategy <name>   auto, hardlink, reflink, symlink or copy when installing (default: auto)
+              --force                    convert everything again, even steps whose inputs haven't changed
+              --references               don't copy sprites and sounds that duplicate another one (e.g. intro.png from
+                                         idle.png), sprite-map.json and sfx-map.json name the original instead
+              --dedup                    store identical files once in <output>/.store and hardlink every gremlin to it
+              --gc                       remove files from <output>/.store that no gremlin links to any more,
+                                         runs after converting, or on its own when no folders are given
+              --rules <file>             extra conversion rules on top of the built-in ones, e.g. [gremlin <name>] fixes
+                                         for a gremlin that doesn't follow the usual layout (see conversion-rules.txt)
+              --validate                 fully decode every sprite sheet first, failing gremlins with corrupt or truncated
+                                         sheets and warning about frames that are outside the sheet or fully transparent
+              --decode-memory-mb <n>     decoded sheets held at once across the batch by --validate, --scale and
+                                         hotspot measuring (default: a quarter of the heap)
+              --sheet-memory-mb <n>      most one sheet holds while it is decoded, bigger sheets are streamed in
+                                         bands of rows that fit (default: 32)
+              --scale <factors>          also write sprites@<factor>x folders with every sheet resampled, e.g. 0.5,2,
+                                         "config" uses the gremlin's SCALE from config.txt
+              --mirror                   make missing left or right facing movement sheets by flipping the frames of
+                                         the one facing the other way, instead of reusing it as is
+              --repack <px>              when a sheet is wider or taller than px, lay every sheet's frames out again in a
+                                         near-square grid with a new SpriteColumn, e.g. 4096 for older GPUs
+              --resume                   skip the gremlins the last run of this same batch finished, after it was
+                                         interrupted or some of its gremlins failed
+              --journal <file>           where the batch records the gremlins and stages it finished, for --resume
+                                         (default: <output>/.batch-journal)
+              --retries <n>              times a gremlin is converted again after a transient I/O error, waiting
+                                         longer each time (default: 2)
+              --no-preview               don't write sprites/preview.png, the first idle frame as a small icon
+              --watch                    keep running and update the converted gremlins whenever their files change
+              --emote-sprite <choice>    e.g. Emotes/emote2.png (default: same as the dialog default)
+              --pat-sprite <choice>      e.g. Actions/click.png (default: same as the dialog default)
+              --emote-sound <choice>     e.g. emote3.wav (default: same as the dialog default)
+            """;
+
+    // kind is null for converted gremlins, resumed ones were finished by an earlier run with that status
+    private record Outcome(GremlinJob job, ConversionResult result, long nanos, Throwable error, FailureKind kind,
+                           int retries, String resumed) {
+    }
+
+    // First wait before converting a gremlin again, doubled for every retry up to MAX_BACKOFF_MS
+    private static final long BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 8_000;
+
+    public static void run(String[] args) {
+        // No dialogs in batch mode, errors are reported in the summary instead
+        System.setProperty("java.awt.headless", "true");
+
+        List<GremlinJob> jobs = new ArrayList<>();
+        List<String> positional = new ArrayList<>();
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        Path exportFolder = Converter.defaultExportFolder();
+        boolean install = true;
+        boolean incremental = true;
+        boolean watch = false;
+        boolean deduplicate = false;
+        boolean references = false;
+        boolean validate = false;
+        boolean preview = true;
+        boolean mirror = false;
+        int repack = 0;
+        boolean resume = false;
+        Path journalFile = null;
+        int retries = 2;
+        List<Double> scales = List.of();
+        boolean gc = false;
+        ExportStrategy exportStrategy = ExportStrategy.AUTO;
+        OutputFormat outputFormat = OutputFormat.FOLDER;
+        String emoteSprite = "default";
+        String patSprite = "default";
+        String emoteSound = "default";
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--manifest" -> jobs.addAll(readManifest(Path.of(value(args, ++i))));
+                    case "--archive" -> jobs.addAll(ArchiveInputs.discover(Path.of(value(args, ++i))));
+                    case "--parallelism" -> parallelism = Integer.parseInt(value(args, ++i));
+                    case "--copy-parallelism" -> CopyExecutor.setParallelism(Integer.parseInt(value(args, ++i)));
+                    case "--output" -> exportFolder = Path.of(value(args, ++i));
+                    case "--no-install" -> install = false;
+                    case "--force" -> incremental = false;
+                    case "--watch" -> watch = true;
+                    case "--dedup" -> deduplicate = true;
+                    case "--references" -> references = true;
+                    case "--rules" -> ConversionRules.addRules(Path.of(value(args, ++i)));
+                    case "--gc" -> gc = true;
+                    case "--validate" -> validate = true;
+                    case "--no-preview" -> preview = false;
+                    case "--mirror" -> mirror = true;
+                    case "--repack" -> repack = Integer.parseInt(value(args, ++i));
+                    case "--resume" -> resume = true;
+                    case "--journal" -> journalFile = Path.of(value(args, ++i));
+                    case "--retries" -> retries = Integer.parseInt(value(args, ++i));
+                    case "--scale" -> scales = ScaleProcessor.parse(value(args, ++i));
+                    case "--decode-memory-mb" -> DecodePool.setMemoryBudget(Long.parseLong(value(args, ++i)));
+                    case "--sheet-memory-mb" -> SheetStream.setMemoryBudget(Long.parseLong(value(args, ++i)));
+                    case "--export-strategy" ->
+                            exportStrategy = ExportStrategy.valueOf(value(args, ++i).toUpperCase(Locale.ROOT));
+                    case "--package" -> outputFormat = OutputFormat.valueOf(value(args, ++i).toUpperCase(Locale.ROOT));
+                    case "--emote-sprite" -> emoteSprite = value(args, ++i);
+                    case "--pat-sprite" -> patSprite = value(args, ++i);
+                    case "--emote-sound" -> emoteSound = value(args, ++i);
+                    case "--help", "-h" -> {
+                        System.out.print(USAGE);
+                        return;
+                    }
+                    default -> {
+                        if (args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                        }
+                        positional.add(args[i]);
+                    }
+                }
+            }
+
+            if (positional.size() % 2 != 0) {
+                throw new IllegalArgumentException("Every spritesheet folder needs a matching sounds folder");
+            }
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("--parallelism must be at least 1");
+            }
+            if (repack < 0) {
+                throw new IllegalArgumentException("--repack can't be negative");
+            }
+            if (retries < 0) {
+                throw new IllegalArgumentException("--retries can't be negative");
+            }
+            if (watch && outputFormat != OutputFormat.FOLDER) {
+                throw new IllegalArgumentException("--watch only works with folder output");
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        try {
+            for (int i = 0; i < positional.size(); i += 2) {
+                jobs.add(new GremlinJob(
+                        ArchiveInputs.resolve(Path.of(""), positional.get(i)),
+                        ArchiveInputs.resolve(Path.of(""), positional.get(i + 1))));
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to open archive: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        if (jobs.isEmpty() && gc) {
+            System.exit(collectGarbage(exportFolder) ? 0 : 1);
+            return;
+        }
+
+        if (jobs.isEmpty()) {
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        ConversionChoices choices = new ConversionChoices(emoteSprite, patSprite, emoteSound);
+        ConversionOptions options = new ConversionOptions(
+                exportFolder, install, incremental, exportStrategy, outputFormat, deduplicate, references, validate, preview, scales, mirror, repack);
+        if (journalFile == null) journalFile = exportFolder.resolve(BatchJournal.FILE_NAME);
+
+        List<Outcome> outcomes;
+        try (BatchJournal journal = BatchJournal.open(journalFile, fingerprint(jobs, choices, options), resume)) {
+            outcomes = convertAll(jobs, choices, options, parallelism, journal, retries);
+        } catch (IOException e) {
+            System.err.println("Failed to open batch journal " + journalFile + ": " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+        ArchiveInputs.closeAll();
+
+        if (watch) {
+            Set<GremlinJob> converted = new HashSet<>();
+            for (Outcome outcome : outcomes) {
+                if (outcome.error() == null) converted.add(outcome.job());
+            }
+
+            // Edits only need the steps that depend on them, so there's no point forcing every update
+            ConversionOptions watchOptions = new ConversionOptions(
+                    exportFolder, install, true, exportStrategy, OutputFormat.FOLDER, deduplicate, references, validate, preview, scales, mirror, repack);
+            try {
+                GremlinWatcher.watch(jobs, converted, choices, watchOptions);
+            } catch (IOException e) {
+                System.err.println("Failed to watch gremlin folders: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+
+        boolean failed = outcomes.stream().anyMatch(outcome -> outcome.error() != null);
+        if (gc && !collectGarbage(exportFolder)) {
+            failed = true;
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static boolean collectGarbage(Path exportFolder) {
+        try {
+            BlobStore.GcReport report = BlobStore.gc(exportFolder.resolve(BlobStore.FOLDER_NAME));
+            System.out.printf("Removed %d unreferenced blob(s), freed %.2f MB%n",
+                    report.removed(), report.bytesFreed() / 1_048_576.0);
+            return true;
+        } catch (UnsupportedOperationException e) {
+            System.err.println("Skipped cleaning up the blob store, " + e.getMessage());
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to clean up the blob store: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // The same jobs with the same options, choices and rules, what --resume needs for the journal's finished gremlins to count
+    private static String fingerprint(List<GremlinJob> jobs, ConversionChoices choices, ConversionOptions options) {
+        CRC32 crc = new CRC32();
+        for (GremlinJob job : jobs) {
+            // Only gremlins converted with custom rules have a rules fingerprint, so editing a --rules file starts over
+            String rules = ConversionRules.forGremlin(Converter.normalise(job.spriteSheetFolder())).fingerprint();
+            crc.update((job.spriteSheetFolder().toAbsolutePath() + "|" + job.soundFolder().toAbsolutePath()
+                    + (rules != null ? "|" + rules : "") + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        crc.update((choices + "\n" + options).getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    // Every gremlin is converted on its own, whatever one of them throws only fails that gremlin
+    private static List<Outcome> convertAll(
+            List<GremlinJob> jobs,
+            ConversionChoices choices,
+            ConversionOptions options,
+            int parallelism,
+            BatchJournal journal,
+            int retries) {
+        // Two jobs with the same folder name would write into the same output folder
+        Set<String> names = new HashSet<>();
+        Semaphore permits = new Semaphore(parallelism);
+        List<Future<Outcome>> futures = new ArrayList<>();
+
+        long start = System.nanoTime();
+        Metrics.onStageEnd(event -> journal.stage(event.gremlin, event.stage, event.outcome));
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (GremlinJob job : jobs) {
+                boolean duplicate = !names.add(Converter.normalise(job.spriteSheetFolder()));
+
+                futures.add(executor.submit(() -> {
+                    String name = Converter.normalise(job.spriteSheetFolder());
+                    if (duplicate) {
+                        Outcome outcome = new Outcome(job, null, 0, new IllegalArgumentException(
+                                "Another gremlin in this batch already converts to the same folder"),
+                                FailureKind.CONFLICT, 0, null);
+                        journal.failed(name, outcome.kind(), describe(outcome.error()));
+                        return outcome;
+                    }
+
+                    String finished = journal.finished(name);
+                    if (finished != null) {
+                        return new Outcome(job, null, 0, null, null, 0, finished);
+                    }
+
+                    permits.acquire();
+                    try {
+                        return convert(job, name, choices, options, journal, retries, permits);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+        }
+
+        Metrics.onStageEnd(_ -> {
+        });
+        long elapsed = System.nanoTime() - start;
+
+        List<Outcome> outcomes = new ArrayList<>();
+        for (Future<Outcome> future : futures) {
+            try {
+                outcomes.add(future.get());
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException("Batch conversion was interrupted", e);
+            }
+        }
+
+        printSummary(outcomes, elapsed);
+        Metrics.printSummary(System.out);
+        return outcomes;
+    }
+
+    // Converts one gremlin, again after a transient I/O error while there are retries left
+    // The permit is given back while waiting so the other gremlins keep going
+    private static Outcome convert(GremlinJob job, String name, ConversionChoices choices, ConversionOptions options,
+                                   BatchJournal journal, int retries, Semaphore permits) throws InterruptedException {
+        journal.started(name, job.spriteSheetFolder());
+        long jobStart = System.nanoTime();
+
+        for (int attempt = 0; ; attempt++) {
+            try {
+                ConversionResult result = Converter.convert(job.spriteSheetFolder(), job.soundFolder(), choices, options);
+                journal.done(name, status(result));
+                return new Outcome(job, result, System.nanoTime() - jobStart, null, null, attempt, null);
+            } catch (RuntimeException e) {
+                FailureKind kind = classify(e);
+                if (attempt >= retries || !retryable(e)) {
+                    journal.failed(name, kind, describe(e));
+                    return new Outcome(job, null, System.nanoTime() - jobStart, e, kind, attempt, null);
+                }
+                journal.retry(name, attempt + 1, describe(e));
+            }
+
+            long backoff = Math.min(MAX_BACKOFF_MS, BACKOFF_MS << attempt);
+            permits.release();
+            try {
+                // Up to a quarter more, so gremlins that failed together don't all retry together
+                Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff / 4 + 1));
+            } finally {
+                permits.acquireUninterruptibly();
+            }
+        }
+    }
+
+    private static FailureKind classify(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IncompatibleGremlinException) return FailureKind.INCOMPATIBLE;
+            if (cause instanceof IOException || cause instanceof UncheckedIOException) return FailureKind.IO;
+        }
+        return FailureKind.ERROR;
+    }
+
+    // I/O errors that can go away by themselves, e.g. a busy or briefly unavailable disk or network share
+    // Missing files, permissions and corrupt archives stay the same however often they're retried
+    private static boolean retryable(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            switch (cause) {
+                case IncompatibleGremlinException _, NoSuchFileException _, AccessDeniedException _,
+                     NotDirectoryException _, FileAlreadyExistsException _, DirectoryNotEmptyException _,
+                     ZipException _, EOFException _, CharacterCodingException _ -> {
+                    return false;
+                }
+                case IOException _ -> {
+                    return true;
+                }
+                default -> {
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void printSummary(List<Outcome> outcomes, long elapsed) {
+        int converted = 0;
+        int retried = 0;
+        long bytes = 0;
+        Map<FailureKind, Integer> failures = new EnumMap<>(FailureKind.class);
+
+        System.out.printf("%-24s %-8s %7s %10s %9s%n", "Gremlin", "Status", "Files", "MB", "ms");
+        for (Outcome outcome : outcomes) {
+            String name = Converter.normalise(outcome.job().spriteSheetFolder());
+            long ms = outcome.nanos() / 1_000_000;
+
+            retried += outcome.retries();
+            if (outcome.resumed() != null) {
+                converted++;
+                System.out.printf("%-24s %-8s %7s %10s %9s  finished by the run being resumed (%s)%n",
+                        name, "DONE", "-", "-", "-", outcome.resumed());
+            } else if (outcome.error() == null) {
+                ConversionResult result = outcome.result();
+                converted++;
+                bytes += result.bytesWritten();
+                System.out.printf("%-24s %-8s %7d %10.2f %9d%n",
+                        name, status(result), result.filesWritten(),
+                        result.bytesWritten() / 1_048_576.0, ms);
+            } else {
+                failures.merge(outcome.kind(), 1, Integer::sum);
+                System.out.printf("%-24s %-8s %7s %10s %9d  [%s] %s%n",
+                        name, "FAILED", "-", "-", ms, outcome.kind().label(), describe(outcome.error()));
+            }
+        }
+
+        double seconds = Math.max(elapsed / 1e9, 1e-9);
+        System.out.printf("%nConverted %d of %d gremlins in %.2f s (%.2f gremlins/s, %.2f MB/s)%n",
+                converted, outcomes.size(), seconds, converted / seconds, bytes / 1_048_576.0 / seconds);
+        if (retried > 0) {
+            System.out.printf("Retried %d time(s) after transient I/O errors%n", retried);
+        }
+        if (!failures.isEmpty()) {
+            StringJoiner tally = new StringJoiner(", ");
+            failures.forEach((kind, count) -> tally.add(count + " " + kind.label()));
+            System.out.println("Failed: " + tally + ", run again with --resume to convert only what didn't finish");
+        }
+    }
+
+    private static String status(ConversionResult result) {
+        if (result.upToDate()) return "SKIPPED";
+        return result.installed() ? "INSTALL" : "OK";
+    }
+
+    private static String describe(Throwable error) {
+        String message = error.getMessage() == null ? error.toString() : error.getMessage();
+        return message.strip().replaceAll("\\s*\\n\\s*", " ");
+    }
+
+    private static List<GremlinJob> readManifest(Path manifest) throws IOException {
+        List<GremlinJob> jobs = new ArrayList<>();
+        Path base = manifest.toAbsolutePath().getParent();
+
+        for (String line : Files.readAllLines(manifest)) {
+            line = line.trim();
+
+            // Skip comments and empty lines, same as config.txt
+            if (line.isEmpty() || line.startsWith("//")) continue;
+
+            String[] parts = line.split("\\|");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected <spritesheet-folder>|<sounds-folder> in manifest line: " + line);
+            }
+
+            jobs.add(new GremlinJob(
+                    ArchiveInputs.resolve(base, parts[0].trim()),
+                    ArchiveInputs.resolve(base, parts[1].trim())));
+        }
+
+        return jobs;
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(args[i - 1] + " needs a value");
+        }
+        return args[i];
+    }
+}
@@ -0,0 +1,155 @@
+package net.virtualspan;
+
+import net.virtualspan.model.FailureKind;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Append-only record of a batch run, one tab separated line per event, flushed as it's written so a run that's
+// killed halfway leaves everything it finished behind
+//   run <fingerprint>                     a fresh run started, the fingerprint covers the jobs, options and rules
+//   resume                                the run was picked up again with --resume
+//   start <gremlin> <sprite folder>       a gremlin started converting
+//   stage <gremlin> <stage> <outcome>     one of its conversion stages ended (ok or failed)
+//   retry <gremlin> <attempt> <message>   it failed with a transient I/O error and is converted again
+//   done <gremlin> <status>               it was converted, --resume skips it
+//   failed <gremlin> <kind> <message>     it wasn't, --resume converts it again
+public class BatchJournal implements Closeable {
+    public static final String FILE_NAME = ".batch-journal";
+
+    private final Path file;
+    private BufferedWriter writer;
+
+    // Gremlins the journal being resumed already finished, with their status
+    private final Map<String, String> finished;
+
+    private BatchJournal(Path file, BufferedWriter writer, Map<String, String> finished) {
+        this.file = file;
+        this.writer = writer;
+        this.finished = finished;
+    }
+
+    // With resume the journal at file is continued when it was written for the same fingerprint, anything else
+    // (no journal, another batch, --resume not given) starts a new one
+    public static BatchJournal open(Path file, String fingerprint, boolean resume) throws IOException {
+        Map<String, String> finished = new HashMap<>();
+        boolean continued = false;
+
+        if (resume) {
+            List<String> lines;
+            try {
+                lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            } catch (NoSuchFileException e) {
+                lines = List.of();
+            }
+
+            if (!lines.isEmpty() && lines.getFirst().equals("run\t" + fingerprint)) {
+                continued = true;
+                for (String line : lines) {
+                    // A line cut short by the run being killed has fewer fields and is ignored
+                    String[] fields = line.split("\t", -1);
+                    if (fields[0].equals("done") && fields.length == 3) {
+                        finished.put(fields[1], fields[2]);
+                    } else if (fields[0].equals("failed") && fields.length == 4 || fields[0].equals("start") && fields.length == 3) {
+                        finished.remove(fields[1]);
+                    }
+                }
+            } else if (Files.exists(file)) {
+                System.err.println("Batch journal " + file + " is for other gremlins, options or rules, starting over");
+            } else {
+                System.err.println("No batch journal at " + file + ", starting over");
+            }
+        }
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        BufferedWriter writer = continued
+                ? Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND)
+                : Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+
+        BatchJournal journal = new BatchJournal(file, writer, finished);
+        if (continued) {
+            // A line the killed run only wrote part of would otherwise swallow the next one
+            if (Files.size(file) > 0 && !endsWithNewline(file)) writer.newLine();
+            journal.append("resume");
+        } else {
+            journal.append("run", fingerprint);
+        }
+        return journal;
+    }
+
+    private static boolean endsWithNewline(Path file) throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.position(channel.size() - 1).read(last);
+            return last.get(0) == '\n';
+        }
+    }
+
+    // The status the gremlin finished with in the run being resumed, or null when it has to be converted
+    public String finished(String gremlin) {
+        return finished.get(gremlin);
+    }
+
+    public void started(String gremlin, Path spriteSheetFolder) {
+        append("start", gremlin, spriteSheetFolder.toString());
+    }
+
+    public void stage(String gremlin, String stage, String outcome) {
+        append("stage", gremlin, stage, outcome);
+    }
+
+    public void retry(String gremlin, int attempt, String message) {
+        append("retry", gremlin, Integer.toString(attempt), message);
+    }
+
+    public void done(String gremlin, String status) {
+        append("done", gremlin, status);
+    }
+
+    public void failed(String gremlin, FailureKind kind, String message) {
+        append("failed", gremlin, kind.label(), message);
+    }
+
+    // Gremlins convert in parallel, so lines are written whole one at a time
+    // When the journal can't be written the batch carries on without it, --resume then converts more than it needs to
+    private synchronized void append(String... fields) {
+        if (writer == null) return;
+
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                if (i > 0) writer.write('\t');
+                writer.write(fields[i].replaceAll("[\t\r\n]+", " "));
+            }
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            System.err.println("Failed to write batch journal " + file + ", --resume won't see the rest of this run: " + e.getMessage());
+            closeQuietly();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            writer.close();
+        } catch (IOException _) {
+            // Already reported, and nothing more is written
+        }
+        writer = null;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (writer != null) closeQuietly();
+    }
+}
@@ -0,0 +1,172 @@
+package net.virtualspan;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+// Content-addressed store shared by every converted gremlin in an export folder
+// Each distinct file is kept once as .store/<first 2 hex digits>/<hash>, and gremlin folders hardlink to it
+// A blob nothing links to any more has a link count of 1 and is removed by gc
+public class BlobStore {
+    public static final String FOLDER_NAME = ".store";
+
+    // Files are hashed in chunks of this size in parallel, each chunk mapped instead of read
+    private static final int CHUNK = 4 * 1024 * 1024;
+
+    // Below this mapping costs more than it saves
+    private static final int MAP_THRESHOLD = 64 * 1024;
+
+    public record DedupReport(int files, int linked, long bytesSaved) {
+    }
+
+    public record GcReport(int removed, long bytesFreed) {
+    }
+
+    // Moves every file under gremlinFolder into the store, or links it to the blob that's already there
+    // The manifest is left alone, it's unique per gremlin and rewritten in place
+    public static DedupReport dedup(Path gremlinFolder, Path store) throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(gremlinFolder)) {
+            files = stream
+                    .filter(Files::isRegularFile)
+                    .filter(path -> !path.getFileName().toString().equals(ManifestUtils.FILE_NAME))
+                    .toList();
+        }
+
+        int linked = 0;
+        long bytesSaved = 0;
+
+        for (Path file : files) {
+            long size = Files.size(file);
+            Path blob = blobPath(store, hash(file));
+            Files.createDirectories(blob.getParent());
+
+            try {
+                // First copy of this content, the file itself becomes the blob
+                Files.createLink(blob, file);
+                continue;
+            } catch (FileAlreadyExistsException e) {
+                // Already stored, by this gremlin or another one
+            }
+
+            if (Files.isSameFile(blob, file)) continue;
+
+            // Link next to the file and rename it over the top, so the file is never missing
+            Path temporary = file.resolveSibling(file.getFileName() + ".store-link");
+            Files.deleteIfExists(temporary);
+            Files.createLink(temporary, blob);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            linked++;
+            bytesSaved += size;
+        }
+
+        return new DedupReport(files.size(), linked, bytesSaved);
+    }
+
+    // Removes blobs only the store still links to
+    // Link counts are a unix attribute, elsewhere (e.g. Windows) there is no telling which blobs are unused
+    public static GcReport gc(Path store) throws IOException {
+        if (!Files.isDirectory(store)) return new GcReport(0, 0);
+        if (!store.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+            throw new UnsupportedOperationException("this file system doesn't report link counts");
+        }
+
+        List<Path> blobs;
+        try (Stream<Path> stream = Files.walk(store, 2)) {
+            blobs = stream.filter(Files::isRegularFile).toList();
+        }
+
+        int removed = 0;
+        long bytesFreed = 0;
+
+        for (Path blob : blobs) {
+            int links = (Integer) Files.getAttribute(blob, "unix:nlink");
+            if (links > 1) continue;
+
+            long size = Files.size(blob);
+            if (Files.deleteIfExists(blob)) {
+                removed++;
+                bytesFreed += size;
+            }
+        }
+
+        // Shard folders that ended up empty
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(store, Files::isDirectory)) {
+            for (Path shard : shards) {
+                try (DirectoryStream<Path> contents = Files.newDirectoryStream(shard)) {
+                    if (contents.iterator().hasNext()) continue;
+                }
+                Files.deleteIfExists(shard);
+            }
+        }
+
+        return new GcReport(removed, bytesFreed);
+    }
+
+    // SHA-256 over the file size and the SHA-256 of every chunk, so big files hash on all cores
+    public static String hash(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int chunks = (int) Math.max(1, (size + CHUNK - 1) / CHUNK);
+
+            List<byte[]> digests;
+            if (size < MAP_THRESHOLD) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                    // Keep reading until the whole file is in
+                }
+                digests = List.of(digest(buffer.flip()));
+            } else {
+                digests = new ArrayList<>(IntStream.range(0, chunks).parallel().mapToObj(i -> {
+                    long position = (long) i * CHUNK;
+                    try {
+                        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY,
+                                position, Math.min(CHUNK, size - position));
+                        return digest(chunk);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }).toList());
+            }
+
+            MessageDigest combined = sha256();
+            combined.update(ByteBuffer.allocate(Long.BYTES).putLong(size).flip());
+            for (byte[] digest : digests) {
+                combined.update(digest);
+            }
+            return HexFormat.of().formatHex(combined.digest());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Path blobPath(Path store, String hash) {
+        return store.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private static byte[] digest(ByteBuffer buffer) {
+        MessageDigest digest = sha256();
+        digest.update(buffer);
+        return digest.digest();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JDK has to ship SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,481 @@
+package net.virtualspan;
+
+import net.virtualspan.events.ConversionStage;
+import net.virtualspan.events.Metrics;
+import net.virtualspan.events.StageEvent;
+import net.virtualspan.model.ConversionChoices;
+import net.virtualspan.model.ConversionManifest;
+import net.virtualspan.model.ConversionOptions;
+import net.virtualspan.model.ConversionResult;
+import net.virtualspan.model.FrameCount;
+import net.virtualspan.model.InputFingerprint;
+import net.virtualspan.model.OutputFormat;
+import net.virtualspan.model.SheetValidation;
+import net.virtualspan.model.SoundResult;
+import net.virtualspan.model.SpriteMap;
+import net.virtualspan.model.SpriteResult;
+import net.virtualspan.output.ArchiveSink;
+import net.virtualspan.output.FolderSink;
+import net.virtualspan.output.OutputSink;
+import net.virtualspan.output.TarSink;
+import net.virtualspan.output.ZipSink;
+import net.virtualspan.processors.FrameCountProcessor;
+import net.virtualspan.processors.HotspotProcessor;
+import net.virtualspan.processors.PreviewProcessor;
+import net.virtualspan.processors.ScaleProcessor;
+import net.virtualspan.processors.SheetValidator;
+import net.virtualspan.processors.SoundProcessor;
+import net.virtualspan.processors.SpriteProcessor;
+import net.virtualspan.rules.ConversionRules;
+import net.virtualspan.rules.GremlinRules;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static net.virtualspan.FileUtils.copyFolder;
+import static net.virtualspan.FileUtils.ioExceptionPrompt;
+
+public class Converter {
+    public static Path defaultExportFolder() {
+        return Path.of(System.getProperty("user.home"), "ConvertedGremlins");
+    }
+
+    public static Path gremlinsDir() {
+        return Path.of(System.getProperty("user.home"), ".config", "linux-desktop-gremlin", "gremlins");
+    }
+
+    public static String normalise(Path spriteSheetFolder) {
+        // Get folder name for gremlin
+        String folderName = spriteSheetFolder.getFileName().toString();
+        return folderName.toLowerCase().replace(" ", "-");
+    }
+
+    public static ConversionResult convert(
+            Path spriteSheetFolder,
+            Path soundFolder,
+            ConversionChoices choices,
+            ConversionOptions options) {
+        String normalised = normalise(spriteSheetFolder);
+
+        // Export Folder Paths
+        // Packaged output goes into <name>.zip or <name>.tar, and everything below writes into it as if it was the folder
+        boolean packaged = options.outputFormat() != OutputFormat.FOLDER;
+        Path gremlinFolder = switch (options.outputFormat()) {
+            case FOLDER -> options.exportFolder().resolve(normalised);
+            case ZIP -> options.exportFolder().resolve(normalised + ".zip");
+            case TAR -> options.exportFolder().resolve(normalised + ".tar");
+        };
+        Path convertedSpriteFolder = gremlinFolder.resolve("sprites");
+        Path convertedSoundFolder = gremlinFolder.resolve("sounds");
+
+        // File Paths
+        Path originalConfigPath = spriteSheetFolder.resolve("config.txt");
+        Path frameCountPath = convertedSpriteFolder.resolve("frame-count.json");
+        Path spriteMapPath = convertedSpriteFolder.resolve("sprite-map.json");
+        Path previewPath = convertedSpriteFolder.resolve(PreviewProcessor.FILE_NAME);
+        Path emoteConfigPath = convertedSpriteFolder.resolve("emote-config.json");
+        Path sfxMapPath = convertedSoundFolder.resolve("sfx-map.json");
+        Path sfxDurationsPath = convertedSoundFolder.resolve("sfx-durations.json");
+        Path manifestPath = ManifestUtils.path(gremlinFolder);
+
+        // Where every converted file comes from, compiled once and shared with every other gremlin without overrides
+        GremlinRules rules = ConversionRules.forGremlin(normalised);
+
+        // One listing of each folder answers every "does this file exist" question below
+        AssetInventory inventory = null;
+        StageEvent stage = Metrics.beginStage(normalised, ConversionStage.INVENTORY, spriteSheetFolder);
+        try {
+            inventory = AssetInventory.scan(spriteSheetFolder, soundFolder, gremlinFolder);
+            rules.require(inventory, spriteSheetFolder, soundFolder);
+            Metrics.succeeded(stage);
+        } catch (IOException e) {
+            ioExceptionPrompt("Failed to list gremlin folders", e);
+        } finally {
+            Metrics.endStage(stage);
+        }
+
+        // Sets defaults
+        Map<String, String> chosen = rules.choose(inventory, spriteSheetFolder, soundFolder, choices);
+        String emoteSpriteChoice = chosen.get("emoteSprite");
+        String patSpriteChoice = chosen.get("patSprite");
+        String emoteSoundChoice = chosen.get("emoteSound");
+
+        // Compare inputs and choices against the last conversion to find the steps that need to run again
+        // An archive is always written from scratch, so there is nothing to compare against
+        ConversionManifest previous = options.incremental() && !packaged && inventory.exists(manifestPath)
+                ? ManifestUtils.read(manifestPath)
+                : ConversionManifest.empty();
+
+        // Scaled copies of the sprites folder, e.g. sprites@0.5x
+        List<Double> scales = ScaleProcessor.resolve(options.scales(), originalConfigPath);
+        List<Path> variantFolders = new ArrayList<>();
+        for (double scale : scales) {
+            variantFolders.add(gremlinFolder.resolve(ScaleProcessor.folderName(scale)));
+        }
+
+        Map<String, String> choiceValues = ManifestUtils.choices(chosen, options, rules, scales);
+        boolean referencesChanged = !Objects.equals(choiceValues.get("references"), previous.choices().get("references"));
+
+        // Mirrored and repacked sheets only change the sprites
+        boolean mirrorChanged = !Objects.equals(choiceValues.get("mirror"), previous.choices().get("mirror"));
+        boolean repackChanged = !Objects.equals(choiceValues.get("repack"), previous.choices().get("repack"));
+        boolean rulesChanged = !Objects.equals(choiceValues.get("rules"), previous.choices().get("rules"));
+        boolean scalesChanged = !Objects.equals(choiceValues.get("scale"), previous.choices().get("scale"));
+        for (Path folder : variantFolders) {
+            if (!inventory.exists(folder.resolve("sprite-map.json"))) scalesChanged = true;
+        }
+
+        Map<String, InputFingerprint> spriteInputs = Map.of();
+        Map<String, InputFingerprint> soundInputs = Map.of();
+        if (!packaged) {
+            stage = Metrics.beginStage(normalised, ConversionStage.FINGERPRINT, spriteSheetFolder);
+            try {
+                spriteInputs = ManifestUtils.scan(spriteSheetFolder, "sprites/", previous);
+                soundInputs = ManifestUtils.scan(soundFolder, "sounds/", previous);
+                Metrics.succeeded(stage);
+            } catch (IOException e) {
+                ioExceptionPrompt("Failed to read input files", e);
+            } finally {
+                Metrics.endStage(stage);
+            }
+        }
+
+        boolean spritesChanged = !ManifestUtils.unchanged(previous, "sprites/", spriteInputs)
+                || !emoteSpriteChoice.equals(previous.choices().get("emoteSprite"))
+                || !patSpriteChoice.equals(previous.choices().get("patSprite"))
+                || referencesChanged
+                || mirrorChanged
+                || repackChanged
+                || rulesChanged
+                || scalesChanged
+                || !inventory.exists(frameCountPath)
+                || !inventory.exists(spriteMapPath)
+                || options.preview() && !inventory.exists(previewPath);
+
+        boolean soundsChanged = !ManifestUtils.unchanged(previous, "sounds/", soundInputs)
+                || !emoteSoundChoice.equals(previous.choices().get("emoteSound"))
+                || referencesChanged
+                || rulesChanged
+                || scalesChanged
+                || !inventory.exists(emoteConfigPath)
+                || !inventory.exists(sfxMapPath)
+                || !inventory.exists(sfxDurationsPath);
+
+        // Decode every sheet that is about to be copied before anything is written, a corrupt one fails the gremlin
+        if (spritesChanged && options.validate()) {
+            Set<String> sheets = new LinkedHashSet<>();
+            for (Path[] copy : rules.spriteCopies(spriteSheetFolder, convertedSpriteFolder, chosen)) {
+                sheets.add(spriteSheetFolder.relativize(copy[0]).toString().replace('\\', '/'));
+            }
+
+            Map<String, Integer> values = SpriteProcessor.readConfig(originalConfigPath);
+            rules.applyCounts(values);
+
+            SheetValidation validation;
+            stage = Metrics.beginStage(normalised, ConversionStage.VALIDATE, spriteSheetFolder);
+            try {
+                validation = SheetValidator.validate(
+                        spriteSheetFolder, sheets, rules.frameSheets(inventory, spriteSheetFolder, chosen), values, inventory);
+                Metrics.succeeded(stage);
+            } finally {
+                Metrics.endStage(stage);
+            }
+
+            for (String warning : validation.warnings()) {
+                System.err.println(normalised + ": " + warning);
+            }
+            if (!validation.errors().isEmpty()) {
+                throw new IncompatibleGremlinException(String.join("; ", validation.errors()));
+            }
+        }
+
+        // Make sure the export folders exist
+        // The old manifest goes first so a conversion that fails halfway is never treated as up to date
+        ArchiveSink archive = null;
+        try {
+            if (packaged) {
+                Files.createDirectories(options.exportFolder());
+                archive = options.outputFormat() == OutputFormat.ZIP
+                        ? new ZipSink(gremlinFolder, normalised)
+                        : new TarSink(gremlinFolder, normalised);
+            } else {
+                Files.createDirectories(convertedSpriteFolder);
+                Files.createDirectories(convertedSoundFolder);
+                for (Path folder : variantFolders) {
+                    Files.createDirectories(folder);
+                }
+                if (scalesChanged) {
+                    ScaleProcessor.deleteStale(gremlinFolder, variantFolders);
+                }
+
+                if (spritesChanged || soundsChanged) {
+                    Files.deleteIfExists(manifestPath);
+                    Files.deleteIfExists(gremlinFolder.resolve(ManifestUtils.OLD_LOCATION));
+                }
+            }
+        } catch (IOException e) {
+            ioExceptionPrompt("Failed to create export directories", e);
+        }
+
+        OutputSink sink = archive != null ? archive : FolderSink.INSTANCE;
+
+        // Without a commit, closing the sink throws away a half written archive
+        try (sink) {
+            if (spritesChanged) {
+                // Pull in records from classes
+                SpriteResult spriteSheet;
+                stage = Metrics.beginStage(normalised, ConversionStage.SPRITES, convertedSpriteFolder);
+                try {
+                    spriteSheet = SpriteProcessor.process(
+                            spriteSheetFolder,
+                            convertedSpriteFolder,
+                            originalConfigPath,
+                            rules,
+                            chosen,
+                            inventory,
+                            sink,
+                            options.references(),
+                            options.mirror(),
+                            options.repack());
+                    Metrics.succeeded(stage);
+                } finally {
+                    Metrics.endStage(stage);
+                }
+
+                for (String warning : spriteSheet.warnings()) {
+                    System.err.println(normalised + ": " + warning);
+                }
+
+                // Return back variables from records/classes
+                Set<String> skip = spriteSheet.skip();
+                Map<String, Integer> values = spriteSheet.values();
+
+                FrameCount frameCount;
+                stage = Metrics.beginStage(normalised, ConversionStage.FRAME_COUNT, convertedSpriteFolder);
+                try {
+                    frameCount = FrameCountProcessor.process(
+                            rules,
+                            convertedSpriteFolder,
+                            chosen,
+                            skip,
+                            values,
+                            inventory);
+                    Metrics.succeeded(stage);
+                } finally {
+                    Metrics.endStage(stage);
+                }
+
+                // Converted sheet -> the source it was copied from
+                Map<Path, Path> copied = CopyExecutor.plan(
+                        rules.spriteCopies(spriteSheetFolder, convertedSpriteFolder, chosen), inventory::exists);
+
+                // Hit areas from the opaque pixels of the idle and hover frames
+                SpriteMap spriteMap;
+                List<String> hotspotWarnings = new ArrayList<>();
+                stage = Metrics.beginStage(normalised, ConversionStage.HOTSPOTS, convertedSpriteFolder);
+                try {
+                    spriteMap = HotspotProcessor.apply(spriteSheet.spriteMap(),
+                            HotspotProcessor.measure(
+                                    HotspotProcessor.sheets(copied, convertedSpriteFolder), values, hotspotWarnings));
+                    Metrics.succeeded(stage);
+                } finally {
+                    Metrics.endStage(stage);
+                }
+
+                for (String warning : hotspotWarnings) {
+                    System.err.println(normalised + ": " + warning);
+                }
+
+                // Write files
+                stage = Metrics.beginStage(normalised, ConversionStage.JSON, convertedSpriteFolder);
+                try {
+                    OutputFiles.write(sink, frameCountPath, frameCount);
+                    OutputFiles.write(sink, spriteMapPath, spriteMap);
+                    inventory.recordWritten(frameCountPath);
+                    inventory.recordWritten(spriteMapPath);
+                    Metrics.succeeded(stage);
+                } catch (IOException e) {
+                    ioExceptionPrompt("Failed to write frame-count/sprite-sheet file", e);
+                } finally {
+                    Metrics.endStage(stage);
+                }
+
+                // From whichever source the rules copied into idle.png, a missing preview doesn't fail the gremlin
+                Path idleSheet = copied.get(convertedSpriteFolder.resolve("idle.png"));
+                if (options.preview() && idleSheet != null) {
+                    stage = Metrics.beginStage(normalised, ConversionStage.PREVIEW, previewPath);
+                    try {
+                        PreviewProcessor.write(idleSheet, values, sink, previewPath);
+                        inventory.recordWritten(previewPath);
+                        Metrics.succeeded(stage);
+                    } catch (IOException e) {
+                        System.err.println(normalised + ": no " + PreviewProcessor.FILE_NAME + ", " + e.getMessage());
+                    } finally {
+                        Metrics.endStage(stage);
+                    }
+                }
+
+                // Aliases only exist in the JSON, so every variant gets the same ones
+                if (!scales.isEmpty()) {
+                    Map<Path, Path> sheets = new LinkedHashMap<>(copied);
+                    if (options.references()) {
+                        sheets.keySet().removeAll(CopyExecutor.aliases(copied).keySet());
+                    }
+                    sheets.putAll(spriteSheet.mirrored());
+
+                    stage = Metrics.beginStage(normalised, ConversionStage.SCALE, gremlinFolder);
+                    try {
+                        for (String warning : ScaleProcessor.process(sheets, spriteSheet.mirrored().keySet(),
+                                spriteSheet.columns(), convertedSpriteFolder, scales, values, sink)) {
+                            System.err.println(normalised + ": " + warning);
+                        }
+
+                        for (int i = 0; i < scales.size(); i++) {
+                            Path folder = variantFolders.get(i);
+                            OutputFiles.write(sink, folder.resolve("frame-count.json"), frameCount);
+                            OutputFiles.write(sink, folder.resolve("sprite-map.json"),
+                                    ScaleProcessor.scaled(spriteMap, scales.get(i)));
+                        }
+                        Metrics.succeeded(stage);
+                    } catch (IOException e) {
+                        ioExceptionPrompt("Failed to write scaled sprites", e);
+                    } finally {
+                        Metrics.endStage(stage);
+                    }
+                }
+            }
+
+            if (soundsChanged) {
+                SoundResult sound;
+                stage = Metrics.beginStage(normalised, ConversionStage.SOUNDS, convertedSoundFolder);
+                try {
+                    sound = SoundProcessor.process(
+                            soundFolder,
+                            convertedSoundFolder,
+                            rules,
+                            chosen,
+                            inventory,
+                            sink,
+                            options.references());
+                    Metrics.succeeded(stage);
+                } finally {
+                    Metrics.endStage(stage);
+                }
+
+                // Write files
+                stage = Metrics.beginStage(normalised, ConversionStage.JSON, convertedSoundFolder);
+                try {
+                    OutputFiles.write(sink, emoteConfigPath, sound.emoteConfig());
+                    for (Path folder : variantFolders) {
+                        OutputFiles.write(sink, folder.resolve(emoteConfigPath.getFileName()), sound.emoteConfig());
+                    }
+                    OutputFiles.write(sink, sfxMapPath, sound.sfxMap());
+                    OutputFiles.write(sink, sfxDurationsPath, sound.sfxDurations());
+                    inventory.recordWritten(emoteConfigPath);
+                    inventory.recordWritten(sfxMapPath);
+                    inventory.recordWritten(sfxDurationsPath);
+                    Metrics.succeeded(stage);
+                } catch (IOException e) {
+                    ioExceptionPrompt("Failed to write emote-config/sfx-map/sfx-durations file", e);
+                } finally {
+                    Metrics.endStage(stage);
+                }
+            }
+
+            sink.commit();
+        } catch (IOException e) {
+            ioExceptionPrompt("Failed to write " + gremlinFolder, e);
+        }
+
+        boolean upToDate = !spritesChanged && !soundsChanged;
+
+        if (!upToDate && !packaged) {
+            Map<String, InputFingerprint> inputs = new LinkedHashMap<>(spriteInputs);
+            inputs.putAll(soundInputs);
+
+            try {
+                ManifestUtils.write(manifestPath, new ConversionManifest(choiceValues, inputs));
+            } catch (IOException e) {
+                ioExceptionPrompt("Failed to write " + ManifestUtils.FILE_NAME, e);
+            }
+        }
+
+        // Identical outputs, within this gremlin and across all of them, end up as one file in the store
+        // Best effort, a file system without hardlinks just keeps the plain copies
+        if (!upToDate && !packaged && options.deduplicate()) {
+            Path store = options.exportFolder().resolve(BlobStore.FOLDER_NAME);
+            stage = Metrics.beginStage(normalised, ConversionStage.DEDUP, store);
+            try {
+                BlobStore.DedupReport report = BlobStore.dedup(gremlinFolder, store);
+                Metrics.recordDedup(report.linked(), report.bytesSaved());
+                Metrics.succeeded(stage);
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                System.err.println(normalised + ": can't hardlink into " + store + ", keeping plain copies (" + e.getMessage() + ")");
+            } catch (IOException e) {
+                ioExceptionPrompt("Failed to deduplicate " + gremlinFolder, e);
+            } finally {
+                Metrics.endStage(stage);
+            }
+        }
+
+        // Copies gremlin to .config directory if present
+        // An up to date gremlin that is already installed doesn't need copying again
+        Path gremlinsDir = gremlinsDir();
+        Path installFolder = gremlinsDir.resolve(normalised);
+        Metrics.stat(2);
+        boolean installed = !packaged && options.install() && Files.isDirectory(gremlinsDir);
+
+        if (installed && !(upToDate && Files.isDirectory(installFolder))) {
+            stage = Metrics.beginStage(normalised, ConversionStage.INSTALL, installFolder);
+            try {
+                Files.deleteIfExists(installFolder.resolve(ManifestUtils.OLD_LOCATION));
+                copyFolder(gremlinFolder, installFolder, options.exportStrategy());
+                Metrics.succeeded(stage);
+            } catch (IOException e) {
+                ioExceptionPrompt("Failed to copy converted files to .config directory (even though it exists)", e);
+            } finally {
+                Metrics.endStage(stage);
+            }
+        }
+
+        if (upToDate) {
+            return new ConversionResult(normalised, gremlinFolder, installed, true, 0, 0);
+        }
+
+        if (archive != null) {
+            try {
+                return new ConversionResult(normalised, gremlinFolder, false, false,
+                        archive.entries(), Files.size(gremlinFolder));
+            } catch (IOException e) {
+                ioExceptionPrompt("Failed to read " + gremlinFolder, e);
+            }
+        }
+
+        // Tally what was written for the batch summary
+        int files = 0;
+        long bytes = 0;
+        try (Stream<Path> stream = Files.walk(gremlinFolder)) {
+            for (Path path : (Iterable<Path>) stream::iterator) {
+                Metrics.stat();
+                if (Files.isRegularFile(path)) {
+                    files++;
+                    bytes += Files.size(path);
+                }
+            }
+        } catch (IOException e) {
+            ioExceptionPrompt("Failed to read converted files at " + gremlinFolder, e);
+        }
+
+        return new ConversionResult(normalised, gremlinFolder, installed, false, files, bytes);
+    }
+}
@@ -0,0 +1,183 @@
+package net.virtualspan;
+
+import net.virtualspan.events.FileOperationEvent;
+import net.virtualspan.events.Metrics;
+import net.virtualspan.model.CopyFailure;
+import net.virtualspan.model.CopyReport;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+public class CopyExecutor {
+    // Files at least this big are streamed with FileChannel.transferTo instead of Files.copy
+    private static final long TRANSFER_THRESHOLD = 1024 * 1024;
+
+    // Shared by every gremlin in a batch so the total number of copies in flight stays bounded
+    private static volatile Semaphore permits = new Semaphore(Math.max(4, Runtime.getRuntime().availableProcessors()));
+
+    public static void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Copy parallelism must be at least 1");
+        }
+        permits = new Semaphore(parallelism);
+    }
+
+    public interface FileOperation {
+        // Returns the number of bytes written, 0 for links
+        long apply(Path from, Path to) throws IOException;
+    }
+
+    // Runs a list of {from, to} operations in parallel, e.g. copies, or links instead of copies
+    // Sources that exists rejects are skipped, and when several operations write the same target
+    // the last one with an existing source wins, same as running the list in order
+    public static CopyReport runAll(List<Path[]> copies, Predicate<Path> exists, FileOperation operation) {
+        return runAll(copies, exists, operation, true);
+    }
+
+    // createDirectories is false when the targets don't go to disk, e.g. entries in an archive
+    public static CopyReport runAll(
+            List<Path[]> copies,
+            Predicate<Path> exists,
+            FileOperation operation,
+            boolean createDirectories) {
+        Map<Path, Path> sourceByTarget = plan(copies, exists);
+
+        Map<Path, CopyFailure> failures = new ConcurrentHashMap<>();
+        LongAdder bytes = new LongAdder();
+
+        // Create each target directory once instead of once per file
+        Map<Path, IOException> failedDirectories = new HashMap<>();
+        for (Path target : sourceByTarget.keySet()) {
+            Path parent = target.getParent();
+            if (!createDirectories || parent == null || failedDirectories.containsKey(parent)) continue;
+
+            try {
+                Files.createDirectories(parent);
+            } catch (IOException e) {
+                failedDirectories.put(parent, e);
+            }
+        }
+
+        Semaphore limit = permits;
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            sourceByTarget.forEach((target, source) -> {
+                IOException directoryFailure = failedDirectories.get(target.getParent());
+                if (directoryFailure != null) {
+                    failures.put(target, new CopyFailure(source, target, directoryFailure));
+                    return;
+                }
+
+                executor.submit(() -> {
+                    limit.acquireUninterruptibly();
+                    try {
+                        bytes.add(operation.apply(source, target));
+                    } catch (IOException e) {
+                        failures.put(target, new CopyFailure(source, target, e));
+                    } finally {
+                        limit.release();
+                    }
+                });
+            });
+        }
+
+        // Report failures in the same order as the copy list
+        List<Path> written = new ArrayList<>();
+        List<CopyFailure> ordered = new ArrayList<>();
+        for (Path target : sourceByTarget.keySet()) {
+            CopyFailure failure = failures.get(target);
+            if (failure != null) {
+                ordered.add(failure);
+            } else {
+                written.add(target);
+            }
+        }
+
+        // Runs on the caller's thread, so this counts towards the stage that asked for the copies
+        Metrics.recordFiles(written.size(), bytes.sum());
+        return new CopyReport(written, ordered);
+    }
+
+    // Target -> the source that ends up in it, missing sources are left out and the last existing source wins
+    public static Map<Path, Path> plan(List<Path[]> copies, Predicate<Path> exists) {
+        Map<Path, Path> sourceByTarget = new LinkedHashMap<>();
+        for (Path[] pair : copies) {
+            if (exists.test(pair[0])) {
+                sourceByTarget.put(pair[1], pair[0]);
+            }
+        }
+        return sourceByTarget;
+    }
+
+    // Targets that would get the same source as an earlier target in the same folder, mapped to that earlier target
+    // Takes the map from plan, so the earlier target is the one listed first
+    public static Map<Path, Path> aliases(Map<Path, Path> sourceByTarget) {
+        Map<List<Path>, Path> firstTarget = new HashMap<>();
+        Map<Path, Path> aliases = new LinkedHashMap<>();
+
+        sourceByTarget.forEach((target, source) -> {
+            Path first = firstTarget.putIfAbsent(List.of(target.getParent(), source.normalize()), target);
+            if (first != null) {
+                aliases.put(target, first);
+            }
+        });
+        return aliases;
+    }
+
+    // Copies a single file, the target directory must already exist
+    // Returns the size of the file
+    public static long copy(Path from, Path to) throws IOException {
+        FileOperationEvent event = Metrics.beginFileOperation();
+        long size = 0;
+        String outcome = "failed";
+
+        try {
+            size = Files.size(from);
+            Metrics.stat();
+
+            boolean channels = from.getFileSystem() == FileSystems.getDefault()
+                    && to.getFileSystem() == FileSystems.getDefault();
+
+            if (size < TRANSFER_THRESHOLD || !channels) {
+                Files.copy(from, to, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                transfer(from, to, size);
+            }
+
+            outcome = "ok";
+            return size;
+        } finally {
+            Metrics.endFileOperation(event, "copy", from, to, size, outcome);
+        }
+    }
+
+    private static void transfer(Path from, Path to, long size) throws IOException {
+        // Replace rather than truncate, same as Files.copy, so a linked target never gets rewritten in place
+        Files.deleteIfExists(to);
+
+        try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(to, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long position = 0;
+            while (position < size) {
+                long transferred = in.transferTo(position, size - position, out);
+
+                // Source was truncated while copying
+                if (transferred <= 0 && position >= in.size()) break;
+
+                position += transferred;
+            }
+        }
+    }
+}
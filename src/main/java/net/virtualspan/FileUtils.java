@@ -1,49 +1,181 @@
 package net.virtualspan;
 
+import net.virtualspan.events.FileOperationEvent;
+import net.virtualspan.events.Metrics;
+import net.virtualspan.model.CopyFailure;
+import net.virtualspan.model.CopyReport;
+import net.virtualspan.model.ExportStrategy;
+import net.virtualspan.output.OutputSink;
+
 import javax.swing.*;
+import java.awt.GraphicsEnvironment;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.stream.Stream;
 
 public class FileUtils {
-    public static void copyFile(Path from, Path to) throws IOException {
-        if (!Files.exists(from)) {
-            return; // Skip missing files
+    // Copies a whole list of {from, to} pairs in parallel and only prompts once every copy has finished
+    // Sources are looked up in the inventory, and every copied file is recorded in it
+    public static void copyFiles(List<Path[]> copies, AssetInventory inventory, OutputSink sink) {
+        CopyReport report = CopyExecutor.runAll(copies, inventory::exists, sink::copy, sink.onDisk());
+        report.written().forEach(inventory::recordWritten);
+
+        List<CopyFailure> failures = report.failures();
+
+        if (!failures.isEmpty()) {
+            CopyFailure first = failures.getFirst();
+            String more = failures.size() > 1 ? " (and " + (failures.size() - 1) + " other copies)" : "";
+            ioExceptionPrompt("Failed copying from " + first.from() + " to " + first.to() + more, first.cause());
         }
+    }
 
-        Files.createDirectories(to.getParent());
-        Files.copy(from, to, StandardCopyOption.REPLACE_EXISTING);
+    // Same as copyFiles, except for the targets in aliases, which the JSON points at the target they duplicate
+    // A copy of an alias left behind by an earlier conversion is removed, nothing refers to it any more
+    public static void copyFiles(List<Path[]> copies, AssetInventory inventory, OutputSink sink, Map<Path, Path> aliases) {
+        List<Path[]> unique = new ArrayList<>();
+        for (Path[] copy : copies) {
+            if (!aliases.containsKey(copy[1])) unique.add(copy);
+        }
+
+        copyFiles(unique, inventory, sink);
+
+        if (!sink.onDisk()) return;
+        for (Path alias : aliases.keySet()) {
+            try {
+                Files.deleteIfExists(alias);
+            } catch (IOException e) {
+                ioExceptionPrompt("Failed to remove " + alias, e);
+            }
+        }
+    }
+
+    // Converted files that weren't written this time, so whatever an earlier conversion left there goes too
+    public static void deleteOutputs(Collection<Path> targets, AssetInventory inventory, OutputSink sink) {
+        if (!sink.onDisk()) return;
+
+        for (Path target : targets) {
+            if (!inventory.exists(target)) continue;
+            try {
+                Files.deleteIfExists(target);
+                inventory.recordDeleted(target);
+            } catch (IOException e) {
+                ioExceptionPrompt("Failed to remove " + target, e);
+            }
+        }
     }
 
     public static void copyFolder(Path source, Path target) throws IOException {
+        copyFolder(source, target, ExportStrategy.COPY);
+    }
+
+    // Mirrors source into target, linking instead of copying where the strategy allows
+    // The conversion manifest is only for the converter, so it stays behind
+    public static void copyFolder(Path source, Path target, ExportStrategy strategy) throws IOException {
+        List<Path[]> copies = new ArrayList<>();
+        Path manifest = Path.of(ManifestUtils.FILE_NAME);
+
         try (Stream<Path> stream = Files.walk(source)) {
             stream.forEach(path -> {
                 try {
+                    Metrics.stat();
                     Path relative = source.relativize(path);
+                    if (relative.equals(manifest)) return;
                     Path destination = target.resolve(relative);
 
                     if (Files.isDirectory(path)) {
                         Files.createDirectories(destination);
                     } else {
-                        Files.copy(path, destination, StandardCopyOption.REPLACE_EXISTING);
+                        copies.add(new Path[]{path, destination});
                     }
                 } catch (IOException e) {
                     ioExceptionPrompt("Failed to copy folder at:" + path, e);
                 }
             });
         }
+
+        Files.createDirectories(target);
+        ExportStrategy resolved = resolveStrategy(strategy, source, target);
+
+        // Everything came from the walk, so there is nothing to check
+        List<CopyFailure> failures = CopyExecutor.runAll(copies, _ -> true, (from, to) -> export(from, to, resolved))
+                .failures();
+        if (!failures.isEmpty()) {
+            ioExceptionPrompt("Failed to copy folder at:" + failures.getFirst().from(), failures.getFirst().cause());
+        }
+    }
+
+    // AUTO hardlinks when both folders are on the same filesystem and copies otherwise
+    public static ExportStrategy resolveStrategy(ExportStrategy strategy, Path source, Path target) throws IOException {
+        if (strategy != ExportStrategy.AUTO) {
+            return strategy;
+        }
+
+        Metrics.stat(2);
+        boolean sameFileStore = source.getFileSystem() == target.getFileSystem()
+                && Files.getFileStore(source).equals(Files.getFileStore(target));
+
+        return sameFileStore ? ExportStrategy.HARDLINK : ExportStrategy.COPY;
+    }
+
+    // Places one file using the strategy, falling back hardlink -> reflink -> copy when the filesystem refuses
+    // Returns the number of bytes copied, 0 when the file was linked
+    public static long export(Path from, Path to, ExportStrategy strategy) throws IOException {
+        FileOperationEvent event = Metrics.beginFileOperation();
+
+        switch (strategy) {
+            case HARDLINK -> {
+                try {
+                    Files.deleteIfExists(to);
+                    Files.createLink(to, from);
+                } catch (IOException | UnsupportedOperationException e) {
+                    Metrics.endFileOperation(event, "hardlink", from, to, 0, "fallback");
+                    return export(from, to, ExportStrategy.REFLINK);
+                }
+                Metrics.endFileOperation(event, "hardlink", from, to, 0, "ok");
+                return 0;
+            }
+            case REFLINK -> {
+                if (!Reflink.clone(from, to)) {
+                    Metrics.endFileOperation(event, "reflink", from, to, 0, "fallback");
+                    return CopyExecutor.copy(from, to);
+                }
+                Metrics.endFileOperation(event, "reflink", from, to, 0, "ok");
+                return 0;
+            }
+            case SYMLINK -> {
+                try {
+                    Files.deleteIfExists(to);
+                    Files.createSymbolicLink(to, from.toAbsolutePath());
+                } catch (IOException | UnsupportedOperationException e) {
+                    Metrics.endFileOperation(event, "symlink", from, to, 0, "fallback");
+                    return CopyExecutor.copy(from, to);
+                }
+                Metrics.endFileOperation(event, "symlink", from, to, 0, "ok");
+                return 0;
+            }
+            default -> {
+                // copy fires its own event
+                return CopyExecutor.copy(from, to);
+            }
+        }
     }
 
     public static void ioExceptionPrompt(String message, IOException e) {
         // Happens if user clicks cancel
-        JOptionPane.showMessageDialog(
-                null,
-                "An unexpected file operation error occurred. This shouldn’t happen during normal use. Please report this issue.",
-                "Conversion Failed",
-                JOptionPane.ERROR_MESSAGE
-        );
+        // Batch mode runs headless, so the exception below is the only report
+        if (!GraphicsEnvironment.isHeadless()) {
+            JOptionPane.showMessageDialog(
+                    null,
+                    "An unexpected file operation error occurred. This shouldn’t happen during normal use. Please report this issue.",
+                    "Conversion Failed",
+                    JOptionPane.ERROR_MESSAGE
+            );
+        }
 
         throw new RuntimeException(
                 "\n\nUnexpected IOException: " + message +
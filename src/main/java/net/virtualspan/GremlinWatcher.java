@@ -0,0 +1,415 @@
+package net.virtualspan;
+
+import net.virtualspan.model.ConversionChoices;
+import net.virtualspan.model.ConversionManifest;
+import net.virtualspan.model.ConversionOptions;
+import net.virtualspan.model.ExportStrategy;
+import net.virtualspan.model.FrameCount;
+import net.virtualspan.model.GremlinJob;
+import net.virtualspan.model.Hotspots;
+import net.virtualspan.model.InputFingerprint;
+import net.virtualspan.model.SoundResult;
+import net.virtualspan.output.FolderSink;
+import net.virtualspan.processors.FrameCountProcessor;
+import net.virtualspan.processors.HotspotProcessor;
+import net.virtualspan.processors.PreviewProcessor;
+import net.virtualspan.processors.ScaleProcessor;
+import net.virtualspan.processors.SheetProbe;
+import net.virtualspan.processors.SoundProcessor;
+import net.virtualspan.processors.SpriteProcessor;
+import net.virtualspan.rules.ConversionRules;
+import net.virtualspan.rules.GremlinRules;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+// Keeps converted gremlins in sync with their source folders
+// An edited file only re-runs what depends on it (its copies, frame-count.json, sprite-map.json or the sound JSON)
+// and pushes those files into the install folder, anything added or removed goes through a normal conversion
+public class GremlinWatcher {
+    // Editors often write a file in several steps, so events are collected until the folders have been quiet this long
+    private static final long DEBOUNCE_MS = 200;
+
+    private static final List<String> SPRITE_SUBFOLDERS = List.of("Actions", "Run", "Emotes");
+
+    private static class Watched {
+        final GremlinJob job;
+        final String name;
+        final Path gremlinFolder;
+        final Path installFolder;
+        final boolean references;
+
+        // Set when the last full conversion went through, otherwise the next change converts everything again
+        boolean converted;
+
+        GremlinRules rules;
+
+        // The file each of the rules' choices picked
+        Map<String, String> chosen;
+
+        // Converted file -> the source it is copied from, with missing sources already left out
+        Map<Path, Path> copies;
+
+        // In reference mode, converted files that aren't copied -> the converted file the JSON names instead
+        Map<Path, Path> aliases;
+
+        // Source files that existed at the last refresh, to tell edits apart from files being added or removed
+        Set<Path> known;
+
+        Watched(GremlinJob job, ConversionOptions options, boolean converted) {
+            this.job = job;
+            this.name = Converter.normalise(job.spriteSheetFolder());
+            this.gremlinFolder = options.exportFolder().resolve(name).normalize();
+            this.installFolder = Converter.gremlinsDir().resolve(name);
+            this.references = options.references();
+            this.converted = converted;
+        }
+    }
+
+    public static void watch(
+            List<GremlinJob> jobs,
+            Set<GremlinJob> converted,
+            ConversionChoices choices,
+            ConversionOptions options) throws IOException {
+        try (WatchService service = FileSystems.getDefault().newWatchService()) {
+            Map<WatchKey, Watched> keys = new HashMap<>();
+            Set<String> names = new HashSet<>();
+
+            for (GremlinJob job : jobs) {
+                // Zips can't be watched, and release archives don't change under us anyway
+                if (ArchiveInputs.isArchive(job.spriteSheetFolder()) || ArchiveInputs.isArchive(job.soundFolder())) {
+                    continue;
+                }
+                if (!names.add(Converter.normalise(job.spriteSheetFolder()))) continue;
+
+                Watched watched = new Watched(job, options, converted.contains(job));
+                refresh(watched, choices);
+                register(service, watched, keys);
+            }
+
+            System.out.println("Watching " + names.size() + " gremlin(s) for changes, press Ctrl+C to stop");
+
+            while (true) {
+                Map<Watched, Set<Path>> changes = new LinkedHashMap<>();
+                Set<Watched> overflowed = new HashSet<>();
+
+                WatchKey key = service.take();
+                while (key != null) {
+                    collect(key, keys, changes, overflowed);
+                    key = service.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+                }
+
+                for (Map.Entry<Watched, Set<Path>> entry : changes.entrySet()) {
+                    Watched watched = entry.getKey();
+                    try {
+                        update(watched, entry.getValue(), overflowed.contains(watched), choices, options);
+                        register(service, watched, keys);
+                    } catch (IOException | RuntimeException e) {
+                        String message = e.getMessage() == null ? e.toString() : e.getMessage();
+                        System.err.println(watched.name + ": update failed: "
+                                + message.strip().replaceAll("\\s*\\n\\s*", " "));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void collect(
+            WatchKey key,
+            Map<WatchKey, Watched> keys,
+            Map<Watched, Set<Path>> changes,
+            Set<Watched> overflowed) {
+        Watched watched = keys.get(key);
+        Path folder = (Path) key.watchable();
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (watched == null) continue;
+
+            Set<Path> paths = changes.computeIfAbsent(watched, _ -> new LinkedHashSet<>());
+            if (event.kind() == OVERFLOW) {
+                overflowed.add(watched);
+            } else {
+                paths.add(folder.resolve((Path) event.context()).normalize());
+            }
+        }
+
+        // A folder that was deleted can't be watched any more, the conversion that follows re-registers what's left
+        if (!key.reset()) {
+            keys.remove(key);
+            if (watched != null) {
+                overflowed.add(watched);
+                changes.computeIfAbsent(watched, _ -> new LinkedHashSet<>());
+            }
+        }
+    }
+
+    private static void update(
+            Watched watched,
+            Set<Path> paths,
+            boolean overflowed,
+            ConversionChoices choices,
+            ConversionOptions options) throws IOException {
+        Path spriteSheetFolder = watched.job.spriteSheetFolder().normalize();
+        Path soundFolder = watched.job.soundFolder().normalize();
+
+        boolean structural = overflowed || !watched.converted;
+        Set<Path> edited = new LinkedHashSet<>();
+
+        for (Path path : paths) {
+            Path parent = path.getParent();
+
+            // A new sub-folder means a new set of sheets
+            if (parent.equals(spriteSheetFolder) && SPRITE_SUBFOLDERS.contains(path.getFileName().toString())) {
+                structural = true;
+                continue;
+            }
+
+            if (!relevant(path, spriteSheetFolder, soundFolder)) continue;
+
+            boolean exists = Files.isRegularFile(path);
+            if (exists != watched.known.contains(path)) {
+                structural = true;
+            } else if (exists && (options.deduplicate() || path.startsWith(spriteSheetFolder) && (options.validate()
+                    || !options.scales().isEmpty() || options.mirror() || options.repack() > 0))) {
+                // Validating sheets, linking outputs into the blob store and writing the scaled variants, mirrored
+                // and repacked sheets only happen in a full conversion, which skips the unchanged steps
+                structural = true;
+            } else if (exists) {
+                edited.add(path);
+            }
+        }
+
+        long start = System.nanoTime();
+
+        if (structural) {
+            // Added or removed files can change the defaults, the placeholders and every JSON file
+            watched.converted = false;
+            Converter.convert(watched.job.spriteSheetFolder(), watched.job.soundFolder(), choices, options);
+            watched.converted = true;
+            refresh(watched, choices);
+
+            System.out.printf("%s: converted again in %.1f ms%n", watched.name, (System.nanoTime() - start) / 1e6);
+            return;
+        }
+
+        if (edited.isEmpty()) return;
+
+        List<Path> outputs = updateOutputs(watched, edited, options);
+
+        System.out.printf("%s: %d edited file(s) -> %d output(s) in %.1f ms%n",
+                watched.name, edited.size(), outputs.size(), (System.nanoTime() - start) / 1e6);
+    }
+
+    // Re-runs only what depends on the edited files and returns the files it wrote
+    private static List<Path> updateOutputs(Watched watched, Set<Path> edited, ConversionOptions options)
+            throws IOException {
+        Path spriteSheetFolder = watched.job.spriteSheetFolder().normalize();
+        Path soundFolder = watched.job.soundFolder().normalize();
+        Path convertedSpriteFolder = watched.gremlinFolder.resolve("sprites");
+        Path convertedSoundFolder = watched.gremlinFolder.resolve("sounds");
+        Path configPath = spriteSheetFolder.resolve("config.txt");
+
+        AssetInventory inventory = AssetInventory.scan(spriteSheetFolder, soundFolder, watched.gremlinFolder);
+
+        List<Path[]> copies = new ArrayList<>();
+        watched.copies.forEach((target, source) -> {
+            if (edited.contains(source)) {
+                copies.add(new Path[]{source, target});
+            }
+        });
+
+        FileUtils.copyFiles(copies, inventory, FolderSink.INSTANCE);
+
+        List<Path> outputs = new ArrayList<>();
+        for (Path[] copy : copies) {
+            outputs.add(copy[1]);
+        }
+
+        boolean configEdited = edited.contains(configPath);
+        boolean sheetsEdited = edited.stream().anyMatch(path -> path.startsWith(spriteSheetFolder) && !path.equals(configPath));
+        boolean soundsEdited = edited.stream().anyMatch(path -> path.startsWith(soundFolder));
+
+        // Frame counts are checked against the sheet sizes, so a resized sheet can change them too
+        if (configEdited || sheetsEdited) {
+            Map<String, Integer> values = SpriteProcessor.readConfig(configPath);
+            for (String warning : SheetProbe.correctFrameCounts(
+                    spriteSheetFolder, watched.rules.frameSheets(inventory, spriteSheetFolder, watched.chosen), values, inventory)) {
+                System.err.println(watched.name + ": " + warning);
+            }
+            watched.rules.applyCounts(values);
+
+            // Copy before handing values over, the frame count processor fills in fallbacks in place
+            Map<String, Integer> spriteMapValues = new HashMap<>(values);
+
+            FrameCount frameCount = FrameCountProcessor.process(
+                    watched.rules,
+                    convertedSpriteFolder,
+                    watched.chosen,
+                    SpriteProcessor.SKIP,
+                    values,
+                    inventory);
+
+            Path frameCountPath = convertedSpriteFolder.resolve("frame-count.json");
+            OutputFiles.write(FolderSink.INSTANCE, frameCountPath, frameCount);
+            outputs.add(frameCountPath);
+
+            // Only the column count and frame size from config.txt end up in sprite-map.json,
+            // along with the hotspots measured from the idle and hover frames
+            Map<String, Path> hotspotSheets = HotspotProcessor.sheets(watched.copies, convertedSpriteFolder.normalize());
+            if (configEdited || hotspotSheets.values().stream().anyMatch(edited::contains)) {
+                List<String> warnings = new ArrayList<>();
+                Hotspots hotspots = HotspotProcessor.measure(hotspotSheets, values, warnings);
+                for (String warning : warnings) {
+                    System.err.println(watched.name + ": " + warning);
+                }
+
+                Path spriteMapPath = convertedSpriteFolder.resolve("sprite-map.json");
+                OutputFiles.write(FolderSink.INSTANCE, spriteMapPath, HotspotProcessor.apply(
+                        SpriteProcessor.spriteMap(watched.rules, convertedSpriteFolder, spriteMapValues, inventory, watched.aliases),
+                        hotspots));
+                outputs.add(spriteMapPath);
+            }
+
+            // The preview is cut from idle.png's source with the frame size from config.txt
+            Path idleSheet = watched.copies.get(convertedSpriteFolder.resolve("idle.png").normalize());
+            if (options.preview() && idleSheet != null && (configEdited || edited.contains(idleSheet))) {
+                Path previewPath = convertedSpriteFolder.resolve(PreviewProcessor.FILE_NAME);
+                PreviewProcessor.write(idleSheet, spriteMapValues, FolderSink.INSTANCE, previewPath);
+                outputs.add(previewPath);
+            }
+        }
+
+        // An edited sound can only change its duration, the sfx-map.json entries stay the same
+        if (soundsEdited) {
+            SoundResult sound = SoundProcessor.result(
+                    soundFolder, convertedSoundFolder, watched.chosen.get("emoteSound"), watched.copies, watched.aliases, inventory);
+
+            Path emoteConfigPath = convertedSpriteFolder.resolve("emote-config.json");
+            Path sfxDurationsPath = convertedSoundFolder.resolve("sfx-durations.json");
+            OutputFiles.write(FolderSink.INSTANCE, emoteConfigPath, sound.emoteConfig());
+            OutputFiles.write(FolderSink.INSTANCE, sfxDurationsPath, sound.sfxDurations());
+            outputs.add(emoteConfigPath);
+            outputs.add(sfxDurationsPath);
+
+            // Every scaled variant has its own copy of emote-config.json, so it works in place of sprites/
+            for (double scale : ScaleProcessor.resolve(options.scales(), configPath)) {
+                Path variantPath = watched.gremlinFolder.resolve(ScaleProcessor.folderName(scale)).resolve("emote-config.json");
+                OutputFiles.write(FolderSink.INSTANCE, variantPath, sound.emoteConfig());
+                outputs.add(variantPath);
+            }
+        }
+
+        writeManifest(watched, spriteSheetFolder, soundFolder, options);
+        install(watched, outputs, options);
+        return outputs;
+    }
+
+    // Keeps the manifest in step so the next normal conversion still sees this gremlin as up to date
+    private static void writeManifest(
+            Watched watched,
+            Path spriteSheetFolder,
+            Path soundFolder,
+            ConversionOptions options) throws IOException {
+        Path manifestPath = ManifestUtils.path(watched.gremlinFolder);
+        ConversionManifest previous = ManifestUtils.read(manifestPath);
+
+        Map<String, InputFingerprint> inputs = new LinkedHashMap<>(ManifestUtils.scan(spriteSheetFolder, "sprites/", previous));
+        inputs.putAll(ManifestUtils.scan(soundFolder, "sounds/", previous));
+
+        List<Double> scales = ScaleProcessor.resolve(options.scales(), spriteSheetFolder.resolve("config.txt"));
+        Map<String, String> choiceValues = ManifestUtils.choices(watched.chosen, options, watched.rules, scales);
+
+        ManifestUtils.write(manifestPath, new ConversionManifest(choiceValues, inputs));
+    }
+
+    private static void install(Watched watched, List<Path> outputs, ConversionOptions options) throws IOException {
+        if (!options.install() || !Files.isDirectory(Converter.gremlinsDir())) return;
+
+        if (!Files.isDirectory(watched.installFolder)) {
+            FileUtils.copyFolder(watched.gremlinFolder, watched.installFolder, options.exportStrategy());
+            return;
+        }
+
+        // Copies replace their target instead of rewriting it, so linked installs have to be linked again too
+        ExportStrategy strategy = FileUtils.resolveStrategy(options.exportStrategy(), watched.gremlinFolder, watched.installFolder);
+        for (Path output : outputs) {
+            Path target = watched.installFolder.resolve(watched.gremlinFolder.relativize(output));
+            Files.createDirectories(target.getParent());
+            FileUtils.export(output, target, strategy);
+        }
+    }
+
+    // Resolves the choices the same way Converter.convert does and remembers which sources exist
+    private static void refresh(Watched watched, ConversionChoices choices) throws IOException {
+        Path spriteSheetFolder = watched.job.spriteSheetFolder().normalize();
+        Path soundFolder = watched.job.soundFolder().normalize();
+        AssetInventory inventory = AssetInventory.scan(spriteSheetFolder, soundFolder);
+
+        watched.rules = ConversionRules.forGremlin(watched.name);
+        watched.chosen = watched.rules.choose(inventory, spriteSheetFolder, soundFolder, choices);
+
+        List<Path[]> plan = new ArrayList<>(watched.rules.spriteCopies(
+                spriteSheetFolder, watched.gremlinFolder.resolve("sprites"), watched.chosen));
+        plan.addAll(watched.rules.soundCopies(
+                soundFolder, watched.gremlinFolder.resolve("sounds"), watched.chosen));
+
+        // Same rule as CopyExecutor.runAll, the last existing source for a target is the one that gets copied
+        Map<Path, Path> copies = new LinkedHashMap<>();
+        CopyExecutor.plan(plan, inventory::exists).forEach((target, source) ->
+                copies.put(target.normalize(), source.normalize()));
+
+        // Aliases never get a file of their own, so an edit to their source only has to update the original
+        watched.aliases = watched.references ? CopyExecutor.aliases(copies) : Map.of();
+        copies.keySet().removeAll(watched.aliases.keySet());
+        watched.copies = copies;
+
+        Set<Path> known = new HashSet<>();
+        for (Path folder : watchedFolders(watched)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+                for (Path entry : stream) {
+                    if (Files.isRegularFile(entry)) known.add(entry.normalize());
+                }
+            } catch (NoSuchFileException | NotDirectoryException e) {
+                // Nothing in it
+            }
+        }
+        watched.known = known;
+    }
+
+    private static List<Path> watchedFolders(Watched watched) {
+        Path spriteSheetFolder = watched.job.spriteSheetFolder().normalize();
+
+        List<Path> folders = new ArrayList<>();
+        folders.add(spriteSheetFolder);
+        for (String subfolder : SPRITE_SUBFOLDERS) {
+            folders.add(spriteSheetFolder.resolve(subfolder));
+        }
+        folders.add(watched.job.soundFolder().normalize());
+        return folders;
+    }
+
+    // Registering a folder that is already watched hands back the same key, so this is safe to repeat
+    private static void register(WatchService service, Watched watched, Map<WatchKey, Watched> keys) throws IOException {
+        for (Path folder : watchedFolders(watched)) {
+            if (!Files.isDirectory(folder)) continue;
+
+            WatchKey key = folder.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            keys.put(key, watched);
+        }
+    }
+
+    private static boolean relevant(Path path, Path spriteSheetFolder, Path soundFolder) {
+        String name = path.getFileName().toString();
+
+        if (path.startsWith(spriteSheetFolder)) {
+            return name.equals("config.txt") || name.endsWith(".png");
+        }
+        return path.startsWith(soundFolder) && name.endsWith(".wav");
+    }
+}
@@ -0,0 +1,14 @@
+package net.virtualspan;
+
+import java.io.Serial;
+
+// The gremlin's files can't be converted as they are (a required file is missing, a sheet can't be decoded),
+// so converting it again won't help until the files change
+public class IncompatibleGremlinException extends RuntimeException {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public IncompatibleGremlinException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,148 @@
+package net.virtualspan;
+
+import net.virtualspan.events.Metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Writes JSON straight to a file in the same layout the converter always used (4 space indent, no trailing newline)
+// Objects only hold names and plain values, which is all the linux-desktop-gremlin files need
+public class JsonWriter implements Closeable {
+    private static final String INDENT = "    ";
+
+    private final Writer out;
+    private final FileChannel channel;
+    private int depth;
+    private boolean first;
+
+    public JsonWriter(Writer out) {
+        this(out, null);
+    }
+
+    private JsonWriter(Writer out, FileChannel channel) {
+        this.out = out;
+        this.channel = channel;
+    }
+
+    public static JsonWriter open(Path path) throws IOException {
+        // Replaced rather than truncated, the old file may be a hardlink shared through the blob store
+        Files.deleteIfExists(path);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+        // Channels.newWriter buffers internally, so small values don't each turn into a write call
+        return new JsonWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), channel);
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        out.write('{');
+        depth++;
+        first = true;
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        depth--;
+        out.write('\n');
+        indent();
+        out.write('}');
+        return this;
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        out.write(first ? "\n" : ",\n");
+        first = false;
+        indent();
+        string(name);
+        out.write(": ");
+        return this;
+    }
+
+    public JsonWriter value(int value) throws IOException {
+        out.write(Integer.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(Integer value) throws IOException {
+        out.write(value == null ? "null" : value.toString());
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            out.write("null");
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+    private void string(String value) throws IOException {
+        out.write('"');
+
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String escaped = switch (c) {
+                case '"' -> "\\\"";
+                case '\\' -> "\\\\";
+                case '\n' -> "\\n";
+                case '\r' -> "\\r";
+                case '\t' -> "\\t";
+                case '\b' -> "\\b";
+                case '\f' -> "\\f";
+                default -> c < 0x20 ? String.format("\\u%04x", (int) c) : null;
+            };
+
+            // Runs of plain characters are written in one go
+            if (escaped != null) {
+                out.write(value, start, i - start);
+                out.write(escaped);
+                start = i + 1;
+            }
+        }
+
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+
+    private void indent() throws IOException {
+        for (int i = 0; i < depth; i++) {
+            out.write(INDENT);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel == null) {
+            out.close();
+            return;
+        }
+
+        // The file size is where the channel ended up once everything is flushed
+        long bytes;
+        try {
+            out.flush();
+            bytes = channel.position();
+        } finally {
+            out.close();
+        }
+        Metrics.recordFiles(1, bytes);
+    }
+}
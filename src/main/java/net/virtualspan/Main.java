@@ -1,23 +1,34 @@
 package net.virtualspan;
 
-import net.virtualspan.model.SoundResult;
-import net.virtualspan.model.SpriteResult;
-import net.virtualspan.processors.FrameCountProcessor;
-import net.virtualspan.processors.SoundProcessor;
-import net.virtualspan.processors.SpriteProcessor;
+import net.virtualspan.events.Metrics;
+import net.virtualspan.model.ConversionChoices;
+import net.virtualspan.model.ConversionOptions;
+import net.virtualspan.model.ConversionResult;
+import net.virtualspan.rules.ConversionRules;
+import net.virtualspan.rules.GremlinRules;
+import net.virtualspan.rules.Rule;
+import net.virtualspan.server.ConversionServer;
 
 import javax.swing.*;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.CancellationException;
 
-import static net.virtualspan.FileUtils.copyFolder;
 import static net.virtualspan.FileUtils.ioExceptionPrompt;
 
 public class Main {
-    static void main() {
+    static void main(String[] args) {
+        // --serve starts the local conversion server, any other arguments switch to the headless batch converter
+        if (args.length > 0 && args[0].equals("--serve")) {
+            ConversionServer.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0) {
+            BatchConverter.run(args);
+            return;
+        }
+
         // Get spritesheet and sounds folder paths
         Path spriteSheetFolder = null;
         Path soundFolder = null;
@@ -79,66 +90,28 @@ public class Main {
             }
         }
 
-        // Get folder name for gremlin
-        String folderName = spriteSheetFolder.getFileName().toString();
-        String normalised = folderName.toLowerCase().replace(" ", "-");
-
-        // Export Folder Paths
-        Path exportFolder = Path.of(System.getProperty("user.home"), "ConvertedGremlins");
-        Path gremlinFolder = exportFolder.resolve(normalised);
-        Path convertedSpriteFolder = gremlinFolder.resolve("sprites");
-        Path convertedSoundFolder = gremlinFolder.resolve("sounds");
-
-        // File Paths
-        Path originalConfigPath = spriteSheetFolder.resolve("config.txt");
-        Path frameCountPath = convertedSpriteFolder.resolve("frame-count.json");
-        Path spriteMapPath = convertedSpriteFolder.resolve("sprite-map.json");
-        Path emoteConfigPath = convertedSpriteFolder.resolve("emote-config.json");
-        Path sfxMapPath = convertedSoundFolder.resolve("sfx-map.json");
-
-        // Config Folder Paths
-        Path userConfigDir = Path.of(System.getProperty("user.home"), ".config", "linux-desktop-gremlin");
-        Path gremlinsDir = userConfigDir.resolve("gremlins");
-
-    if (!Files.exists(originalConfigPath)) {
-        // If config file isn't present, stops converter
-        JOptionPane.showMessageDialog(
-                null,
-                """
-                        config.txt was not found.
-                        Please make sure you are selecting the correct sprite folder.
-                        """,
-                "Missing Config File",
-                JOptionPane.ERROR_MESSAGE
-        );
+        // Lists both folders once for all the checks below
+        AssetInventory inventory = null;
+        try {
+            inventory = AssetInventory.scan(spriteSheetFolder, soundFolder);
+        } catch (IOException e) {
+            ioExceptionPrompt("Failed to list the selected folders", e);
+        }
 
-        throw new RuntimeException("config.txt not found");
-    } else if (!Files.exists(spriteSheetFolder.resolve("Actions/idle.png"))) {
-        // If idle.png isn't present, stops converter
-        JOptionPane.showMessageDialog(
-                null,
-                """
-                        idle.png was not found in the sprite folder.
-                        The Gremlin you have chosen is most likely incompatible.
-                        """,
-                "Missing idle.png File",
-                JOptionPane.ERROR_MESSAGE
-        );
+        // config.txt, idle.png and intro.wav by default, conversion-rules.txt has the dialog texts
+        GremlinRules rules = ConversionRules.forGremlin(Converter.normalise(spriteSheetFolder));
+        Rule.Requirement missing = rules.missing(inventory, spriteSheetFolder, soundFolder);
 
-        throw new RuntimeException("Actions/idle.png not found");
-    } else if (!Files.exists(soundFolder.resolve("intro.wav"))) {
-        // If intro.wav is not present (which is in every sound folder), stops converter
+    if (missing != null) {
+        // If a required file isn't present, stops converter
         JOptionPane.showMessageDialog(
                 null,
-                """
-                        Sound files are not present!.
-                        You selected the wrong sound folder.
-                        """,
-                "Incorrect Sound folder selected",
+                missing.message(),
+                missing.title(),
                 JOptionPane.ERROR_MESSAGE
         );
 
-        throw new RuntimeException("intro.wav was not found. An incorrect sound folder was most likely selected");
+        throw new IncompatibleGremlinException(missing.file() + " not found");
     } else {
         Scanner scanner = new Scanner(System.in);
 
@@ -154,7 +127,7 @@ public class Main {
         };
         for (String option : spriteDirs) {
             Path filePath = spriteSheetFolder.resolve(option);
-            if (Files.exists(filePath)) {
+            if (inventory.exists(filePath)) {
                 spriteOptionsBuilder.add(option);
             }
         }
@@ -174,7 +147,7 @@ public class Main {
 
         for (String option : soundFiles) {
             Path filePath = soundFolder.resolve(option);
-            if (Files.exists(filePath)) {
+            if (inventory.exists(filePath)) {
                 soundOptionsBuilder.add(option);
             }
         }
@@ -183,62 +156,18 @@ public class Main {
 
         // Declaring variables for below
         String home = System.getProperty("user.home");
-        String patSound;
         String emoteSoundChoice = "default";
         String emoteSpriteChoice = "default";
         String patSpriteChoice = "default";
-        String emoteSpriteDefault;
-        String patSpriteDefault;
-        String pokeSprite;
-        String walkSound;
-
-        // Edge case scenarios for when some files don't exist to convert
-        if (Files.exists(spriteSheetFolder.resolve("Emotes/emote3.png"))) {
-            emoteSpriteDefault = "Emotes/emote3.png";
-        } else {
-            emoteSpriteDefault = "Emotes/emote1.png";
-        }
-
-        if (Files.exists(spriteSheetFolder.resolve("Emotes/emote1.png"))) {
-            patSpriteDefault = "Emotes/emote1.png";
-        } else {
-            patSpriteDefault = "Emotes/emote2.png";
-        }
-
-        if (Files.exists(spriteSheetFolder.resolve("Actions/click.png"))) {
-            pokeSprite = "Actions/click.png";
-        } else if (Files.exists(spriteSheetFolder.resolve("Emotes/emote2.png"))) {
-            pokeSprite = "Emotes/emote2.png";
-        } else {
-            pokeSprite = "Emotes/emote1.png";
-        }
-
-        if (Files.exists(soundFolder.resolve("walk.wav"))) {
-            walkSound = "walk.wav";
-        } else {
-            walkSound = "run.wav";
-        }
-
-        if (Files.exists(soundFolder.resolve("emote1.wav")) && !Files.exists(soundFolder.resolve("emote3.wav"))) {
-            emoteSoundChoice = "emote1.wav";
-        } else if (Files.exists(soundFolder.resolve("emote3.wav")) && !Files.exists(soundFolder.resolve("emote1.wav"))) {
-            emoteSoundChoice = "emote3.wav";
-        }
-
-        // Sets pat.wav to the pat sound if available
-        if (Files.exists(soundFolder.resolve("pat.wav"))) {
-            patSound = "pat.wav";
-        } else if (Files.exists(soundFolder.resolve("emote4.wav"))) {
-            patSound = "emote4.wav";
-        } else {
-            patSound = "emote2.wav";
-        }
+        Map<String, String> defaults = rules.choose(inventory, spriteSheetFolder, soundFolder, ConversionChoices.defaults());
+        String emoteSpriteDefault = defaults.get("emoteSprite");
+        String patSpriteDefault = defaults.get("patSprite");
 
         // Allows user to customize sprites/sounds, but skips if not needed
-        if (Files.exists(spriteSheetFolder.resolve("Emotes/emote1.png"))
-                || Files.exists(spriteSheetFolder.resolve("Emotes/emote2.png"))
-                || Files.exists(spriteSheetFolder.resolve("Emotes/emote3.png"))
-                || Files.exists(spriteSheetFolder.resolve("Emotes/emote4.png"))) {
+        if (inventory.exists(spriteSheetFolder.resolve("Emotes/emote1.png"))
+                || inventory.exists(spriteSheetFolder.resolve("Emotes/emote2.png"))
+                || inventory.exists(spriteSheetFolder.resolve("Emotes/emote3.png"))
+                || inventory.exists(spriteSheetFolder.resolve("Emotes/emote4.png"))) {
             emoteSpriteChoice = chooseSprite("Choose sprite for the emote animation:\n" +
                     "default = " + emoteSpriteDefault + "\n" +
                     "(directories are shown relative to:\n" + spriteSheetFolder.toString().replaceFirst(home, "~") + ")",
@@ -250,96 +179,23 @@ public class Main {
                     "Choose sprite", spriteOptions);
         }
 
-        if (Files.exists(soundFolder.resolve("emote1.wav"))
-                && Files.exists(soundFolder.resolve("emote3.wav"))) {
+        if (inventory.exists(soundFolder.resolve("emote1.wav"))
+                && inventory.exists(soundFolder.resolve("emote3.wav"))) {
             emoteSoundChoice = chooseSprite("Choose sound for the emote animation:\n" +
                      "default = emote1.wav\n" +
                      "(directories are shown relative to:\n" + soundFolder.toString().replaceFirst(home, "~") + ")",
                     "Choose sound", soundOptions);
         }
 
-        // Sets defaults
-        if (emoteSpriteChoice.equals("default")) {
-            emoteSpriteChoice = emoteSpriteDefault;
-        }
-        if (patSpriteChoice.equals("default")) {
-            patSpriteChoice = patSpriteDefault;
-        }
-        if (emoteSoundChoice.equals("default")) {
-            emoteSoundChoice = "emote1.wav";
-        }
-
-
-        // Make sure the export folders exist
-        try {
-            Files.createDirectories(exportFolder);
-            Files.createDirectories(gremlinFolder);
-            Files.createDirectories(convertedSpriteFolder);
-            Files.createDirectories(convertedSoundFolder);
-        } catch (IOException e) {
-            ioExceptionPrompt("Failed to create export directories", e);
-        }
-
-        // Pull in records from classes
-        SpriteResult spriteSheet = SpriteProcessor.process(
+        // Converts and copies gremlin to .config directory if present
+        ConversionResult result = Converter.convert(
                 spriteSheetFolder,
-                convertedSpriteFolder,
-                originalConfigPath,
-                emoteSpriteChoice,
-                patSpriteChoice,
-                pokeSprite);
-
-        SoundResult sound = SoundProcessor.process(
                 soundFolder,
-                convertedSoundFolder,
-                walkSound,
-                emoteSoundChoice,
-                patSound);
-
-        // Return back variables from records/classes
-        String introSprite = spriteSheet.introSprite();
-        String outroSprite = spriteSheet.outroSprite();
-        Set<String> skip = spriteSheet.skip();
-        Map<String, Integer> values = spriteSheet.values();
-
-        // Return file Strings from records/classes
-        String spriteSheetFile = spriteSheet.spriteMap();
-
-        String frameCountFile = FrameCountProcessor.process(
-                convertedSpriteFolder,
-                emoteSpriteChoice,
-                patSpriteChoice,
-                pokeSprite,
-                introSprite,
-                outroSprite,
-                normalised,
-                skip,
-                values);
-
-        String sfxMapFile = sound.sfxMap();
-
-        String emoteConfigFile = sound.emoteConfig();
-
-        // Write files
-        try {
-            Files.writeString(frameCountPath, frameCountFile);
-            Files.writeString(spriteMapPath, spriteSheetFile);
-            Files.writeString(emoteConfigPath, emoteConfigFile);
-            Files.writeString(sfxMapPath, sfxMapFile);
-        } catch (IOException e) {
-            ioExceptionPrompt("Failed to write frame-count/sprite-sheet/emote-config/sfx-map file", e);
-        }
-
-        // Copies gremlin to .config directory if present
-        boolean gremlinsDirExists = Files.isDirectory(gremlinsDir);
-
-        if (gremlinsDirExists) {
-            try {
-                copyFolder(gremlinFolder, gremlinsDir.resolve(normalised));
-            } catch (IOException e) {
-                ioExceptionPrompt("Failed to copy converted files to .config directory (even though it exists)", e);
-            }
+                new ConversionChoices(emoteSpriteChoice, patSpriteChoice, emoteSoundChoice),
+                ConversionOptions.defaults(Converter.defaultExportFolder()));
+        Metrics.printSummary(System.out);
 
+        if (result.installed()) {
             JOptionPane.showMessageDialog(
                     null,
                     """
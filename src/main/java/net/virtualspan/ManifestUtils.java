@@ -0,0 +1,170 @@
+package net.virtualspan;
+
+import net.virtualspan.events.Metrics;
+import net.virtualspan.model.ConversionManifest;
+import net.virtualspan.model.ConversionOptions;
+import net.virtualspan.model.InputFingerprint;
+import net.virtualspan.rules.GremlinRules;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+public class ManifestUtils {
+    public static final String FILE_NAME = "conversion-manifest.txt";
+
+    // Manifests used to be written into sprites/, where they got installed along with the sprites
+    public static final String OLD_LOCATION = "sprites/" + FILE_NAME;
+
+    // Next to sprites/ and sounds/ rather than in them, and never installed (see FileUtils.copyFolder)
+    public static Path path(Path gremlinFolder) {
+        return gremlinFolder.resolve(FILE_NAME);
+    }
+
+    // Reads the manifest from the last conversion, an unreadable manifest just means everything gets converted
+    // The choices a manifest records, shared by Converter and the watcher so both write the same ones
+    // chosen holds the picks of the rules' choices, scales the --scale factors resolved for this gremlin
+    public static Map<String, String> choices(
+            Map<String, String> chosen,
+            ConversionOptions options,
+            GremlinRules rules,
+            List<Double> scales) {
+        Map<String, String> choices = new LinkedHashMap<>();
+        choices.put("emoteSprite", chosen.get("emoteSprite"));
+        choices.put("patSprite", chosen.get("patSprite"));
+        choices.put("emoteSound", chosen.get("emoteSound"));
+
+        // The rest is only recorded when on, so manifests from before these options existed still match
+        if (options.references()) {
+            choices.put("references", "true");
+        }
+        if (options.mirror()) {
+            choices.put("mirror", "true");
+        }
+        if (options.repack() > 0) {
+            choices.put("repack", String.valueOf(options.repack()));
+        }
+
+        // Same for rules that differ from the built-in ones, an edited rule file converts its gremlins again
+        if (rules.fingerprint() != null) {
+            choices.put("rules", rules.fingerprint());
+        }
+
+        // Scaled copies of the sprites folder, e.g. sprites@0.5x
+        if (!scales.isEmpty()) {
+            choices.put("scale", scales.toString());
+        }
+        return choices;
+    }
+
+    public static ConversionManifest read(Path manifestPath) {
+        Map<String, String> choices = new LinkedHashMap<>();
+        Map<String, InputFingerprint> inputs = new LinkedHashMap<>();
+
+        try (Stream<String> lines = Files.lines(manifestPath)) {
+            lines.forEach(line -> {
+                // Skip comments and empty lines
+                if (line.isBlank() || line.startsWith("//")) return;
+
+                String[] parts = line.split("\t");
+
+                if (parts[0].equals("choice") && parts.length == 3) {
+                    choices.put(parts[1], parts[2]);
+                } else if (parts[0].equals("input") && parts.length == 5) {
+                    inputs.put(parts[1], new InputFingerprint(
+                            Long.parseLong(parts[2]),
+                            Long.parseLong(parts[3]),
+                            Long.parseUnsignedLong(parts[4], 16)));
+                }
+            });
+        } catch (IOException | NumberFormatException e) {
+            return ConversionManifest.empty();
+        }
+
+        return new ConversionManifest(choices, inputs);
+    }
+
+    public static void write(Path manifestPath, ConversionManifest manifest) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("// Written by GremlinConverter to skip unchanged steps when converting this gremlin again");
+
+        manifest.choices().forEach((key, value) -> lines.add("choice\t" + key + "\t" + value));
+        manifest.inputs().forEach((key, fingerprint) -> lines.add("input\t" + key
+                + "\t" + fingerprint.size()
+                + "\t" + fingerprint.modified()
+                + "\t" + Long.toHexString(fingerprint.hash())));
+
+        Files.write(manifestPath, lines);
+    }
+
+    // Fingerprints every file under root, keyed by prefix + relative path
+    // Files whose size and mtime match the previous manifest keep their old hash, so an unchanged folder is only stat'ed
+    public static Map<String, InputFingerprint> scan(Path root, String prefix, ConversionManifest previous)
+            throws IOException {
+        Map<String, InputFingerprint> fingerprints = new TreeMap<>();
+
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Metrics.stat();
+                if (!attributes.isRegularFile()) return FileVisitResult.CONTINUE;
+
+                String key = prefix + root.relativize(file).toString().replace('\\', '/');
+                long size = attributes.size();
+                long modified = attributes.lastModifiedTime().toMillis();
+
+                InputFingerprint old = previous.inputs().get(key);
+                long hash = old != null && old.size() == size && old.modified() == modified
+                        ? old.hash()
+                        : hash(file);
+
+                fingerprints.put(key, new InputFingerprint(size, modified, hash));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return fingerprints;
+    }
+
+    // Compares content only, so touching a file without changing it doesn't count as a change
+    public static boolean unchanged(ConversionManifest previous, String prefix, Map<String, InputFingerprint> current) {
+        Map<String, Long> before = new HashMap<>();
+        previous.inputs().forEach((key, fingerprint) -> {
+            if (key.startsWith(prefix)) before.put(key, fingerprint.hash());
+        });
+
+        Map<String, Long> after = new HashMap<>();
+        current.forEach((key, fingerprint) -> after.put(key, fingerprint.hash()));
+
+        return !before.isEmpty() && before.equals(after);
+    }
+
+    private static long hash(Path file) throws IOException {
+        // A zip already has a CRC for every entry in its central directory, so nothing needs inflating
+        if (file.getFileSystem() != FileSystems.getDefault()) {
+            try {
+                return (Long) Files.getAttribute(file, "zip:crc");
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                // Not a zip, hash the contents like any other file
+            }
+        }
+
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+
+        try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,111 @@
+package net.virtualspan;
+
+import net.virtualspan.model.*;
+import net.virtualspan.output.OutputSink;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+// Serialises the typed output records into the files linux-desktop-gremlin reads
+public class OutputFiles {
+    public static void write(OutputSink sink, Path path, FrameCount frameCount) throws IOException {
+        try (JsonWriter json = sink.json(path)) {
+            write(json, frameCount);
+        }
+    }
+
+    public static void write(OutputSink sink, Path path, SpriteMap spriteMap) throws IOException {
+        try (JsonWriter json = sink.json(path)) {
+            write(json, spriteMap);
+        }
+    }
+
+    public static void write(OutputSink sink, Path path, SfxMap sfxMap) throws IOException {
+        try (JsonWriter json = sink.json(path)) {
+            write(json, sfxMap);
+        }
+    }
+
+    public static void write(OutputSink sink, Path path, SfxDurations sfxDurations) throws IOException {
+        try (JsonWriter json = sink.json(path)) {
+            write(json, sfxDurations);
+        }
+    }
+
+    public static void write(OutputSink sink, Path path, EmoteConfig emoteConfig) throws IOException {
+        try (JsonWriter json = sink.json(path)) {
+            write(json, emoteConfig);
+        }
+    }
+
+    public static void write(JsonWriter json, FrameCount frameCount) throws IOException {
+        json.beginObject()
+                .name("Idle").value(frameCount.idle())
+                .name("Hover").value(frameCount.hover())
+                .name("Sleep").value(frameCount.sleep())
+                .name("Intro").value(frameCount.intro())
+                .name("Outro").value(frameCount.outro())
+                .name("Grab").value(frameCount.grab())
+                .name("Up").value(frameCount.up())
+                .name("Down").value(frameCount.down())
+                .name("Left").value(frameCount.left())
+                .name("Right").value(frameCount.right())
+                .name("UpLeft").value(frameCount.upLeft())
+                .name("UpRight").value(frameCount.upRight())
+                .name("DownLeft").value(frameCount.downLeft())
+                .name("DownRight").value(frameCount.downRight())
+                .name("WalkIdle").value(frameCount.walkIdle())
+                .name("Poke").value(frameCount.poke())
+                .name("Pat").value(frameCount.pat())
+                .name("LeftAction").value(frameCount.leftAction())
+                .name("RightAction").value(frameCount.rightAction())
+                .name("Reload").value(frameCount.reload())
+                .name("Emote").value(frameCount.emote())
+                .endObject();
+    }
+
+    public static void write(JsonWriter json, SpriteMap spriteMap) throws IOException {
+        json.beginObject()
+                .name("FrameRate").value(spriteMap.frameRate())
+                .name("SpriteColumn").value(spriteMap.spriteColumn())
+                .name("FrameHeight").value(spriteMap.frameHeight())
+                .name("FrameWidth").value(spriteMap.frameWidth())
+                .name("TopHotspotHeight").value(spriteMap.topHotspotHeight())
+                .name("TopHotspotWidth").value(spriteMap.topHotspotWidth())
+                .name("SideHotspotHeight").value(spriteMap.sideHotspotHeight())
+                .name("SideHotspotWidth").value(spriteMap.sideHotspotWidth())
+                .name("HasReloadAnimation").value(spriteMap.hasReloadAnimation());
+
+        for (AssetEntry entry : spriteMap.sprites()) {
+            json.name(entry.key()).value(entry.fileName());
+        }
+
+        json.endObject();
+    }
+
+    public static void write(JsonWriter json, SfxMap sfxMap) throws IOException {
+        json.beginObject();
+        for (AssetEntry entry : sfxMap.sounds()) {
+            json.name(entry.key()).value(entry.fileName());
+        }
+        json.endObject();
+    }
+
+    public static void write(JsonWriter json, SfxDurations sfxDurations) throws IOException {
+        json.beginObject();
+        for (Map.Entry<String, Integer> entry : sfxDurations.durationsMs().entrySet()) {
+            json.name(entry.getKey()).value(entry.getValue());
+        }
+        json.endObject();
+    }
+
+    public static void write(JsonWriter json, EmoteConfig emoteConfig) throws IOException {
+        json.beginObject()
+                .name("AnnoyEmote").value(emoteConfig.annoyEmote())
+                .name("MinEmoteTriggerMinutes").value(emoteConfig.minEmoteTriggerMinutes())
+                .name("MaxEmoteTriggerMinutes").value(emoteConfig.maxEmoteTriggerMinutes())
+                .name("EmoteDuration").value(emoteConfig.emoteDuration())
+                .endObject();
+    }
+}
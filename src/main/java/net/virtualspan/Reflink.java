@@ -0,0 +1,102 @@
+package net.virtualspan;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+// Copy-on-write clones through the Linux FICLONE ioctl (btrfs, XFS, bcachefs, ...)
+// Java has no API for this, so libc is called directly through the FFM API
+public class Reflink {
+    private static final long FICLONE = 0x40049409L;
+    private static final int O_RDONLY = 0;
+    private static final int O_WRONLY = 01;
+    private static final int O_CREAT = 0100;
+    private static final int O_EXCL = 0200;
+    private static final int MODE_644 = 0644;
+
+    private static final MethodHandle OPEN;
+    private static final MethodHandle IOCTL;
+    private static final MethodHandle CLOSE;
+
+    static {
+        MethodHandle open = null;
+        MethodHandle ioctl = null;
+        MethodHandle close = null;
+
+        if (System.getProperty("os.name").toLowerCase().contains("linux")) {
+            try {
+                Linker linker = Linker.nativeLinker();
+                SymbolLookup libc = linker.defaultLookup();
+
+                open = linker.downcallHandle(libc.find("open").orElseThrow(),
+                        FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT),
+                        Linker.Option.firstVariadicArg(2));
+                ioctl = linker.downcallHandle(libc.find("ioctl").orElseThrow(),
+                        FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_LONG, JAVA_INT),
+                        Linker.Option.firstVariadicArg(2));
+                close = linker.downcallHandle(libc.find("close").orElseThrow(),
+                        FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+            } catch (RuntimeException e) {
+                // No usable libc, every clone falls back to a copy
+                open = null;
+            }
+        }
+
+        OPEN = open;
+        IOCTL = ioctl;
+        CLOSE = close;
+    }
+
+    public static boolean isAvailable() {
+        return OPEN != null;
+    }
+
+    // Clones from into to, returns false if the filesystem can't, in which case nothing is left behind at to
+    // Any existing file at to is replaced rather than rewritten, so other links to it are untouched
+    public static boolean clone(Path from, Path to) {
+        if (!isAvailable()
+                || from.getFileSystem() != FileSystems.getDefault()
+                || to.getFileSystem() != FileSystems.getDefault()) {
+            return false;
+        }
+
+        try (Arena arena = Arena.ofConfined()) {
+            Files.deleteIfExists(to);
+
+            int source = (int) OPEN.invokeExact(arena.allocateFrom(from.toString()), O_RDONLY, 0);
+            if (source < 0) return false;
+
+            try {
+                int target = (int) OPEN.invokeExact(arena.allocateFrom(to.toString()),
+                        O_WRONLY | O_CREAT | O_EXCL, MODE_644);
+                if (target < 0) return false;
+
+                int result;
+                try {
+                    result = (int) IOCTL.invokeExact(target, FICLONE, source);
+                } finally {
+                    int _ = (int) CLOSE.invokeExact(target);
+                }
+
+                if (result != 0) {
+                    Files.deleteIfExists(to);
+                    return false;
+                }
+                return true;
+            } finally {
+                int _ = (int) CLOSE.invokeExact(source);
+            }
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package net.virtualspan.events;
+
+// Steps of one gremlin conversion, in the order they run
+public enum ConversionStage {
+    INVENTORY("inventory"),
+    FINGERPRINT("fingerprint"),
+    VALIDATE("validate"),
+    SPRITES("sprites"),
+    FRAME_COUNT("frame-count"),
+    HOTSPOTS("hotspots"),
+    PREVIEW("preview"),
+    SCALE("scale"),
+    SOUNDS("sounds"),
+    JSON("json"),
+    DEDUP("dedup"),
+    INSTALL("install");
+
+    private final String label;
+
+    ConversionStage(String label) {
+        this.label = label;
+    }
+
+    public String label() {
+        return label;
+    }
+}
@@ -0,0 +1,27 @@
+package net.virtualspan.events;
+
+import jdk.jfr.*;
+
+// One copy/link of a file, fired for every file so stack traces are left out
+@Name("net.virtualspan.FileOperation")
+@Label("File Operation")
+@Category("GremlinConverter")
+@Description("A file copied, hardlinked, reflinked or symlinked during a conversion")
+@StackTrace(false)
+public class FileOperationEvent extends Event {
+    @Label("Operation")
+    public String operation;
+
+    @Label("Source")
+    public String source;
+
+    @Label("Target")
+    public String target;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Outcome")
+    public String outcome;
+}
@@ -0,0 +1,192 @@
+package net.virtualspan.events;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Emits the JFR events and keeps the counters printed at the end of a run
+// Counters are shared by every gremlin in a batch, stages are tracked per thread
+public class Metrics {
+    private static final LongAdder filesCopied = new LongAdder();
+    private static final LongAdder filesLinked = new LongAdder();
+    private static final LongAdder bytesCopied = new LongAdder();
+    private static final LongAdder failedOperations = new LongAdder();
+    // Outputs the blob store already had, replaced by a hardlink after they were written
+    private static final LongAdder filesDeduplicated = new LongAdder();
+    private static final LongAdder bytesDeduplicated = new LongAdder();
+    private static final LongAdder statCalls = new LongAdder();
+
+    private static final Map<ConversionStage, LongAdder[]> stages = new EnumMap<>(ConversionStage.class);
+
+    // The stage running on this thread, so copies and JSON writes can be added to it
+    private static final ThreadLocal<StageEvent> current = new ThreadLocal<>();
+
+    // Told about every stage as it ends, e.g. by the batch journal
+    private static volatile Consumer<StageEvent> stageListener = _ -> {
+    };
+
+    static {
+        // {runs, files, bytes, nanos}, the map itself never changes after this
+        for (ConversionStage stage : ConversionStage.values()) {
+            stages.put(stage, new LongAdder[]{new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder()});
+        }
+    }
+
+    public static StageEvent beginStage(String gremlin, ConversionStage stage, Path path) {
+        StageEvent event = new StageEvent();
+        event.gremlin = gremlin;
+        event.stage = stage.label();
+        event.path = path.toString();
+        event.conversionStage = stage;
+        event.parent = current.get();
+        event.startNanos = System.nanoTime();
+        event.begin();
+
+        current.set(event);
+        return event;
+    }
+
+    public static void succeeded(StageEvent event) {
+        event.outcome = "ok";
+    }
+
+    // Call from a finally block, a stage that never called succeeded is recorded as failed
+    public static void endStage(StageEvent event) {
+        event.end();
+        long nanos = System.nanoTime() - event.startNanos;
+
+        LongAdder[] totals = stages.get(event.conversionStage);
+        totals[0].increment();
+        totals[1].add(event.files);
+        totals[2].add(event.bytes);
+        totals[3].add(nanos);
+
+        if (event.parent == null) {
+            current.remove();
+        } else {
+            current.set(event.parent);
+        }
+
+        if (event.shouldCommit()) {
+            event.commit();
+        }
+        stageListener.accept(event);
+    }
+
+    public static void onStageEnd(Consumer<StageEvent> listener) {
+        stageListener = listener;
+    }
+
+    // Adds files written on this thread to the running stage, if there is one
+    public static void recordFiles(int files, long bytes) {
+        StageEvent event = current.get();
+        if (event != null) {
+            event.files += files;
+            event.bytes += bytes;
+        }
+    }
+
+    public static FileOperationEvent beginFileOperation() {
+        FileOperationEvent event = new FileOperationEvent();
+        event.begin();
+        return event;
+    }
+
+    // bytes is what was actually written, so 0 for links
+    public static void endFileOperation(
+            FileOperationEvent event, String operation, Path from, Path to, long bytes, String outcome) {
+        event.end();
+
+        if (outcome.equals("ok")) {
+            if (operation.equals("copy")) {
+                filesCopied.increment();
+                bytesCopied.add(bytes);
+            } else {
+                filesLinked.increment();
+            }
+        } else if (outcome.equals("failed")) {
+            failedOperations.increment();
+        }
+
+        // Paths are only turned into strings when a recording wants the event
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.source = from.toString();
+            event.target = to.toString();
+            event.bytes = bytes;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    // Kept apart from recordFiles, these files were already counted when they were written
+    public static void recordDedup(int files, long bytesSaved) {
+        filesDeduplicated.add(files);
+        bytesDeduplicated.add(bytesSaved);
+    }
+
+    public static void stat() {
+        statCalls.increment();
+    }
+
+    public static void stat(int calls) {
+        statCalls.add(calls);
+    }
+
+    // The same counters in the Prometheus text format, for the conversion server's /metrics
+    public static void printPrometheus(PrintWriter out) {
+        counter(out, "gremlin_files_copied_total", "Files copied into converted gremlins", filesCopied.sum());
+        counter(out, "gremlin_bytes_copied_total", "Bytes copied into converted gremlins", bytesCopied.sum());
+        counter(out, "gremlin_files_linked_total", "Files linked instead of copied", filesLinked.sum());
+        counter(out, "gremlin_files_deduplicated_total", "Outputs replaced by a link into the blob store", filesDeduplicated.sum());
+        counter(out, "gremlin_bytes_deduplicated_total", "Bytes saved by linking outputs into the blob store", bytesDeduplicated.sum());
+        counter(out, "gremlin_file_operations_failed_total", "Copies and links that failed", failedOperations.sum());
+        counter(out, "gremlin_stat_calls_total", "File system stat calls", statCalls.sum());
+
+        out.println("# HELP gremlin_stage_runs_total Conversion stages run");
+        out.println("# TYPE gremlin_stage_runs_total counter");
+        stages.forEach((stage, totals) ->
+                out.printf("gremlin_stage_runs_total{stage=\"%s\"} %d%n", stage.label(), totals[0].sum()));
+
+        out.println("# HELP gremlin_stage_bytes_total Bytes written by each conversion stage");
+        out.println("# TYPE gremlin_stage_bytes_total counter");
+        stages.forEach((stage, totals) ->
+                out.printf("gremlin_stage_bytes_total{stage=\"%s\"} %d%n", stage.label(), totals[2].sum()));
+
+        out.println("# HELP gremlin_stage_seconds_total Time spent in each conversion stage");
+        out.println("# TYPE gremlin_stage_seconds_total counter");
+        stages.forEach((stage, totals) ->
+                out.printf(Locale.ROOT, "gremlin_stage_seconds_total{stage=\"%s\"} %.6f%n",
+                        stage.label(), totals[3].sum() / 1e9));
+    }
+
+    private static void counter(PrintWriter out, String name, String help, long value) {
+        out.println("# HELP " + name + " " + help);
+        out.println("# TYPE " + name + " counter");
+        out.println(name + " " + value);
+    }
+
+    public static void printSummary(PrintStream out) {
+        out.printf("%nFiles copied: %d (%.2f MB), linked: %d, failed: %d, stat calls: %d%n",
+                filesCopied.sum(), bytesCopied.sum() / 1_048_576.0, filesLinked.sum(),
+                failedOperations.sum(), statCalls.sum());
+        if (filesDeduplicated.sum() > 0) {
+            out.printf("Deduplicated: %d (%.2f MB saved)%n", filesDeduplicated.sum(), bytesDeduplicated.sum() / 1_048_576.0);
+        }
+
+        out.printf("%-12s %6s %7s %10s %10s %9s%n", "Stage", "Runs", "Files", "MB", "Total ms", "Mean ms");
+        stages.forEach((stage, totals) -> {
+            long runs = totals[0].sum();
+            if (runs == 0) return;
+
+            double ms = totals[3].sum() / 1e6;
+            out.printf("%-12s %6d %7d %10.2f %10.1f %9.2f%n",
+                    stage.label(), runs, totals[1].sum(), totals[2].sum() / 1_048_576.0, ms, ms / runs);
+        });
+    }
+}
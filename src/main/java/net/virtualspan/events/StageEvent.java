@@ -0,0 +1,34 @@
+package net.virtualspan.events;
+
+import jdk.jfr.*;
+
+// One conversion step of one gremlin, the event duration is the time the step took
+@Name("net.virtualspan.Stage")
+@Label("Conversion Stage")
+@Category("GremlinConverter")
+@Description("A step of a gremlin conversion, with the files and bytes it wrote")
+public class StageEvent extends Event {
+    @Label("Gremlin")
+    public String gremlin;
+
+    @Label("Stage")
+    public String stage;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Files")
+    public int files;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Outcome")
+    public String outcome = "failed";
+
+    // Only used for the summary, transient fields aren't recorded
+    transient ConversionStage conversionStage;
+    transient long startNanos;
+    transient StageEvent parent;
+}
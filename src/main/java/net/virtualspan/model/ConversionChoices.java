@@ -0,0 +1,8 @@
+package net.virtualspan.model;
+
+// "default" means the same default the dialogs fall back to
+public record ConversionChoices(String emoteSprite, String patSprite, String emoteSound) {
+    public static ConversionChoices defaults() {
+        return new ConversionChoices("default", "default", "default");
+    }
+}
@@ -0,0 +1,10 @@
+package net.virtualspan.model;
+
+import java.util.Map;
+
+// Inputs are keyed by step, e.g. "sprites/Actions/idle.png" or "sounds/intro.wav"
+public record ConversionManifest(Map<String, String> choices, Map<String, InputFingerprint> inputs) {
+    public static ConversionManifest empty() {
+        return new ConversionManifest(Map.of(), Map.of());
+    }
+}
@@ -0,0 +1,22 @@
+package net.virtualspan.model;
+
+import java.nio.file.Path;
+import java.util.List;
+
+public record ConversionOptions(
+        Path exportFolder,
+        boolean install,
+        boolean incremental,
+        ExportStrategy exportStrategy,
+        OutputFormat outputFormat,
+        boolean deduplicate,
+        boolean references,
+        boolean validate,
+        boolean preview,
+        List<Double> scales,
+        boolean mirror,
+        int repack) {
+    public static ConversionOptions defaults(Path exportFolder) {
+        return new ConversionOptions(exportFolder, true, true, ExportStrategy.AUTO, OutputFormat.FOLDER, false, false, false, true, List.of(), false, 0);
+    }
+}
@@ -0,0 +1,12 @@
+package net.virtualspan.model;
+
+import java.nio.file.Path;
+
+public record ConversionResult(
+        String name,
+        Path gremlinFolder,
+        boolean installed,
+        boolean upToDate,
+        int filesWritten,
+        long bytesWritten) {
+}
@@ -0,0 +1,7 @@
+package net.virtualspan.model;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public record CopyFailure(Path from, Path to, IOException cause) {
+}
@@ -0,0 +1,7 @@
+package net.virtualspan.model;
+
+import java.nio.file.Path;
+import java.util.List;
+
+public record CopyReport(List<Path> written, List<CopyFailure> failures) {
+}
@@ -0,0 +1,9 @@
+package net.virtualspan.model;
+
+// emote-config.json
+public record EmoteConfig(
+        boolean annoyEmote,
+        int minEmoteTriggerMinutes,
+        int maxEmoteTriggerMinutes,
+        int emoteDuration) {
+}
@@ -0,0 +1,10 @@
+package net.virtualspan.model;
+
+// How converted files are placed into ~/.config/linux-desktop-gremlin/gremlins
+public enum ExportStrategy {
+    AUTO,
+    HARDLINK,
+    REFLINK,
+    SYMLINK,
+    COPY
+}
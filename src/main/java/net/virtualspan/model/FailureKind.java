@@ -0,0 +1,23 @@
+package net.virtualspan.model;
+
+// Why a gremlin in a batch wasn't converted, for the summary and the batch journal
+public enum FailureKind {
+    // Missing required files or sheets that can't be decoded, e.g. a pack laid out like Lemon
+    INCOMPATIBLE("incompatible"),
+    // Reading or writing files failed, transient errors were already retried
+    IO("io"),
+    // Another gremlin in the same batch converts to the same folder
+    CONFLICT("conflict"),
+    // Anything else, most likely a bug
+    ERROR("error");
+
+    private final String label;
+
+    FailureKind(String label) {
+        this.label = label;
+    }
+
+    public String label() {
+        return label;
+    }
+}
@@ -0,0 +1,26 @@
+package net.virtualspan.model;
+
+// frame-count.json
+public record FrameCount(
+        int idle,
+        int hover,
+        int sleep,
+        int intro,
+        int outro,
+        int grab,
+        int up,
+        int down,
+        int left,
+        int right,
+        int upLeft,
+        int upRight,
+        int downLeft,
+        int downRight,
+        int walkIdle,
+        int poke,
+        int pat,
+        int leftAction,
+        int rightAction,
+        int reload,
+        int emote) {
+}
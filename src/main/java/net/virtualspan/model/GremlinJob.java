@@ -0,0 +1,6 @@
+package net.virtualspan.model;
+
+import java.nio.file.Path;
+
+public record GremlinJob(Path spriteSheetFolder, Path soundFolder) {
+}
@@ -0,0 +1,9 @@
+package net.virtualspan.model;
+
+// The hit areas in sprite-map.json, in pixels of one frame
+public record Hotspots(int topHeight, int topWidth, int sideHeight, int sideWidth) {
+    // What every sprite-map.json had before frames were measured, still used when they can't be
+    public static Hotspots defaults() {
+        return new Hotspots(175, 150, 0, 0);
+    }
+}
@@ -0,0 +1,4 @@
+package net.virtualspan.model;
+
+public record InputFingerprint(long size, long modified, long hash) {
+}
@@ -0,0 +1,8 @@
+package net.virtualspan.model;
+
+// Where a converted gremlin is written: a folder in the export folder, or a single archive ready to hand out
+public enum OutputFormat {
+    FOLDER,
+    ZIP,
+    TAR
+}
@@ -0,0 +1,7 @@
+package net.virtualspan.model;
+
+import java.util.Map;
+
+// sfx-durations.json, keyed like sfx-map.json
+public record SfxDurations(Map<String, Integer> durationsMs) {
+}
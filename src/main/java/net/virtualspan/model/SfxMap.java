@@ -0,0 +1,7 @@
+package net.virtualspan.model;
+
+import java.util.List;
+
+// sfx-map.json
+public record SfxMap(List<AssetEntry> sounds) {
+}
@@ -0,0 +1,4 @@
+package net.virtualspan.model;
+
+public record SheetSize(int width, int height) {
+}
@@ -0,0 +1,7 @@
+package net.virtualspan.model;
+
+import java.util.List;
+
+// errors are sheets that can't be decoded, warnings are sheets that decode but look wrong
+public record SheetValidation(List<String> errors, List<String> warnings) {
+}
@@ -1,4 +1,4 @@
 package net.virtualspan.model;
 
-public record SoundResult(String emoteConfig, String sfxMap) {
+public record SoundResult(EmoteConfig emoteConfig, SfxMap sfxMap, SfxDurations sfxDurations) {
 }
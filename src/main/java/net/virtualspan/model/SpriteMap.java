@@ -0,0 +1,17 @@
+package net.virtualspan.model;
+
+import java.util.List;
+
+// sprite-map.json, the frame sizes stay null when config.txt doesn't have them
+public record SpriteMap(
+        int frameRate,
+        Integer spriteColumn,
+        Integer frameHeight,
+        Integer frameWidth,
+        int topHotspotHeight,
+        int topHotspotWidth,
+        int sideHotspotHeight,
+        int sideHotspotWidth,
+        boolean hasReloadAnimation,
+        List<AssetEntry> sprites) {
+}
@@ -1,12 +1,17 @@
 package net.virtualspan.model;
 
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+// mirrored maps converted sheets flipped from another one to that sheet's source
+// columns is what the sheets were repacked to, 0 when they kept the config.txt layout
 public record SpriteResult(
-        String spriteMap,
-        String introSprite,
-        String outroSprite,
+        SpriteMap spriteMap,
         Set<String> skip,
-        Map<String, Integer> values) {
+        Map<String, Integer> values,
+        List<String> warnings,
+        Map<Path, Path> mirrored,
+        int columns) {
 }
@@ -0,0 +1,211 @@
+package net.virtualspan.output;
+
+import net.virtualspan.JsonWriter;
+import net.virtualspan.events.FileOperationEvent;
+import net.virtualspan.events.Metrics;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Streams a converted gremlin into one archive laid out as <name>/sprites and <name>/sounds,
+// which is the folder linux-desktop-gremlin expects in its gremlins directory
+// The archive is written next to its final name and only moved there on commit
+public abstract class ArchiveSink implements OutputSink {
+    // Files up to this size are read into memory outside the lock, so parallel copies only queue for the write
+    private static final long BUFFER_LIMIT = 8 * 1024 * 1024;
+
+    private final Path archive;
+    private final Path partial;
+    private final String root;
+    protected final OutputStream out;
+
+    private boolean started;
+    private final Set<String> folders = new HashSet<>();
+    private boolean committed;
+    private int entries;
+
+    // archive is also the folder the pipeline thinks it is writing into, every target is relative to it
+    protected ArchiveSink(Path archive, String root) throws IOException {
+        this.archive = archive;
+        this.partial = archive.resolveSibling(archive.getFileName() + ".part");
+        this.root = root;
+        this.out = new BufferedOutputStream(Files.newOutputStream(partial), 64 * 1024);
+    }
+
+    protected abstract void writeDirectory(String name) throws IOException;
+
+    protected abstract void writeEntry(String name, long modified, byte[] data) throws IOException;
+
+    // For files too big to hold in memory, streamed from disk
+    protected abstract void writeEntry(String name, long modified, long size, Path from) throws IOException;
+
+    protected abstract void finish() throws IOException;
+
+    @Override
+    public long copy(Path from, Path to) throws IOException {
+        FileOperationEvent event = Metrics.beginFileOperation();
+        long size = 0;
+        String outcome = "failed";
+
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(from, BasicFileAttributes.class);
+            Metrics.stat();
+            size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+            String name = entryName(to);
+
+            if (size <= BUFFER_LIMIT) {
+                byte[] data = Files.readAllBytes(from);
+                synchronized (this) {
+                    start();
+                    folderOf(name);
+                    writeEntry(name, modified, data);
+                    entries++;
+                }
+            } else {
+                synchronized (this) {
+                    start();
+                    folderOf(name);
+                    writeEntry(name, modified, size, from);
+                    entries++;
+                }
+            }
+
+            outcome = "ok";
+            return size;
+        } finally {
+            Metrics.endFileOperation(event, "copy", from, to, size, outcome);
+        }
+    }
+
+    @Override
+    public boolean onDisk() {
+        return false;
+    }
+
+    // JSON is small, so it is built in memory and written as one entry when the writer is closed
+    @Override
+    public JsonWriter json(Path to) {
+        String name = entryName(to);
+
+        return new JsonWriter(new StringWriter() {
+            @Override
+            public void close() throws IOException {
+                byte[] data = toString().getBytes(StandardCharsets.UTF_8);
+                synchronized (ArchiveSink.this) {
+                    start();
+                    folderOf(name);
+                    writeEntry(name, System.currentTimeMillis(), data);
+                    entries++;
+                }
+                Metrics.recordFiles(1, data.length);
+            }
+        });
+    }
+
+    @Override
+    public void write(Path to, byte[] data) throws IOException {
+        String name = entryName(to);
+        synchronized (this) {
+            start();
+            folderOf(name);
+            writeEntry(name, System.currentTimeMillis(), data);
+            entries++;
+        }
+        Metrics.recordFiles(1, data.length);
+    }
+
+    // Spooled to a file next to the archive, entries can only be written one after the other
+    @Override
+    public PartFile stream(Path to) throws IOException {
+        String name = entryName(to);
+        Path spool = Files.createTempFile(partial.toAbsolutePath().getParent(), archive.getFileName() + ".", ".part");
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(spool), 64 * 1024);
+
+        return new PartFile() {
+            @Override
+            public OutputStream out() {
+                return out;
+            }
+
+            @Override
+            public void commit() throws IOException {
+                out.close();
+                long size = Files.size(spool);
+                synchronized (ArchiveSink.this) {
+                    start();
+                    folderOf(name);
+                    writeEntry(name, System.currentTimeMillis(), size, spool);
+                    entries++;
+                }
+                Metrics.recordFiles(1, size);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    out.close();
+                } finally {
+                    Files.deleteIfExists(spool);
+                }
+            }
+        };
+    }
+
+    public synchronized int entries() {
+        return entries;
+    }
+
+    @Override
+    public synchronized void commit() throws IOException {
+        start();
+        finish();
+        out.close();
+        Files.move(partial, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        committed = true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (committed) return;
+
+        try {
+            out.close();
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    // Folder entries first, some unzip tools won't create folders that only appear inside entry names
+    private void start() throws IOException {
+        if (started) return;
+        started = true;
+
+        for (String folder : List.of(root + "/", root + "/sprites/", root + "/sounds/")) {
+            writeDirectory(folder);
+            folders.add(folder);
+        }
+    }
+
+    // Any other folder, e.g. a scaled sprites@2x, gets its entry before its first file
+    private void folderOf(String name) throws IOException {
+        String folder = name.substring(0, name.lastIndexOf('/') + 1);
+        if (folders.add(folder)) {
+            writeDirectory(folder);
+        }
+    }
+
+    private String entryName(Path to) {
+        return root + "/" + archive.relativize(to).toString().replace('\\', '/');
+    }
+}
@@ -0,0 +1,75 @@
+package net.virtualspan.output;
+
+import net.virtualspan.CopyExecutor;
+import net.virtualspan.JsonWriter;
+import net.virtualspan.events.Metrics;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// The gremlin folder on disk, how the converter always wrote its output
+public class FolderSink implements OutputSink {
+    public static final FolderSink INSTANCE = new FolderSink();
+
+    private FolderSink() {
+    }
+
+    @Override
+    public long copy(Path from, Path to) throws IOException {
+        return CopyExecutor.copy(from, to);
+    }
+
+    @Override
+    public JsonWriter json(Path to) throws IOException {
+        return JsonWriter.open(to);
+    }
+
+    // Replaced rather than truncated, same as JSON, the old file may be a hardlink shared through the blob store
+    @Override
+    public void write(Path to, byte[] data) throws IOException {
+        Files.deleteIfExists(to);
+        Files.write(to, data, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        Metrics.recordFiles(1, data.length);
+    }
+
+    // Written next to the target and moved over it on commit, which replaces a hardlinked old file the same way
+    @Override
+    public PartFile stream(Path to) throws IOException {
+        Path part = to.resolveSibling(to.getFileName() + ".part");
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(part), 64 * 1024);
+
+        return new PartFile() {
+            private boolean committed;
+
+            @Override
+            public OutputStream out() {
+                return out;
+            }
+
+            @Override
+            public void commit() throws IOException {
+                out.close();
+                long size = Files.size(part);
+                Files.move(part, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                committed = true;
+                Metrics.recordFiles(1, size);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (committed) return;
+
+                try {
+                    out.close();
+                } finally {
+                    Files.deleteIfExists(part);
+                }
+            }
+        };
+    }
+}
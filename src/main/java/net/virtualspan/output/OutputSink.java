@@ -0,0 +1,44 @@
+package net.virtualspan.output;
+
+import net.virtualspan.JsonWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+// Where converted files are written: straight into the gremlin folder, or one entry at a time into an archive
+// Targets are always given as paths in the converted gremlin folder, so the processors don't need to know which
+public interface OutputSink extends Closeable {
+    // Returns the number of bytes written, may be called from several threads at once
+    long copy(Path from, Path to) throws IOException;
+
+    JsonWriter json(Path to) throws IOException;
+
+    // A file built in memory, e.g. a preview image
+    void write(Path to, byte[] data) throws IOException;
+
+    // A file written as it's produced, e.g. an encoded sheet, so it's never held in memory whole
+    // Nothing shows up at to until the part file is committed, closing it without a commit throws it away
+    PartFile stream(Path to) throws IOException;
+
+    interface PartFile extends Closeable {
+        OutputStream out();
+
+        void commit() throws IOException;
+    }
+
+    // Whether targets are real files, whose folders have to exist before anything is copied into them
+    default boolean onDisk() {
+        return true;
+    }
+
+    // Everything was written, an archive only shows up under its real name once this is called
+    default void commit() throws IOException {
+    }
+
+    // Without a commit anything half written is thrown away
+    @Override
+    default void close() throws IOException {
+    }
+}
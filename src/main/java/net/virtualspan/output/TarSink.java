@@ -0,0 +1,102 @@
+package net.virtualspan.output;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Uncompressed ustar, every entry is a 512 byte header followed by the data padded to 512 bytes
+public class TarSink extends ArchiveSink {
+    private static final int BLOCK = 512;
+
+    public TarSink(Path archive, String root) throws IOException {
+        super(archive, root);
+    }
+
+    @Override
+    protected void writeDirectory(String name) throws IOException {
+        header(name, 0, System.currentTimeMillis(), '5');
+    }
+
+    @Override
+    protected void writeEntry(String name, long modified, byte[] data) throws IOException {
+        header(name, data.length, modified, '0');
+        out.write(data);
+        pad(data.length);
+    }
+
+    @Override
+    protected void writeEntry(String name, long modified, long size, Path from) throws IOException {
+        header(name, size, modified, '0');
+
+        long copied = Files.copy(from, out);
+        if (copied != size) {
+            throw new IOException(from + " changed size while it was being archived");
+        }
+        pad(size);
+    }
+
+    // Two empty blocks mark the end of the archive
+    @Override
+    protected void finish() throws IOException {
+        out.write(new byte[BLOCK * 2]);
+    }
+
+    private void header(String name, long size, long modified, char type) throws IOException {
+        byte[] header = new byte[BLOCK];
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+
+        // Names over 100 bytes are split into a prefix and a name at a slash
+        if (bytes.length <= 100) {
+            System.arraycopy(bytes, 0, header, 0, bytes.length);
+        } else {
+            int split = name.lastIndexOf('/', name.length() - 2);
+            byte[] prefix = split > 0 ? name.substring(0, split).getBytes(StandardCharsets.UTF_8) : bytes;
+            byte[] rest = split > 0 ? name.substring(split + 1).getBytes(StandardCharsets.UTF_8) : bytes;
+            if (split <= 0 || prefix.length > 155 || rest.length > 100) {
+                throw new IOException("Path is too long for a tar entry: " + name);
+            }
+            System.arraycopy(rest, 0, header, 0, rest.length);
+            System.arraycopy(prefix, 0, header, 345, prefix.length);
+        }
+
+        octal(header, 100, 8, type == '5' ? 0755 : 0644);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, modified / 1000);
+        header[156] = (byte) type;
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+
+        // The checksum is taken with its own field filled with spaces
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        octal(header, 148, 7, checksum);
+
+        out.write(header);
+    }
+
+    // Zero padded octal digits with a terminating NUL
+    private static void octal(byte[] header, int offset, int length, long value) throws IOException {
+        String digits = Long.toOctalString(value);
+        if (digits.length() > length - 1) {
+            throw new IOException("Value " + value + " doesn't fit in a tar header");
+        }
+
+        String padded = "0".repeat(length - 1 - digits.length()) + digits;
+        System.arraycopy(padded.getBytes(StandardCharsets.US_ASCII), 0, header, offset, length - 1);
+        header[offset + length - 1] = 0;
+    }
+
+    private void pad(long size) throws IOException {
+        int remainder = (int) (size % BLOCK);
+        if (remainder != 0) {
+            out.write(new byte[BLOCK - remainder]);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package net.virtualspan.output;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ZipSink extends ArchiveSink {
+    private final ZipOutputStream zip;
+
+    public ZipSink(Path archive, String root) throws IOException {
+        super(archive, root);
+        zip = new ZipOutputStream(out);
+    }
+
+    // PNGs are already deflated, compressing them again costs CPU and saves next to nothing
+    private static boolean stored(String name) {
+        return name.endsWith(".png");
+    }
+
+    @Override
+    protected void writeDirectory(String name) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(0);
+        entry.setCompressedSize(0);
+        entry.setCrc(0);
+        zip.putNextEntry(entry);
+        zip.closeEntry();
+    }
+
+    @Override
+    protected void writeEntry(String name, long modified, byte[] data) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(modified);
+
+        if (stored(name)) {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            store(entry, data.length, crc.getValue());
+        }
+
+        zip.putNextEntry(entry);
+        zip.write(data);
+        zip.closeEntry();
+    }
+
+    @Override
+    protected void writeEntry(String name, long modified, long size, Path from) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(modified);
+
+        // A stored entry needs its CRC up front, which for a file this big means reading it twice
+        if (stored(name)) {
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = Files.newInputStream(from)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, read);
+                }
+            }
+            store(entry, size, crc.getValue());
+        }
+
+        zip.putNextEntry(entry);
+        Files.copy(from, zip);
+        zip.closeEntry();
+    }
+
+    @Override
+    protected void finish() throws IOException {
+        zip.finish();
+    }
+
+    private static void store(ZipEntry entry, long size, long crc) {
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(size);
+        entry.setCompressedSize(size);
+        entry.setCrc(crc);
+    }
+}
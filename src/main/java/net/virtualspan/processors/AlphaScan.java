@@ -0,0 +1,113 @@
+package net.virtualspan.processors;
+
+import net.virtualspan.processors.SheetStream.Band;
+
+import java.awt.Rectangle;
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+// A SheetStream stage that finds the opaque bounding box of every frame by scanning the alpha of the band's pixels
+// Rows are scanned with the Vector API when jdk.incubator.vector is loaded (java --add-modules jdk.incubator.vector),
+// otherwise with the plain loops below, which give the same results
+public class AlphaScan implements SheetStream.Stage {
+    static final boolean VECTOR = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && !Boolean.getBoolean("gremlin.scalarAlphaScan");
+
+    private final int frameWidth;
+    private final int frameHeight;
+    private final int columns;
+
+    // Per frame, relative to the frame's own top left corner, minY is -1 while nothing opaque was found
+    private final int[] minX;
+    private final int[] maxX;
+    private final int[] minY;
+    private final int[] maxY;
+
+    // The first count frames (frameWidth x frameHeight cells, columns to a row)
+    public AlphaScan(int frameWidth, int frameHeight, int columns, int count) {
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        this.columns = columns;
+        this.minX = new int[count];
+        this.maxX = new int[count];
+        this.minY = new int[count];
+        this.maxY = new int[count];
+        Arrays.fill(minX, frameWidth);
+        Arrays.fill(maxX, -1);
+        Arrays.fill(minY, -1);
+    }
+
+    @Override
+    public void accept(Band band) {
+        for (int r = 0; r < band.rows(); r++) {
+            int y = band.top() + r;
+            int first = y / frameHeight * columns;
+            if (first >= minX.length) return;
+
+            long row = band.offset(r) / Integer.BYTES;
+            for (int frame = first; frame < Math.min(first + columns, minX.length); frame++) {
+                scan(band.pixels(), row + (long) (frame - first) * frameWidth, frame, y % frameHeight);
+            }
+        }
+    }
+
+    // One row of one frame, at index start in pixels
+    private void scan(MemorySegment pixels, long start, int frame, int y) {
+        int left = firstOpaque(pixels, start, frameWidth);
+        if (left < 0) return;
+
+        if (minY[frame] < 0) minY[frame] = y;
+        maxY[frame] = y;
+        minX[frame] = Math.min(minX[frame], left);
+
+        // Only the part right of what is already known can move the right edge
+        int from = Math.max(left, maxX[frame] + 1);
+        if (from < frameWidth) {
+            int right = lastOpaque(pixels, start + from, frameWidth - from);
+            if (right >= 0) maxX[frame] = from + right;
+        }
+    }
+
+    // Opaque bounds of every frame, null for empty frames
+    public Rectangle[] frames() {
+        Rectangle[] bounds = new Rectangle[minX.length];
+        for (int frame = 0; frame < bounds.length; frame++) {
+            if (minY[frame] >= 0) {
+                bounds[frame] = new Rectangle(minX[frame], minY[frame],
+                        maxX[frame] - minX[frame] + 1, maxY[frame] - minY[frame] + 1);
+            }
+        }
+        return bounds;
+    }
+
+    // Every frame's bounds in one box, in frame coordinates, null when all of them are empty
+    public static Rectangle union(Rectangle[] frames) {
+        Rectangle union = null;
+        for (Rectangle frame : frames) {
+            if (frame == null) continue;
+            union = union == null ? new Rectangle(frame) : union.union(frame);
+        }
+        return union;
+    }
+
+    // First and last of pixels packed ARGB ints from start whose alpha isn't 0, or -1
+    static int firstOpaque(MemorySegment pixels, long start, int count) {
+        if (VECTOR) return VectorAlphaScan.first(pixels, start, count);
+
+        for (int i = 0; i < count; i++) {
+            if (pixels.getAtIndex(JAVA_INT, start + i) >>> 24 != 0) return i;
+        }
+        return -1;
+    }
+
+    static int lastOpaque(MemorySegment pixels, long start, int count) {
+        if (VECTOR) return VectorAlphaScan.last(pixels, start, count);
+
+        for (int i = count - 1; i >= 0; i--) {
+            if (pixels.getAtIndex(JAVA_INT, start + i) >>> 24 != 0) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,339 @@
+package net.virtualspan.processors;
+
+import net.virtualspan.processors.SheetStream.Band;
+import net.virtualspan.processors.SheetStream.Stage;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+// Stages that transform bands on their way through a SheetStream pipeline
+// Each holds at most one band of its own output, allocated once from the stream's arena and reused
+public class BandOps {
+    // Hands every band to each stage in turn, e.g. to resample a sheet to several sizes in one decode
+    public static Stage tee(List<Stage> stages) {
+        return new Stage() {
+            @Override
+            public void accept(Band band) throws IOException {
+                for (Stage stage : stages) {
+                    stage.accept(band);
+                }
+            }
+
+            @Override
+            public void finish() throws IOException {
+                for (Stage stage : stages) {
+                    stage.finish();
+                }
+            }
+        };
+    }
+
+    // Only the part of every band inside area, as bands starting at area's top left; nothing is copied
+    public static Stage crop(Rectangle area, Stage next) {
+        return new Stage() {
+            @Override
+            public void accept(Band band) throws IOException {
+                int from = Math.max(band.top(), area.y);
+                int to = Math.min(band.top() + band.rows(), area.y + area.height);
+                if (from >= to) return;
+
+                long offset = band.offset(from - band.top()) + (long) area.x * Integer.BYTES;
+                next.accept(new Band(band.pixels().asSlice(offset), from - area.y, to - from, area.width, band.stride()));
+            }
+
+            @Override
+            public void finish() throws IOException {
+                next.finish();
+            }
+        };
+    }
+
+    // Mirrors every frameWidth wide cell left to right, the frames stay where they are
+    // Pixels right of the last whole cell are passed on unchanged
+    public static Stage flipFrames(Arena arena, int width, int frameWidth, int bandRows, Stage next) {
+        MemorySegment out = arena.allocate((long) bandRows * width * Integer.BYTES, Integer.BYTES);
+        int[] row = new int[width];
+        int cells = width / frameWidth;
+
+        return new Stage() {
+            @Override
+            public void accept(Band band) throws IOException {
+                for (int r = 0; r < band.rows(); r++) {
+                    MemorySegment.copy(band.pixels(), JAVA_INT, band.offset(r), row, 0, width);
+                    for (int cell = 0; cell < cells; cell++) {
+                        int left = cell * frameWidth;
+                        for (int i = left, j = left + frameWidth - 1; i < j; i++, j--) {
+                            int swap = row[i];
+                            row[i] = row[j];
+                            row[j] = swap;
+                        }
+                    }
+                    MemorySegment.copy(row, 0, out, JAVA_INT, (long) r * width * Integer.BYTES, width);
+                }
+                next.accept(new Band(out, band.top(), band.rows(), width, width));
+            }
+
+            @Override
+            public void finish() throws IOException {
+                next.finish();
+            }
+        };
+    }
+
+    // Bytes regrid holds, the target cell rows a single source cell row can spread over
+    public static long regridBytes(int frameWidth, int frameHeight, int fromColumns, int toColumns, int frames) {
+        return (long) ringRows(fromColumns, toColumns) * Math.min(toColumns, frames) * frameWidth * frameHeight * Integer.BYTES;
+    }
+
+    private static int ringRows(int fromColumns, int toColumns) {
+        return (fromColumns - 1) / toColumns + 2;
+    }
+
+    // Moves frames from a grid fromColumns cells wide into one toColumns wide, frame i goes from cell
+    // (i % fromColumns, i / fromColumns) to (i % toColumns, i / toColumns), and frames is how many there are
+    // Cells that lie outside the source are left transparent, as are pixels past the last whole frame
+    // Target cell rows are filled in a ring and handed on as one band each as soon as their last frame is complete
+    public static Stage regrid(Arena arena, int frameWidth, int frameHeight, int fromColumns, int toColumns, int frames,
+                               Stage next) {
+        int width = Math.min(toColumns, frames) * frameWidth;
+        int targetRows = Math.ceilDiv(frames, toColumns);
+        int ring = ringRows(fromColumns, toColumns);
+        long slotBytes = (long) frameHeight * width * Integer.BYTES;
+        MemorySegment rows = arena.allocate(ring * slotBytes, Integer.BYTES);
+
+        return new Stage() {
+            // Frames whose every row has arrived, and the first target cell row that hasn't been handed on yet
+            private int complete;
+            private int emitted;
+
+            @Override
+            public void accept(Band band) throws IOException {
+                for (int r = 0; r < band.rows(); r++) {
+                    int y = band.top() + r;
+                    int sourceRow = y / frameHeight;
+                    int line = y % frameHeight;
+                    int first = sourceRow * fromColumns;
+                    if (first >= frames) return;
+
+                    for (int column = 0; column < fromColumns && first + column < frames; column++) {
+                        if ((column + 1) * frameWidth > band.width()) break;
+
+                        int frame = first + column;
+                        long to = frame / toColumns % ring * slotBytes
+                                + ((long) line * width + (long) frame % toColumns * frameWidth) * Integer.BYTES;
+                        MemorySegment.copy(band.pixels(), band.offset(r) + (long) column * frameWidth * Integer.BYTES,
+                                rows, to, (long) frameWidth * Integer.BYTES);
+                    }
+
+                    if (line == frameHeight - 1) {
+                        complete = Math.min(first + fromColumns, frames);
+                        emit();
+                    }
+                }
+            }
+
+            @Override
+            public void finish() throws IOException {
+                if (complete != frames) {
+                    throw new IOException("Repacked " + complete + " of " + frames + " frames");
+                }
+                next.finish();
+            }
+
+            private void emit() throws IOException {
+                while (emitted < targetRows && Math.min((emitted + 1) * toColumns, frames) <= complete) {
+                    MemorySegment slot = rows.asSlice(emitted % ring * slotBytes, slotBytes);
+                    next.accept(new Band(slot, emitted * frameHeight, frameHeight, width, width));
+                    slot.fill((byte) 0);
+                    emitted++;
+                }
+            }
+        };
+    }
+
+    // Bytes resample holds whatever the band height, on top of one band of its output
+    public static long resampleBytes(int sourceWidth, Axis xs, Axis ys) {
+        return (long) sourceWidth * Integer.BYTES + (ys.overlap() + 1L) * xs.length() * 4 * Float.BYTES;
+    }
+
+    // Box filter from the source size to xs.length() x ys.length(), in bands of at most bandRows target rows
+    // Source rows are shrunk (or stretched) to the target width as they arrive, and added into the few target rows
+    // they cover, each of which is handed on as soon as its last source row was added
+    public static Stage resample(Arena arena, int sourceWidth, Axis xs, Axis ys, int bandRows, Stage next) {
+        return new Resample(arena, sourceWidth, xs, ys, bandRows, next);
+    }
+
+    // Which source pixels, and how much of each, make up every target pixel along one axis
+    // Pixels past the last whole frame are scaled the same way, so nothing is cropped
+    // overlap is the most target pixels a single source pixel goes into
+    public record Axis(int length, int[] first, int[] offsets, float[] weights, int overlap) {
+        public static Axis of(int sourceLength, int cell, int targetCell) {
+            int frames = sourceLength / cell;
+            int rest = sourceLength % cell;
+            int targetRest = rest == 0 ? 0 : Math.max(1, (int) Math.round(rest * (double) targetCell / cell));
+            int length = frames * targetCell + targetRest;
+
+            int[] first = new int[length];
+            int[] offsets = new int[length + 1];
+            float[] weights = new float[length * (Math.ceilDiv(cell, targetCell) + 2)];
+            int count = 0;
+
+            for (int i = 0; i < length; i++) {
+                double start;
+                double span;
+                if (i < frames * targetCell) {
+                    span = cell / (double) targetCell;
+                    start = i / targetCell * cell + i % targetCell * span;
+                } else {
+                    span = rest / (double) targetRest;
+                    start = frames * cell + (i - frames * targetCell) * span;
+                }
+                double end = start + span;
+
+                int from = (int) Math.floor(start);
+                int to = Math.min(sourceLength, (int) Math.ceil(end));
+                first[i] = from;
+                offsets[i] = count;
+
+                for (int p = from; p < to; p++) {
+                    if (count == weights.length) weights = Arrays.copyOf(weights, weights.length * 2);
+                    weights[count++] = (float) ((Math.min(end, p + 1) - Math.max(start, p)) / span);
+                }
+            }
+            offsets[length] = count;
+
+            // Both ends of every target pixel's range only ever move forward
+            int overlap = 1;
+            for (int i = 0, covering = 0; i < length; i++) {
+                while (first[covering] + offsets[covering + 1] - offsets[covering] <= first[i]) covering++;
+                overlap = Math.max(overlap, i - covering + 1);
+            }
+
+            return new Axis(length, first, offsets, weights, overlap);
+        }
+
+        int last(int i) {
+            return first[i] + offsets[i + 1] - offsets[i];
+        }
+    }
+
+    // Premultiplied ARGB, then back to straight alpha for every target row that is done
+    private static final class Resample implements Stage {
+        private final int sourceWidth;
+        private final Axis xs;
+        private final Axis ys;
+        private final int bandRows;
+        private final Stage next;
+
+        private final int[] source;
+        private final float[] horizontal;
+        // Target rows still being added to, target row y is accumulators[y % length]
+        private final float[][] accumulators;
+        private final int[] pixels;
+        private final MemorySegment out;
+
+        private int sourceY;
+        private int targetY;
+        private int outTop;
+        private int outRows;
+
+        Resample(Arena arena, int sourceWidth, Axis xs, Axis ys, int bandRows, Stage next) {
+            this.sourceWidth = sourceWidth;
+            this.xs = xs;
+            this.ys = ys;
+            this.bandRows = bandRows;
+            this.next = next;
+
+            int width = xs.length();
+            this.source = new int[sourceWidth];
+            this.horizontal = new float[width * 4];
+            this.accumulators = new float[ys.overlap()][width * 4];
+            this.pixels = new int[width];
+            this.out = arena.allocate((long) bandRows * width * Integer.BYTES, Integer.BYTES);
+        }
+
+        @Override
+        public void accept(Band band) throws IOException {
+            for (int r = 0; r < band.rows(); r++, sourceY++) {
+                MemorySegment.copy(band.pixels(), JAVA_INT, band.offset(r), source, 0, sourceWidth);
+                shrinkRow();
+
+                // Every target row this source row is part of
+                for (int y = targetY; y < ys.length() && ys.first()[y] <= sourceY; y++) {
+                    if (sourceY >= ys.last(y)) continue;
+
+                    float weight = ys.weights()[ys.offsets()[y] + sourceY - ys.first()[y]];
+                    float[] accumulator = accumulators[y % accumulators.length];
+                    for (int i = 0; i < horizontal.length; i++) {
+                        accumulator[i] += horizontal[i] * weight;
+                    }
+                }
+
+                while (targetY < ys.length() && ys.last(targetY) <= sourceY + 1) {
+                    emit(accumulators[targetY % accumulators.length]);
+                    targetY++;
+                }
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (targetY != ys.length()) {
+                throw new IOException("Resampled " + targetY + " of " + ys.length() + " rows");
+            }
+            if (outRows > 0) flush();
+            next.finish();
+        }
+
+        private void shrinkRow() {
+            for (int x = 0; x < xs.length(); x++) {
+                float a = 0, r = 0, g = 0, b = 0;
+                int p = xs.first()[x];
+                for (int w = xs.offsets()[x]; w < xs.offsets()[x + 1]; w++, p++) {
+                    int argb = source[p];
+                    float weight = xs.weights()[w];
+                    float alpha = (argb >>> 24) * weight;
+                    a += alpha;
+                    r += (argb >> 16 & 0xFF) * alpha;
+                    g += (argb >> 8 & 0xFF) * alpha;
+                    b += (argb & 0xFF) * alpha;
+                }
+                horizontal[x * 4] = a;
+                horizontal[x * 4 + 1] = r;
+                horizontal[x * 4 + 2] = g;
+                horizontal[x * 4 + 3] = b;
+            }
+        }
+
+        private void emit(float[] accumulator) throws IOException {
+            for (int x = 0; x < pixels.length; x++) {
+                float a = accumulator[x * 4];
+                int alpha = Math.min(255, Math.round(a));
+                pixels[x] = alpha == 0 ? 0 : alpha << 24
+                        | channel(accumulator[x * 4 + 1], a) << 16
+                        | channel(accumulator[x * 4 + 2], a) << 8
+                        | channel(accumulator[x * 4 + 3], a);
+            }
+            Arrays.fill(accumulator, 0);
+
+            MemorySegment.copy(pixels, 0, out, JAVA_INT, (long) outRows * pixels.length * Integer.BYTES, pixels.length);
+            if (++outRows == bandRows) flush();
+        }
+
+        private void flush() throws IOException {
+            next.accept(new Band(out, outTop, outRows, pixels.length, pixels.length));
+            outTop += outRows;
+            outRows = 0;
+        }
+
+        private static int channel(float premultiplied, float alpha) {
+            return Math.min(255, Math.round(premultiplied / alpha));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package net.virtualspan.processors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Where sheets are fully decoded (validation, hotspots, scaling), shared by every gremlin in a batch
+// A memory budget limits how many sheets' band buffers (see SheetStream) are held at once, so a big catalog neither
+// runs out of memory nor ends up decoding one sheet at a time
+public class DecodePool {
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    // In KB, so a Semaphore can count it
+    private static volatile int budgetKb = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 4 / 1024);
+    private static volatile Semaphore budget = new Semaphore(budgetKb);
+
+    public static void setMemoryBudget(long megabytes) {
+        if (megabytes < 1) {
+            throw new IllegalArgumentException("Decode memory budget must be at least 1 MB");
+        }
+        budgetKb = (int) Math.min(Integer.MAX_VALUE, megabytes * 1024);
+        budget = new Semaphore(budgetKb);
+    }
+
+    // Part of the budget, handed back on close
+    public static final class Reservation implements AutoCloseable {
+        private final Semaphore semaphore;
+        private final int permits;
+
+        private Reservation(Semaphore semaphore, int permits) {
+            this.semaphore = semaphore;
+            this.permits = permits;
+        }
+
+        @Override
+        public void close() {
+            semaphore.release(permits);
+        }
+    }
+
+    // Runs every task on the pool and waits for all of them, in order
+    static <T> List<T> runAll(List<Callable<T>> tasks) throws InterruptedException, ExecutionException {
+        List<T> results = new ArrayList<>(tasks.size());
+        for (Future<T> future : POOL.invokeAll(tasks)) {
+            results.add(future.get());
+        }
+        return results;
+    }
+
+    // Waits until bytes fit in the budget, anything bigger than the whole budget still runs, just on its own
+    // Lets the pool start another worker while this one waits, so other gremlins' small sheets keep going
+    static Reservation reserve(long bytes) throws InterruptedException {
+        Semaphore semaphore = budget;
+        int permits = (int) Math.min(budgetKb, Math.max(1, bytes / 1024));
+
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+            private boolean acquired;
+
+            @Override
+            public boolean block() throws InterruptedException {
+                if (!acquired) {
+                    semaphore.acquire(permits);
+                    acquired = true;
+                }
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                if (!acquired) {
+                    acquired = semaphore.tryAcquire(permits);
+                }
+                return acquired;
+            }
+        });
+
+        return new Reservation(semaphore, permits);
+    }
+}
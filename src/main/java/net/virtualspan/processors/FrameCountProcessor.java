@@ -1,27 +1,30 @@
 package net.virtualspan.processors;
 
-import java.nio.file.Files;
+import net.virtualspan.AssetInventory;
+import net.virtualspan.model.FrameCount;
+import net.virtualspan.rules.GremlinRules;
+import net.virtualspan.rules.Rule;
+
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
 public class FrameCountProcessor {
-    public static String process(
+    // chosen holds the picks of the rules' choices, the emote, pat, poke, intro and outro sprites use their frame counts
+    public static FrameCount process(
+            GremlinRules rules,
             Path convertedSpriteFolder,
-            String emoteSpriteChoice,
-            String patSpriteChoice,
-            String pokeSprite,
-            String introSprite,
-            String outroSprite,
-            String normalised,
+            Map<String, String> chosen,
             Set<String> skip,
-            Map<String, Integer> values) {
+            Map<String, Integer> values,
+            AssetInventory inventory) {
         // Sync choices/sprites with the equivalent key for proper frame count
-        String emoteKey = convertSpriteToKey(emoteSpriteChoice);
-        String patKey = convertSpriteToKey(patSpriteChoice);
-        String pokeKey = convertSpriteToKey(pokeSprite);
-        String introKey = convertSpriteToKey(introSprite);
-        String outroKey = convertSpriteToKey(outroSprite);
+        String emoteKey = rules.frameKey(chosen.get("emoteSprite"));
+        String patKey = rules.frameKey(chosen.get("patSprite"));
+        String pokeKey = rules.frameKey(chosen.get("pokeSprite"));
+        String introKey = placeholderKey(rules, chosen, "introSprite");
+        String outroKey = placeholderKey(rules, chosen, "outroSprite");
 
         // frame-count.json
         // The idle sprite replaces missing sprites (except LeftAction, RightAction and Reload)
@@ -32,96 +35,53 @@ public class FrameCountProcessor {
             }
         }
 
-        // Movement sprites fall back to run-right.png and/or run-left.png if it exists, so this syncs frame count for that
-        Set<String> rightMovementKeys = Set.of(
-                "RUNUP", "RUNRIGHT", "UPRIGHT", "DOWNRIGHT"
-        );
-
-        Set<String> leftMovementKeys = Set.of(
-                "RUNDOWN", "RUNLEFT", "UPLEFT", "DOWNLEFT"
-        );
-
-        boolean hasRunRight = Files.exists(convertedSpriteFolder.resolve("run-right.png"));
-        boolean hasRunLeft  = Files.exists(convertedSpriteFolder.resolve("run-left.png"));
-
-        // If run-right exists, apply RUNRIGHT frames
-        if (hasRunRight) {
-            int runRightFrames = get(values, "RUNRIGHT");
-
-            // Always update right movement keys
-            for (String key : rightMovementKeys) {
-                values.put(key, runRightFrames);
-            }
-
-            // If run-left does NOT exist, left keys also fall back to run-right
-            if (!hasRunLeft) {
-                for (String key : leftMovementKeys) {
-                    values.put(key, runRightFrames);
-                }
+        // Movement sprites share the frame count of run-right.png and/or run-left.png (see the rules' movement groups),
+        // and when one of those doesn't exist its group falls back to the other one
+        // Fallbacks are all looked up first, so one group's update can't feed into another's
+        Map<Rule.Movement, Integer> movementFrames = new LinkedHashMap<>();
+        for (Rule.Movement group : rules.movement()) {
+            Rule.Sheet fallback = rules.movementFallback(group,
+                    file -> inventory.exists(convertedSpriteFolder.resolve(file)));
+            if (fallback != null) {
+                movementFrames.put(group, get(values, fallback.configKey()));
             }
         }
 
-        // If run-left exists, apply RUNLEFT frames
-        if (hasRunLeft) {
-            int runLeftFrames = get(values, "RUNLEFT");
-
-            // Always update left movement keys
-            for (String key : leftMovementKeys) {
-                values.put(key, runLeftFrames);
-            }
-
-            // If run-right does NOT exist, right keys also fall back to run-left
-            if (!hasRunRight) {
-                for (String key : rightMovementKeys) {
-                    values.put(key, runLeftFrames);
-                }
+        movementFrames.forEach((group, frames) -> {
+            for (Rule.Sheet sheet : group.sheets()) {
+                values.put(sheet.configKey(), frames);
             }
-        }
+        });
 
-        // Hardcode frame count fix for Gold Ship
-        if (normalised.equals("goldship")) {
-            values.put("HOVER", 25);
-            values.put("SLEEP", 50);
-        }
-
-        String frameCountFile = "{\n" +
-                "    \"Idle\": " + get(values, "IDLE") + ",\n" +
-                "    \"Hover\": " + get(values, "HOVER") + ",\n" +
-                "    \"Sleep\": " + get(values, "SLEEP") + ",\n" +
-                "    \"Intro\": " + get(values, introKey) + ",\n" +
-                "    \"Outro\": " + get(values, outroKey) + ",\n" +
-                "    \"Grab\": " + get(values, "GRAB") + ",\n" +
-                "    \"Up\": " + get(values, "RUNUP") + ",\n" +
-                "    \"Down\": " + get(values, "RUNDOWN") + ",\n" +
-                "    \"Left\": " + get(values, "RUNLEFT") + ",\n" +
-                "    \"Right\": " + get(values, "RUNRIGHT") + ",\n" +
-                "    \"UpLeft\": " + get(values, "UPLEFT") + ",\n" +
-                "    \"UpRight\": " + get(values, "UPRIGHT") + ",\n" +
-                "    \"DownLeft\": " + get(values, "DOWNLEFT") + ",\n" +
-                "    \"DownRight\": " + get(values, "DOWNRIGHT") + ",\n" +
-                "    \"WalkIdle\": " + get(values, "RUNIDLE") + ",\n" +
-                "    \"Poke\": " + get(values, pokeKey) + ",\n" +
-                "    \"Pat\": " + get(values, patKey) + ",\n" +
-                "    \"LeftAction\": 0,\n" +
-                "    \"RightAction\": 0,\n" +
-                "    \"Reload\": 0,\n" +
-                "    \"Emote\": " + get(values, emoteKey) + "\n" +
-                "}";
-        return frameCountFile;
+        return new FrameCount(
+                get(values, "IDLE"),
+                get(values, "HOVER"),
+                get(values, "SLEEP"),
+                get(values, introKey),
+                get(values, outroKey),
+                get(values, "GRAB"),
+                get(values, "RUNUP"),
+                get(values, "RUNDOWN"),
+                get(values, "RUNLEFT"),
+                get(values, "RUNRIGHT"),
+                get(values, "UPLEFT"),
+                get(values, "UPRIGHT"),
+                get(values, "DOWNLEFT"),
+                get(values, "DOWNRIGHT"),
+                get(values, "RUNIDLE"),
+                get(values, pokeKey),
+                get(values, patKey),
+                0,
+                0,
+                0,
+                get(values, emoteKey));
     }
-    private static String convertSpriteToKey(String choice) {
-        return switch (choice) {
-            case "Emotes/emote1.png" -> "EMOTE1";
-            case "Emotes/emote2.png" -> "EMOTE2";
-            case "Emotes/emote3.png" -> "EMOTE3";
-            case "Emotes/emote4.png" -> "EMOTE4";
-            case "Actions/idle.png"  -> "IDLE";
-            case "Actions/click.png"  -> "CLICK";
-            case "intro.png"  -> "INTRO";
-            case "outro.png"  -> "OUTRO";
-            case "grab.png"  -> "GRAB";
-            default -> null;
-        };
+
+    // intro.png and outro.png copied from their last fallback (idle.png) are only placeholders, they've always been
+    // given 0 frames rather than the frame count of the sheet they were copied from
+    private static String placeholderKey(GremlinRules rules, Map<String, String> chosen, String choice) {
+        String sprite = chosen.get(choice);
+        return sprite.equals(rules.fallback(choice)) ? null : rules.frameKey(sprite);
     }
 
     private static int get(Map<String, Integer> map, String key) {
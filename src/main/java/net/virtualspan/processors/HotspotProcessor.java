@@ -0,0 +1,101 @@
+package net.virtualspan.processors;
+
+import net.virtualspan.model.Hotspots;
+import net.virtualspan.model.SpriteMap;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+// Hit areas from what is actually drawn, instead of the same 175x150 for a 20 px gremlin and a 600 px one
+// Every idle and hover frame is scanned for its opaque bounding box, those are the frames shown while the cursor is on
+// the gremlin, and the top hotspot reaches from the top of the frame to the bottom of their union, as wide as it
+// LeftAction/RightAction never get a sprite (see SpriteProcessor.SKIP), so the side hotspots stay 0
+public class HotspotProcessor {
+    // The animations measured, by their config.txt key
+    private static final List<String> ANIMATIONS = List.of("IDLE", "HOVER");
+
+    // copied maps converted sheets to the source each was copied from, the result maps animations to those sources
+    public static Map<String, Path> sheets(Map<Path, Path> copied, Path convertedSpriteFolder) {
+        Map<String, Path> sheets = new LinkedHashMap<>();
+        for (String animation : ANIMATIONS) {
+            Path sheet = copied.get(convertedSpriteFolder.resolve(animation.toLowerCase(Locale.ROOT) + ".png"));
+            if (sheet != null) sheets.put(animation, sheet);
+        }
+        return sheets;
+    }
+
+    // sheets maps animations (IDLE, HOVER) to the source copied into their converted sheet, values are the
+    // corrected config.txt values; the defaults come back when no frame can be measured
+    public static Hotspots measure(Map<String, Path> sheets, Map<String, Integer> values, List<String> warnings) {
+        int frameWidth = values.getOrDefault("WIDTH", 0);
+        int frameHeight = values.getOrDefault("HEIGHT", 0);
+        if (frameWidth <= 0 || frameHeight <= 0 || sheets.isEmpty()) return Hotspots.defaults();
+
+        // Filled from the pool's threads
+        List<String> ignored = Collections.synchronizedList(new ArrayList<>());
+        List<Callable<Rectangle>> tasks = new ArrayList<>();
+        sheets.forEach((animation, sheet) -> tasks.add(() -> {
+            try {
+                return bounds(sheet, frameWidth, frameHeight,
+                        values.getOrDefault("COLUMN", 0), values.getOrDefault(animation, 0));
+            } catch (IOException | RuntimeException e) {
+                ignored.add("Hotspots ignore " + sheet.getFileName() + ", "
+                        + (e.getMessage() == null ? e.toString() : e.getMessage()));
+                return null;
+            }
+        }));
+
+        Rectangle union = null;
+        try {
+            for (Rectangle bounds : DecodePool.runAll(tasks)) {
+                if (bounds != null) union = union == null ? bounds : union.union(bounds);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            warnings.add("Measuring hotspots failed: " + e.getCause());
+        }
+        warnings.addAll(ignored);
+
+        if (union == null) return Hotspots.defaults();
+        return new Hotspots(union.y + union.height, union.width, 0, 0);
+    }
+
+    public static SpriteMap apply(SpriteMap spriteMap, Hotspots hotspots) {
+        return new SpriteMap(
+                spriteMap.frameRate(),
+                spriteMap.spriteColumn(),
+                spriteMap.frameHeight(),
+                spriteMap.frameWidth(),
+                hotspots.topHeight(),
+                hotspots.topWidth(),
+                hotspots.sideHeight(),
+                hotspots.sideWidth(),
+                spriteMap.hasReloadAnimation(),
+                spriteMap.sprites());
+    }
+
+    // Union of the animation's frames, frames is its frame count (every whole cell when 0)
+    private static Rectangle bounds(Path sheet, int frameWidth, int frameHeight, int column, int frames)
+            throws IOException, InterruptedException {
+        try (SheetStream stream = SheetStream.open(sheet)) {
+            int columns = stream.width() / frameWidth;
+            if (column > 0) columns = Math.min(column, columns);
+            int cells = columns * (stream.height() / frameHeight);
+            if (cells <= 0) return null;
+
+            AlphaScan scan = new AlphaScan(frameWidth, frameHeight, columns, frames > 0 ? Math.min(frames, cells) : cells);
+            stream.run(0, 0, _ -> scan);
+            return AlphaScan.union(scan.frames());
+        }
+    }
+}
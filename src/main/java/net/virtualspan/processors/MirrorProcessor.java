@@ -0,0 +1,124 @@
+package net.virtualspan.processors;
+
+import net.virtualspan.AssetInventory;
+import net.virtualspan.model.SheetSize;
+import net.virtualspan.output.OutputSink;
+import net.virtualspan.rules.GremlinRules;
+import net.virtualspan.rules.Rule;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+// Sideways movement sheets a gremlin doesn't have, made from the one facing the other way (see the rules' mirror lines)
+// Without them the gremlin walks left in its idle pose (timed by run-right.png's frame count)
+// Every frame is flipped in place, so the sheet keeps the COLUMN grid and the source's frame count
+public class MirrorProcessor {
+    // copied maps converted sheets to the source each was copied from, the result maps every converted sheet
+    // nothing was copied into to the source of the sheet it is mirrored from
+    public static Map<Path, Path> plan(GremlinRules rules, Path convertedSpriteFolder, Map<Path, Path> copied) {
+        Map<Path, Path> mirrored = new LinkedHashMap<>();
+        for (Rule.Mirror mirror : rules.mirrors()) {
+            Path target = convertedSpriteFolder.resolve(mirror.target());
+            Path source = copied.get(convertedSpriteFolder.resolve(mirror.source()));
+            if (!copied.containsKey(target) && source != null) {
+                mirrored.put(target, source);
+            }
+        }
+        return mirrored;
+    }
+
+    // Flips the planned sheets in parallel on the DecodePool, each streamed a band at a time into its encoder
+    // Mirrored sheets get the frame count of the sheet they came from in values and are recorded in the inventory,
+    // a sheet that can't be read is left out with a warning and keeps falling back like before
+    public static Map<Path, Path> process(
+            GremlinRules rules,
+            Path convertedSpriteFolder,
+            Map<Path, Path> planned,
+            int columns,
+            Map<String, Integer> values,
+            AssetInventory inventory,
+            OutputSink sink,
+            List<String> warnings) {
+        int frameWidth = values.getOrDefault("WIDTH", 0);
+        int frameHeight = values.getOrDefault("HEIGHT", 0);
+        int column = values.getOrDefault("COLUMN", 0);
+
+        List<Path> targets = new ArrayList<>(planned.keySet());
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (Path target : targets) {
+            Path source = planned.get(target);
+            tasks.add(() -> {
+                try {
+                    flip(source, target, frameWidth, frameHeight, column, columns, sink);
+                    return null;
+                } catch (IOException | RuntimeException e) {
+                    return target.getFileName() + " wasn't mirrored: " + (e.getMessage() == null ? e.toString() : e.getMessage());
+                }
+            });
+        }
+
+        Map<Path, Path> mirrored = new LinkedHashMap<>();
+        try {
+            List<String> results = DecodePool.runAll(tasks);
+            for (int i = 0; i < targets.size(); i++) {
+                if (results.get(i) != null) {
+                    warnings.add(results.get(i));
+                    continue;
+                }
+
+                Path target = targets.get(i);
+                mirrored.put(target, planned.get(target));
+                inventory.recordWritten(target);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            warnings.add("Mirroring was interrupted");
+        } catch (ExecutionException e) {
+            warnings.add("Mirroring failed: " + e.getCause());
+        }
+
+        for (Rule.Mirror mirror : rules.mirrors()) {
+            String targetKey = rules.movementKey(mirror.target());
+            String sourceKey = rules.movementKey(mirror.source());
+            if (mirrored.containsKey(convertedSpriteFolder.resolve(mirror.target()))
+                    && targetKey != null && sourceKey != null) {
+                values.put(targetKey, values.getOrDefault(sourceKey, 0));
+            }
+        }
+        return mirrored;
+    }
+
+    // Encoded straight into a part file that only replaces the target once the whole sheet went through,
+    // so a sheet that fails halfway never leaves a broken file
+    // With columns above 0 the flipped frames are repacked into that many columns on the way to the encoder
+    private static void flip(Path source, Path target, int frameWidth, int frameHeight, int column, int columns,
+                             OutputSink sink) throws IOException, InterruptedException {
+        try (SheetStream stream = SheetStream.open(source)) {
+            int width = stream.width();
+            if (frameWidth <= 0 || frameWidth > width) {
+                throw new IOException("WIDTH " + frameWidth + " doesn't fit the " + width + " px wide " + source.getFileName());
+            }
+
+            int frames = RepackProcessor.frames(new SheetSize(width, stream.height()), frameWidth, frameHeight, column);
+            boolean repack = columns > 0 && frames > 0;
+
+            // The flipped band, plus the encoder's rows (and the regrid's ring)
+            long fixed = repack
+                    ? RepackProcessor.fixedBytes(frameWidth, frameHeight, column, columns, frames)
+                    : PngBandWriter.FIXED_BYTES + (long) width * PngBandWriter.BYTES_PER_PIXEL;
+            try (OutputSink.PartFile png = sink.stream(target)) {
+                stream.run(1, fixed, bandRows -> BandOps.flipFrames(stream.arena(), width, frameWidth, bandRows, repack
+                        ? RepackProcessor.stage(stream, frameWidth, frameHeight, column, columns, frames, png.out())
+                        : new PngBandWriter(png.out(), width, stream.height())));
+                png.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package net.virtualspan.processors;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+// Decodes a non-interlaced PNG row by row: IDAT is only inflated as far as the rows asked for,
+// and unfiltering only needs the row above, so nothing bigger than a couple of rows is ever held
+// Every chunk's CRC is checked, so a corrupt or truncated sheet fails here the same way it would fully decoded
+final class PngBandReader implements SheetStream.Reader {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int IHDR = 0x49484452;
+    private static final int PLTE = 0x504C5445;
+    private static final int TRNS = 0x74524E53;
+    private static final int IDAT = 0x49444154;
+    private static final int IEND = 0x49454E44;
+
+    private static final int GRAY = 0;
+    private static final int RGB = 2;
+    private static final int INDEXED = 3;
+    private static final int GRAY_ALPHA = 4;
+    private static final int RGBA = 6;
+
+    private final Path png;
+    private final DataInputStream in;
+    private final int width;
+    private final int height;
+    private final int depth;
+    private final int colorType;
+
+    // Bytes between a byte and the one it is filtered against, at least 1 for pixels smaller than a byte
+    private final int filterStride;
+
+    private final Inflater inflater = new Inflater();
+    private final CRC32 crc = new CRC32();
+    private final byte[] input = new byte[32 * 1024];
+    private int chunkLeft;
+
+    // With the filter type byte in front
+    private byte[] previous;
+    private byte[] current;
+    private final int[] argb;
+
+    private int[] palette = new int[0];
+    // The tRNS colour (one sample for gray, three for RGB), or null
+    private int[] transparent;
+
+    private int y;
+
+    private PngBandReader(Path png, DataInputStream in, int width, int height, int depth, int colorType)
+            throws IOException {
+        this.png = png;
+        this.in = in;
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.colorType = colorType;
+
+        int channels = switch (colorType) {
+            case GRAY, INDEXED -> 1;
+            case GRAY_ALPHA -> 2;
+            case RGB -> 3;
+            default -> 4;
+        };
+        long bits = (long) width * channels * depth;
+        if (bits / 8 + 1 > Integer.MAX_VALUE - 8) {
+            throw new IOException(png + " is too wide to decode");
+        }
+
+        this.filterStride = Math.max(1, channels * depth / 8);
+        this.previous = new byte[(int) ((bits + 7) / 8) + 1];
+        this.current = new byte[previous.length];
+        this.argb = new int[width];
+    }
+
+    // null if png isn't a PNG this reader can stream (no PNG signature, or interlaced)
+    static PngBandReader open(Path png) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(png), 64 * 1024));
+        try {
+            byte[] signature = in.readNBytes(SIGNATURE.length);
+            if (!Arrays.equals(signature, SIGNATURE)) {
+                in.close();
+                return null;
+            }
+
+            PngBandReader reader = header(png, in);
+            if (reader == null) {
+                in.close();
+                return null;
+            }
+            reader.readUntilImageData();
+            return reader;
+        } catch (EOFException e) {
+            in.close();
+            throw new IOException("Truncated PNG: " + png);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static PngBandReader header(Path png, DataInputStream in) throws IOException {
+        CRC32 crc = new CRC32();
+        int length = in.readInt();
+        int type = in.readInt();
+        if (type != IHDR || length != 13) {
+            throw new IOException("PNG doesn't start with an IHDR chunk: " + png);
+        }
+
+        byte[] data = in.readNBytes(13);
+        if (data.length < 13) throw new EOFException();
+        updateType(crc, type);
+        crc.update(data);
+        if ((int) crc.getValue() != in.readInt()) {
+            throw new IOException("CRC mismatch in the IHDR chunk of " + png);
+        }
+
+        int width = readInt(data, 0);
+        int height = readInt(data, 4);
+        int depth = data[8];
+        int colorType = data[9];
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Invalid PNG size " + width + "x" + height + ": " + png);
+        }
+
+        boolean valid = switch (colorType) {
+            case GRAY -> depth == 1 || depth == 2 || depth == 4 || depth == 8 || depth == 16;
+            case INDEXED -> depth == 1 || depth == 2 || depth == 4 || depth == 8;
+            case RGB, GRAY_ALPHA, RGBA -> depth == 8 || depth == 16;
+            default -> false;
+        };
+        if (!valid || data[10] != 0 || data[11] != 0) {
+            throw new IOException("Unsupported PNG format (colour type " + colorType + ", bit depth " + depth + "): " + png);
+        }
+
+        // Adam7 rows don't arrive in order
+        if (data[12] != 0) return null;
+
+        return new PngBandReader(png, in, width, height, depth, colorType);
+    }
+
+    // Reads PLTE and tRNS, skips everything else up to the first IDAT chunk, and leaves the stream at its data
+    private void readUntilImageData() throws IOException {
+        while (true) {
+            int type = chunkHeader();
+            if (type == IDAT) return;
+
+            if (type == IEND) {
+                throw new IOException("No image data in " + png);
+            } else if (type == PLTE) {
+                byte[] data = chunkData();
+                if (data.length % 3 != 0 || data.length > 256 * 3) {
+                    throw new IOException("Invalid palette in " + png);
+                }
+                palette = new int[data.length / 3];
+                for (int i = 0; i < palette.length; i++) {
+                    palette[i] = 0xFF000000 | (data[i * 3] & 0xFF) << 16 | (data[i * 3 + 1] & 0xFF) << 8 | data[i * 3 + 2] & 0xFF;
+                }
+            } else if (type == TRNS) {
+                transparency(chunkData());
+            } else {
+                skipChunk();
+            }
+        }
+    }
+
+    private void transparency(byte[] data) {
+        switch (colorType) {
+            case INDEXED -> {
+                for (int i = 0; i < Math.min(data.length, palette.length); i++) {
+                    palette[i] = (data[i] & 0xFF) << 24 | palette[i] & 0xFFFFFF;
+                }
+            }
+            case GRAY -> {
+                if (data.length >= 2) transparent = new int[]{readShort(data, 0)};
+            }
+            case RGB -> {
+                if (data.length >= 6) transparent = new int[]{readShort(data, 0), readShort(data, 2), readShort(data, 4)};
+            }
+            default -> {
+            }
+        }
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public long overhead() {
+        return input.length + 2L * current.length + (long) width * Integer.BYTES;
+    }
+
+    @Override
+    public int read(MemorySegment band, int rows) throws IOException {
+        rows = Math.min(rows, height - y);
+
+        try {
+            for (int r = 0; r < rows; r++) {
+                inflateRow();
+                unfilter();
+                toArgb();
+                MemorySegment.copy(argb, 0, band, JAVA_INT, (long) r * width * Integer.BYTES, width);
+
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+                y++;
+            }
+
+            // The rest of the last chunk, so its CRC is checked too
+            if (y == height && rows > 0) {
+                while (chunkLeft > 0) {
+                    int n = in.read(input, 0, Math.min(input.length, chunkLeft));
+                    if (n < 0) throw new EOFException();
+                    crc.update(input, 0, n);
+                    chunkLeft -= n;
+                }
+                checkCrc("IDAT");
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated PNG, image data ends after " + y + " of " + height + " rows: " + png);
+        }
+        return rows;
+    }
+
+    private void inflateRow() throws IOException {
+        int offset = 0;
+        while (offset < current.length) {
+            int n;
+            try {
+                n = inflater.inflate(current, offset, current.length - offset);
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt image data in row " + y + " of " + png + ": " + e.getMessage());
+            }
+            offset += n;
+
+            if (n == 0) {
+                if (inflater.finished() || inflater.needsDictionary()) {
+                    throw new IOException("Image data in " + png + " ends after " + y + " of " + height + " rows");
+                }
+                if (inflater.needsInput()) feed();
+            }
+        }
+    }
+
+    // Hands the inflater the next piece of IDAT data, moving on to the next IDAT chunk when this one is used up
+    private void feed() throws IOException {
+        while (chunkLeft == 0) {
+            checkCrc("IDAT");
+            if (chunkHeader() != IDAT) {
+                throw new IOException("Image data in " + png + " ends after " + y + " of " + height + " rows");
+            }
+        }
+
+        int n = in.read(input, 0, Math.min(input.length, chunkLeft));
+        if (n < 0) throw new EOFException();
+        crc.update(input, 0, n);
+        chunkLeft -= n;
+        inflater.setInput(input, 0, n);
+    }
+
+    private void unfilter() throws IOException {
+        int filter = current[0];
+        int stride = filterStride;
+
+        switch (filter) {
+            case 0 -> {
+            }
+            case 1 -> {
+                for (int i = 1 + stride; i < current.length; i++) {
+                    current[i] += current[i - stride];
+                }
+            }
+            case 2 -> {
+                for (int i = 1; i < current.length; i++) {
+                    current[i] += previous[i];
+                }
+            }
+            case 3 -> {
+                for (int i = 1; i < current.length; i++) {
+                    int left = i > stride ? current[i - stride] & 0xFF : 0;
+                    current[i] += (byte) ((left + (previous[i] & 0xFF)) >>> 1);
+                }
+            }
+            case 4 -> {
+                for (int i = 1; i < current.length; i++) {
+                    int left = i > stride ? current[i - stride] & 0xFF : 0;
+                    int up = previous[i] & 0xFF;
+                    int upLeft = i > stride ? previous[i - stride] & 0xFF : 0;
+                    current[i] += (byte) paeth(left, up, upLeft);
+                }
+            }
+            default -> throw new IOException("Unknown filter type " + filter + " in row " + y + " of " + png);
+        }
+    }
+
+    private static int paeth(int left, int up, int upLeft) {
+        int p = left + up - upLeft;
+        int pLeft = Math.abs(p - left);
+        int pUp = Math.abs(p - up);
+        int pUpLeft = Math.abs(p - upLeft);
+        if (pLeft <= pUp && pLeft <= pUpLeft) return left;
+        return pUp <= pUpLeft ? up : upLeft;
+    }
+
+    // 16 bit samples keep their high byte, smaller gray samples are stretched to 0-255
+    private void toArgb() {
+        byte[] row = current;
+
+        switch (colorType) {
+            case RGBA -> {
+                int step = depth / 2;
+                for (int x = 0, p = 1; x < width; x++, p += step) {
+                    argb[x] = (row[p + step * 3 / 4] & 0xFF) << 24 | (row[p] & 0xFF) << 16
+                            | (row[p + step / 4] & 0xFF) << 8 | row[p + step / 2] & 0xFF;
+                }
+            }
+            case RGB -> {
+                int step = depth * 3 / 8;
+                int sample = depth / 8;
+                for (int x = 0, p = 1; x < width; x++, p += step) {
+                    int rgb = (row[p] & 0xFF) << 16 | (row[p + sample] & 0xFF) << 8 | row[p + sample * 2] & 0xFF;
+                    boolean clear = transparent != null
+                            && sample(row, p) == transparent[0]
+                            && sample(row, p + sample) == transparent[1]
+                            && sample(row, p + sample * 2) == transparent[2];
+                    argb[x] = clear ? rgb : 0xFF000000 | rgb;
+                }
+            }
+            case GRAY_ALPHA -> {
+                int step = depth / 4;
+                for (int x = 0, p = 1; x < width; x++, p += step) {
+                    int gray = row[p] & 0xFF;
+                    argb[x] = (row[p + step / 2] & 0xFF) << 24 | gray << 16 | gray << 8 | gray;
+                }
+            }
+            case GRAY -> {
+                int scale = depth >= 8 ? 1 : 255 / ((1 << depth) - 1);
+                for (int x = 0; x < width; x++) {
+                    int value = depth == 16 ? readShort(row, 1 + x * 2) : bits(row, x);
+                    int gray = depth == 16 ? value >>> 8 : value * scale;
+                    boolean clear = transparent != null && value == transparent[0];
+                    argb[x] = (clear ? 0 : 0xFF000000) | gray << 16 | gray << 8 | gray;
+                }
+            }
+            default -> {
+                for (int x = 0; x < width; x++) {
+                    int index = bits(row, x);
+                    // Out of range indices show up black, as in most decoders
+                    argb[x] = index < palette.length ? palette[index] : 0xFF000000;
+                }
+            }
+        }
+    }
+
+    // 8 or 16 bits, as tRNS stores them
+    private int sample(byte[] row, int at) {
+        return depth == 16 ? readShort(row, at) : row[at] & 0xFF;
+    }
+
+    // Sample x of a row of 1, 2, 4 or 8 bit samples
+    private int bits(byte[] row, int x) {
+        if (depth == 8) return row[1 + x] & 0xFF;
+        int bit = x * depth;
+        return (row[1 + bit / 8] & 0xFF) >>> (8 - depth - bit % 8) & (1 << depth) - 1;
+    }
+
+    private int chunkHeader() throws IOException {
+        int length = in.readInt();
+        int type = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid chunk length in " + png);
+        }
+        crc.reset();
+        updateType(crc, type);
+        chunkLeft = length;
+        return type;
+    }
+
+    private byte[] chunkData() throws IOException {
+        byte[] data = in.readNBytes(chunkLeft);
+        if (data.length < chunkLeft) throw new EOFException();
+        crc.update(data);
+        chunkLeft = 0;
+        checkCrc(null);
+        return data;
+    }
+
+    private void skipChunk() throws IOException {
+        while (chunkLeft > 0) {
+            int n = in.read(input, 0, Math.min(input.length, chunkLeft));
+            if (n < 0) throw new EOFException();
+            crc.update(input, 0, n);
+            chunkLeft -= n;
+        }
+        checkCrc(null);
+    }
+
+    private void checkCrc(String chunk) throws IOException {
+        if ((int) crc.getValue() != in.readInt()) {
+            throw new IOException("CRC mismatch in " + (chunk == null ? "a chunk" : "an " + chunk + " chunk") + " of " + png);
+        }
+    }
+
+    private static void updateType(CRC32 crc, int type) {
+        crc.update(type >>> 24);
+        crc.update(type >>> 16);
+        crc.update(type >>> 8);
+        crc.update(type);
+    }
+
+    private static int readInt(byte[] data, int at) {
+        return (data[at] & 0xFF) << 24 | (data[at + 1] & 0xFF) << 16 | (data[at + 2] & 0xFF) << 8 | data[at + 3] & 0xFF;
+    }
+
+    private static int readShort(byte[] data, int at) {
+        return (data[at] & 0xFF) << 8 | data[at + 1] & 0xFF;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+}
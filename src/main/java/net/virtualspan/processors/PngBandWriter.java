@@ -0,0 +1,178 @@
+package net.virtualspan.processors;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+// The last stage of a pipeline: encodes RGBA PNG rows as the bands come in, and writes an IDAT chunk every time the
+// deflater has filled one, so only a row and one chunk of compressed data are held at a time
+// Each row gets whichever filter leaves the smallest sum of differences, like libpng does
+public final class PngBandWriter implements SheetStream.Stage {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int CHUNK = 64 * 1024;
+
+    // Deflater state plus the row and chunk buffers, per pixel of width and in total
+    static final long FIXED_BYTES = 300 * 1024 + CHUNK;
+    static final int BYTES_PER_PIXEL = 7 * 4;
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private final Deflater deflater = new Deflater();
+    private final CRC32 crc = new CRC32();
+
+    private final int[] argb;
+    private byte[] previous;
+    private byte[] row;
+    // A filtered row with its filter type byte in front, for each filter type
+    private final byte[][] filtered = new byte[5][];
+    private final byte[] chunk = new byte[CHUNK];
+    private int chunkUsed;
+    private int rows;
+
+    public PngBandWriter(OutputStream out, int width, int height) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        this.argb = new int[width];
+        this.previous = new byte[width * 4];
+        this.row = new byte[width * 4];
+        for (int filter = 0; filter < filtered.length; filter++) {
+            filtered[filter] = new byte[width * 4 + 1];
+            filtered[filter][0] = (byte) filter;
+        }
+
+        byte[] header = new byte[13];
+        writeInt(header, 0, width);
+        writeInt(header, 4, height);
+        header[8] = 8; // bit depth
+        header[9] = 6; // RGBA
+        this.out.write(SIGNATURE);
+        writeChunk("IHDR", header, header.length);
+    }
+
+    @Override
+    public void accept(SheetStream.Band band) throws IOException {
+        if (band.width() != width || rows + band.rows() > height) {
+            throw new IOException("Band doesn't fit the " + width + "x" + height + " image being written");
+        }
+
+        for (int r = 0; r < band.rows(); r++) {
+            MemorySegment.copy(band.pixels(), JAVA_INT, band.offset(r), argb, 0, width);
+            for (int x = 0, p = 0; x < width; x++, p += 4) {
+                int pixel = argb[x];
+                row[p] = (byte) (pixel >>> 16);
+                row[p + 1] = (byte) (pixel >>> 8);
+                row[p + 2] = (byte) pixel;
+                row[p + 3] = (byte) (pixel >>> 24);
+            }
+
+            deflate(filter());
+
+            byte[] swap = previous;
+            previous = row;
+            row = swap;
+            rows++;
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (rows != height) {
+            throw new IOException("Only " + rows + " of " + height + " rows were written");
+        }
+
+        deflater.finish();
+        while (!deflater.finished()) {
+            drain();
+        }
+        if (chunkUsed > 0) {
+            writeChunk("IDAT", chunk, chunkUsed);
+        }
+        deflater.end();
+
+        writeChunk("IEND", chunk, 0);
+        out.flush();
+    }
+
+    private byte[] filter() {
+        long best = Long.MAX_VALUE;
+        int chosen = 0;
+
+        for (int filter = 0; filter < filtered.length; filter++) {
+            byte[] to = filtered[filter];
+            long sum = 0;
+            for (int i = 0; i < row.length; i++) {
+                int left = i >= 4 ? row[i - 4] & 0xFF : 0;
+                int up = previous[i] & 0xFF;
+                int upLeft = i >= 4 ? previous[i - 4] & 0xFF : 0;
+                int value = row[i] & 0xFF;
+
+                byte b = (byte) switch (filter) {
+                    case 0 -> value;
+                    case 1 -> value - left;
+                    case 2 -> value - up;
+                    case 3 -> value - (left + up >>> 1);
+                    default -> value - paeth(left, up, upLeft);
+                };
+                to[i + 1] = b;
+                sum += Math.abs((int) b);
+            }
+
+            if (sum < best) {
+                best = sum;
+                chosen = filter;
+            }
+        }
+        return filtered[chosen];
+    }
+
+    private static int paeth(int left, int up, int upLeft) {
+        int p = left + up - upLeft;
+        int pLeft = Math.abs(p - left);
+        int pUp = Math.abs(p - up);
+        int pUpLeft = Math.abs(p - upLeft);
+        if (pLeft <= pUp && pLeft <= pUpLeft) return left;
+        return pUp <= pUpLeft ? up : upLeft;
+    }
+
+    private void deflate(byte[] data) throws IOException {
+        deflater.setInput(data);
+        while (!deflater.needsInput()) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        chunkUsed += deflater.deflate(chunk, chunkUsed, chunk.length - chunkUsed);
+        if (chunkUsed == chunk.length) {
+            writeChunk("IDAT", chunk, chunkUsed);
+            chunkUsed = 0;
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        crc.reset();
+        crc.update(name);
+        crc.update(data, 0, length);
+
+        out.writeInt(length);
+        out.write(name);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void writeInt(byte[] data, int at, int value) {
+        data[at] = (byte) (value >>> 24);
+        data[at + 1] = (byte) (value >>> 16);
+        data[at + 2] = (byte) (value >>> 8);
+        data[at + 3] = (byte) value;
+    }
+}
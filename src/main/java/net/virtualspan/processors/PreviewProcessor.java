@@ -0,0 +1,66 @@
+package net.virtualspan.processors;
+
+import net.virtualspan.output.OutputSink;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+
+// preview.png, the first idle frame shrunk to an icon, so pickers don't have to load the whole sheet to show one
+public class PreviewProcessor {
+    public static final String FILE_NAME = "preview.png";
+
+    // Longest side of the preview, frames are only ever shrunk
+    private static final int SIZE = 128;
+
+    // idleSheet is the source the converted idle.png was copied from, values are the config.txt values
+    public static void write(Path idleSheet, Map<String, Integer> values, OutputSink sink, Path to) throws IOException {
+        BufferedImage frame = firstFrame(idleSheet, values.getOrDefault("WIDTH", 0), values.getOrDefault("HEIGHT", 0));
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        if (!ImageIO.write(frame, "png", png)) {
+            throw new IOException("No PNG writer available");
+        }
+        sink.write(to, png.toByteArray());
+    }
+
+    // Only the rows down to the bottom of the first cell are decoded, and only every nth pixel of those is kept
+    private static BufferedImage firstFrame(Path sheet, int frameWidth, int frameHeight) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(sheet));
+             ImageInputStream stream = new MemoryCacheImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                throw new IOException("Not an image format ImageIO can read: " + sheet);
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+
+                // Without a usable frame size the whole sheet is the frame
+                int width = frameWidth > 0 ? Math.min(frameWidth, reader.getWidth(0)) : reader.getWidth(0);
+                int height = frameHeight > 0 ? Math.min(frameHeight, reader.getHeight(0)) : reader.getHeight(0);
+                int step = Math.max(1, Math.ceilDiv(Math.max(width, height), SIZE));
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(new Rectangle(0, 0, width, height));
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package net.virtualspan.processors;
+
+import net.virtualspan.model.SheetSize;
+import net.virtualspan.model.SpriteMap;
+import net.virtualspan.output.OutputSink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+// Sheets laid out COLUMN frames wide can end up tens of thousands of pixels wide or tall, past what GPUs take as one
+// texture, so when any sheet is bigger than the limit every sheet is laid out again with one shared column count,
+// picked to keep the biggest of them as close to square as it gets
+// Frames keep their order and size, only SpriteColumn in sprite-map.json changes, frame-count.json stays the same
+public class RepackProcessor {
+    // sheets maps converted sheets to their sources, values are the corrected config.txt values
+    // Returns the new column count, or 0 when every sheet already fits in maxSize (or can't be repacked)
+    public static int plan(Map<Path, Path> sheets, Map<String, Integer> values, int maxSize, List<String> warnings) {
+        int frameWidth = values.getOrDefault("WIDTH", 0);
+        int frameHeight = values.getOrDefault("HEIGHT", 0);
+        int column = values.getOrDefault("COLUMN", 0);
+
+        // Only the headers are read
+        List<Integer> frames = new ArrayList<>();
+        int largest = 0;
+        for (Path source : sheets.values()) {
+            SheetSize size;
+            try {
+                size = SheetProbe.read(source);
+            } catch (IOException e) {
+                warnings.add("Can't repack, " + e.getMessage());
+                return 0;
+            }
+            largest = Math.max(largest, Math.max(size.width(), size.height()));
+            frames.add(frames(size, frameWidth, frameHeight, column));
+        }
+        if (largest <= maxSize) return 0;
+
+        if (frameWidth <= 0 || frameHeight <= 0 || column <= 0) {
+            warnings.add("Sheets are bigger than " + maxSize + " px, but config.txt has no usable WIDTH/HEIGHT/COLUMN to repack them with");
+            return 0;
+        }
+
+        int most = frames.stream().mapToInt(Integer::intValue).max().orElse(0);
+        int best = column;
+        long bestSize = Long.MAX_VALUE;
+        for (int columns = 1; columns <= most; columns++) {
+            long size = 0;
+            for (int count : frames) {
+                if (count == 0) continue;
+                size = Math.max(size, Math.max(
+                        (long) Math.min(columns, count) * frameWidth, (long) Math.ceilDiv(count, columns) * frameHeight));
+            }
+            if (size < bestSize) {
+                bestSize = size;
+                best = columns;
+            }
+        }
+
+        if (best == column || bestSize >= largest) return 0;
+        if (bestSize > maxSize) {
+            warnings.add("Repacked into " + best + " columns, sheets are still up to " + bestSize + " px, over " + maxSize);
+        }
+        return best;
+    }
+
+    // The frames a sheet holds in the config's grid, up to its last whole cell
+    // Frame i is at (i % column, i / column), so cells past a narrower sheet's right edge count as empty frames
+    static int frames(SheetSize size, int frameWidth, int frameHeight, int column) {
+        if (frameWidth <= 0 || frameHeight <= 0 || column <= 0) return 0;
+
+        int rows = size.height() / frameHeight;
+        int columns = size.width() / frameWidth;
+        if (rows == 0 || columns == 0) return 0;
+        return (rows - 1) * column + Math.min(column, columns);
+    }
+
+    public static SpriteMap apply(SpriteMap spriteMap, int columns) {
+        if (columns <= 0) return spriteMap;
+
+        return new SpriteMap(
+                spriteMap.frameRate(),
+                columns,
+                spriteMap.frameHeight(),
+                spriteMap.frameWidth(),
+                spriteMap.topHotspotHeight(),
+                spriteMap.topHotspotWidth(),
+                spriteMap.sideHotspotHeight(),
+                spriteMap.sideHotspotWidth(),
+                spriteMap.hasReloadAnimation(),
+                spriteMap.sprites());
+    }
+
+    // Writes every sheet columns wide, in parallel on the DecodePool, and returns the ones that were written
+    // A sheet that can't be read is left out with a warning, sprite-map.json then falls back like for a missing one
+    public static Map<Path, Path> process(
+            Map<Path, Path> sheets,
+            int columns,
+            Map<String, Integer> values,
+            OutputSink sink,
+            List<String> warnings) {
+        int frameWidth = values.getOrDefault("WIDTH", 0);
+        int frameHeight = values.getOrDefault("HEIGHT", 0);
+        int column = values.getOrDefault("COLUMN", 0);
+
+        List<Path> targets = new ArrayList<>(sheets.keySet());
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (Path target : targets) {
+            Path source = sheets.get(target);
+            tasks.add(() -> {
+                try (SheetStream stream = SheetStream.open(source)) {
+                    int frames = frames(new SheetSize(stream.width(), stream.height()), frameWidth, frameHeight, column);
+
+                    // Smaller than one frame, so there is nothing to move
+                    if (frames == 0) {
+                        sink.copy(source, target);
+                        return null;
+                    }
+
+                    try (OutputSink.PartFile png = sink.stream(target)) {
+                        stream.run(0, fixedBytes(frameWidth, frameHeight, column, columns, frames),
+                                _ -> stage(stream, frameWidth, frameHeight, column, columns, frames, png.out()));
+                        png.commit();
+                    }
+                    return null;
+                } catch (IOException | RuntimeException e) {
+                    return target.getFileName() + " wasn't repacked: " + (e.getMessage() == null ? e.toString() : e.getMessage());
+                }
+            });
+        }
+
+        Map<Path, Path> repacked = new LinkedHashMap<>();
+        try {
+            List<String> results = DecodePool.runAll(tasks);
+            for (int i = 0; i < targets.size(); i++) {
+                if (results.get(i) == null) {
+                    repacked.put(targets.get(i), sheets.get(targets.get(i)));
+                } else {
+                    warnings.add(results.get(i));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            warnings.add("Repacking was interrupted");
+        } catch (ExecutionException e) {
+            warnings.add("Repacking failed: " + e.getCause());
+        }
+        return repacked;
+    }
+
+    // The regrid ring and the encoder's rows
+    static long fixedBytes(int frameWidth, int frameHeight, int fromColumns, int toColumns, int frames) {
+        return BandOps.regridBytes(frameWidth, frameHeight, fromColumns, toColumns, frames)
+                + PngBandWriter.FIXED_BYTES + (long) Math.min(toColumns, frames) * frameWidth * PngBandWriter.BYTES_PER_PIXEL;
+    }
+
+    // A regrid into an encoder writing to png, for the other processors that write repacked sheets
+    static SheetStream.Stage stage(SheetStream stream, int frameWidth, int frameHeight, int fromColumns, int toColumns,
+                                   int frames, OutputStream png) throws IOException {
+        PngBandWriter writer = new PngBandWriter(png,
+                Math.min(toColumns, frames) * frameWidth, Math.ceilDiv(frames, toColumns) * frameHeight);
+        return BandOps.regrid(stream.arena(), frameWidth, frameHeight, fromColumns, toColumns, frames, writer);
+    }
+}
@@ -0,0 +1,240 @@
+package net.virtualspan.processors;
+
+import net.virtualspan.model.SheetSize;
+import net.virtualspan.model.SpriteMap;
+import net.virtualspan.output.OutputSink;
+import net.virtualspan.processors.BandOps.Axis;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+import static net.virtualspan.FileUtils.ioExceptionPrompt;
+
+// sprites@0.5x, sprites@2x, ... next to sprites, each a copy of it with every sheet resampled by that factor
+// Frames are resampled one by one, so they still line up with the scaled FrameWidth/FrameHeight in sprite-map.json
+// Box filtering averages every source pixel a target pixel covers, which is plain pixel doubling at 2x
+public class ScaleProcessor {
+    // Stands for the SCALE value in the gremlin's config.txt
+    public static final double CONFIG_SCALE = 0;
+
+    // "0.5,2" or "config", factors that work out to 1 are dropped
+    public static List<Double> parse(String factors) {
+        List<Double> scales = new ArrayList<>();
+        for (String factor : factors.split(",")) {
+            factor = factor.trim();
+            if (factor.equals("config")) {
+                scales.add(CONFIG_SCALE);
+                continue;
+            }
+
+            double scale;
+            try {
+                scale = Double.parseDouble(factor);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected a scale factor or config, got " + factor);
+            }
+            if (!(scale > 0 && scale <= 8)) {
+                throw new IllegalArgumentException("Scale factors must be above 0 and at most 8, got " + factor);
+            }
+            scales.add(scale);
+        }
+        return scales;
+    }
+
+    // The factors for one gremlin, with config resolved from its config.txt
+    public static List<Double> resolve(List<Double> scales, Path originalConfigPath) {
+        Set<Double> resolved = new LinkedHashSet<>();
+        for (double scale : scales) {
+            resolved.add(scale == CONFIG_SCALE ? configScale(originalConfigPath) : scale);
+        }
+        resolved.remove(1.0);
+        return List.copyOf(resolved);
+    }
+
+    // SpriteProcessor.readConfig skips SCALE, it isn't always a whole number
+    private static double configScale(Path originalConfigPath) {
+        try (Stream<String> lines = Files.lines(originalConfigPath)) {
+            return lines.map(String::trim)
+                    .filter(line -> line.startsWith("SCALE"))
+                    .map(line -> line.split("=", 2))
+                    .filter(parts -> parts.length == 2)
+                    .mapToDouble(parts -> {
+                        try {
+                            double scale = Double.parseDouble(parts[1].trim());
+                            return scale > 0 && scale <= 8 ? scale : 1;
+                        } catch (NumberFormatException e) {
+                            return 1;
+                        }
+                    })
+                    .findFirst()
+                    .orElse(1);
+        } catch (IOException e) {
+            ioExceptionPrompt("Failed to read config.txt", e);
+            return 1;
+        }
+    }
+
+    public static String folderName(double scale) {
+        return "sprites@" + BigDecimal.valueOf(scale).stripTrailingZeros().toPlainString() + "x";
+    }
+
+    // Variant folders from earlier conversions with other factors, a variant only holds files, no sub-folders
+    public static void deleteStale(Path gremlinFolder, List<Path> variantFolders) throws IOException {
+        try (DirectoryStream<Path> folders = Files.newDirectoryStream(gremlinFolder, "sprites@*x")) {
+            for (Path folder : folders) {
+                if (variantFolders.contains(folder) || !Files.isDirectory(folder)) continue;
+
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(folder)) {
+                    for (Path file : files) {
+                        Files.delete(file);
+                    }
+                }
+                Files.delete(folder);
+            }
+        }
+    }
+
+    public static int scale(int pixels, double scale) {
+        return Math.max(1, (int) Math.round(pixels * scale));
+    }
+
+    // sprite-map.json for a variant, every size in pixels scaled with the sheets
+    public static SpriteMap scaled(SpriteMap spriteMap, double scale) {
+        return new SpriteMap(
+                spriteMap.frameRate(),
+                spriteMap.spriteColumn(),
+                spriteMap.frameHeight() == null ? null : scale(spriteMap.frameHeight(), scale),
+                spriteMap.frameWidth() == null ? null : scale(spriteMap.frameWidth(), scale),
+                (int) Math.round(spriteMap.topHotspotHeight() * scale),
+                (int) Math.round(spriteMap.topHotspotWidth() * scale),
+                (int) Math.round(spriteMap.sideHotspotHeight() * scale),
+                (int) Math.round(spriteMap.sideHotspotWidth() * scale),
+                spriteMap.hasReloadAnimation(),
+                spriteMap.sprites());
+    }
+
+    // sheets maps converted sheets in convertedSpriteFolder to the source each was copied from
+    // Sheets are resampled in parallel on the DecodePool, a sheet that can't be read is left out with a warning
+    // The ones in mirrored have their frames flipped first, the same way MirrorProcessor made them, and with columns
+    // above 0 the scaled frames are repacked into that many columns like RepackProcessor did for sprites
+    public static List<String> process(
+            Map<Path, Path> sheets,
+            Set<Path> mirrored,
+            int columns,
+            Path convertedSpriteFolder,
+            List<Double> scales,
+            Map<String, Integer> values,
+            OutputSink sink) {
+        int frameWidth = values.getOrDefault("WIDTH", 0);
+        int frameHeight = values.getOrDefault("HEIGHT", 0);
+        int column = values.getOrDefault("COLUMN", 0);
+
+        List<Callable<String>> tasks = new ArrayList<>();
+        sheets.forEach((target, source) -> tasks.add(() -> {
+            try {
+                scaleSheet(source, target, mirrored.contains(target), column, columns,
+                        convertedSpriteFolder, scales, frameWidth, frameHeight, sink);
+                return null;
+            } catch (IOException | RuntimeException e) {
+                return target.getFileName() + " wasn't scaled: " + (e.getMessage() == null ? e.toString() : e.getMessage());
+            }
+        }));
+
+        List<String> warnings = new ArrayList<>();
+        try {
+            for (String warning : DecodePool.runAll(tasks)) {
+                if (warning != null) warnings.add(warning);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            warnings.add("Scaling was interrupted");
+        } catch (ExecutionException e) {
+            warnings.add("Scaling failed: " + e.getCause());
+        }
+        return warnings;
+    }
+
+    // Decoded once, and every band goes through a resample and an encoder for each factor
+    private static void scaleSheet(
+            Path source,
+            Path target,
+            boolean flip,
+            int column,
+            int columns,
+            Path convertedSpriteFolder,
+            List<Double> scales,
+            int frameWidth,
+            int frameHeight,
+            OutputSink sink) throws IOException, InterruptedException {
+        try (SheetStream stream = SheetStream.open(source)) {
+            int width = stream.width();
+
+            // Without a usable frame size (or a sheet smaller than one frame) the whole sheet is one frame
+            int cellWidth = frameWidth > 0 && frameWidth <= width ? frameWidth : width;
+            int cellHeight = frameHeight > 0 && frameHeight <= stream.height() ? frameHeight : stream.height();
+            int frames = RepackProcessor.frames(new SheetSize(width, stream.height()), frameWidth, frameHeight, column);
+            boolean repack = columns > 0 && frames > 0;
+
+            List<Axis> xs = new ArrayList<>();
+            List<Axis> ys = new ArrayList<>();
+            double rowCost = 0;
+            long fixed = 0;
+            for (double scale : scales) {
+                Axis x = Axis.of(width, cellWidth, scale(cellWidth, scale));
+                Axis y = Axis.of(stream.height(), cellHeight, scale(cellHeight, scale));
+                xs.add(x);
+                ys.add(y);
+
+                // A band of target rows as wide as the target, plus the resample's and encoder's own rows
+                // (or the regrid's ring and the encoder's rows for the repacked width)
+                rowCost += x.length() / (double) width;
+                fixed += BandOps.resampleBytes(width, x, y) + (repack
+                        ? RepackProcessor.fixedBytes(scale(cellWidth, scale), scale(cellHeight, scale), column, columns, frames)
+                        : PngBandWriter.FIXED_BYTES + (long) x.length() * PngBandWriter.BYTES_PER_PIXEL);
+            }
+
+            // A flipped band ahead of the resamples
+            if (flip) rowCost += 1;
+
+            // Encoded straight into part files that only replace the variants once the whole sheet went through,
+            // so a sheet that fails halfway never leaves a broken file
+            List<OutputSink.PartFile> pngs = new ArrayList<>();
+            try {
+                for (double scale : scales) {
+                    Path variant = convertedSpriteFolder.resolveSibling(folderName(scale)).resolve(target.getFileName());
+                    pngs.add(sink.stream(variant));
+                }
+
+                stream.run(rowCost, fixed, bandRows -> {
+                    List<SheetStream.Stage> stages = new ArrayList<>();
+                    for (int i = 0; i < scales.size(); i++) {
+                        OutputStream png = pngs.get(i).out();
+                        SheetStream.Stage writer = repack
+                                ? RepackProcessor.stage(stream, scale(cellWidth, scales.get(i)), scale(cellHeight, scales.get(i)),
+                                        column, columns, frames, png)
+                                : new PngBandWriter(png, xs.get(i).length(), ys.get(i).length());
+                        stages.add(BandOps.resample(stream.arena(), width, xs.get(i), ys.get(i), bandRows, writer));
+                    }
+                    SheetStream.Stage scaled = BandOps.tee(stages);
+                    return flip ? BandOps.flipFrames(stream.arena(), width, cellWidth, bandRows, scaled) : scaled;
+                });
+
+                for (OutputSink.PartFile png : pngs) {
+                    png.commit();
+                }
+            } finally {
+                for (OutputSink.PartFile png : pngs) {
+                    png.close();
+                }
+            }
+        }
+    }
+}
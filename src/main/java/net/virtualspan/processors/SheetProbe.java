@@ -0,0 +1,100 @@
+package net.virtualspan.processors;
+
+import net.virtualspan.AssetInventory;
+import net.virtualspan.model.SheetSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class SheetProbe {
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    // Reads the width and height from the IHDR chunk, which always directly follows the PNG signature
+    // Only the first 24 bytes are read and nothing is decoded
+    // A stream rather than a channel, so a sheet inside a zip only has its first block inflated
+    public static SheetSize read(Path png) throws IOException {
+        byte[] bytes;
+        try (InputStream in = Files.newInputStream(png)) {
+            bytes = in.readNBytes(24);
+        }
+
+        if (bytes.length < 24) {
+            throw new IOException("Truncated PNG header in " + png);
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(bytes);
+        byte[] signature = new byte[8];
+        header.get(signature);
+        header.getInt(); // IHDR length
+        int type = header.getInt();
+
+        if (!Arrays.equals(signature, PNG_SIGNATURE) || type != 0x49484452) {
+            throw new IOException("Not a PNG file: " + png);
+        }
+
+        return new SheetSize(header.getInt(), header.getInt());
+    }
+
+    // Checks the configured frame counts against how many frames each sheet can actually hold
+    // Counts that don't fit are clamped, sheets without a count get their full capacity, and the rest is only reported
+    // sheets maps the config.txt keys to the sheet each one describes (see GremlinRules.frameSheets)
+    public static List<String> correctFrameCounts(
+            Path spriteSheetFolder,
+            Map<String, String> sheets,
+            Map<String, Integer> values,
+            AssetInventory inventory) {
+        List<String> warnings = new ArrayList<>();
+
+        int frameWidth = values.getOrDefault("WIDTH", 0);
+        int frameHeight = values.getOrDefault("HEIGHT", 0);
+        int column = values.getOrDefault("COLUMN", 0);
+
+        if (frameWidth <= 0 || frameHeight <= 0) {
+            warnings.add("config.txt has no usable WIDTH/HEIGHT, frame counts were not checked");
+            return warnings;
+        }
+
+        for (Map.Entry<String, String> entry : new TreeMap<>(sheets).entrySet()) {
+            String key = entry.getKey();
+            Path sheet = spriteSheetFolder.resolve(entry.getValue());
+            if (!inventory.exists(sheet)) continue;
+
+            SheetSize size;
+            try {
+                size = read(sheet);
+            } catch (IOException e) {
+                warnings.add(entry.getValue() + ": " + e.getMessage());
+                continue;
+            }
+
+            if (size.width() % frameWidth != 0 || size.height() % frameHeight != 0) {
+                warnings.add(entry.getValue() + " is " + size.width() + "x" + size.height()
+                        + ", which isn't a multiple of the " + frameWidth + "x" + frameHeight + " frame size");
+            }
+
+            int sheetColumns = size.width() / frameWidth;
+            int columns = column > 0 ? Math.min(column, sheetColumns) : sheetColumns;
+            int capacity = columns * (size.height() / frameHeight);
+            int configured = values.getOrDefault(key, 0);
+
+            if (configured > capacity) {
+                warnings.add(key + "=" + configured + " but " + entry.getValue()
+                        + " only holds " + capacity + " frames, using " + capacity);
+                values.put(key, capacity);
+            } else if (configured <= 0 && capacity > 0) {
+                warnings.add(key + " is missing from config.txt, using the " + capacity
+                        + " frames " + entry.getValue() + " holds");
+                values.put(key, capacity);
+            } else if (capacity - configured >= columns) {
+                warnings.add(key + "=" + configured + " but " + entry.getValue()
+                        + " has room for up to " + capacity + " frames");
+            }
+        }
+
+        return warnings;
+    }
+}
@@ -0,0 +1,227 @@
+package net.virtualspan.processors;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+// A sprite sheet decoded a band of rows at a time into an off-heap buffer that is reused for every band, and pushed
+// through a pipeline of stages (BandOps, AlphaScan, PngBandWriter) that each only hold a few rows of their own
+// The band height comes from a per-sheet memory budget, so a sheet's size only changes how many bands it takes
+public final class SheetStream implements Closeable {
+    // Per sheet, in bytes
+    private static volatile long budget = 32L * 1024 * 1024;
+
+    // Rows of packed ARGB (not premultiplied), pixel (x, row) is the int at row * stride + x
+    // top is the sheet row the band starts at, stages that crop or resample hand on bands of their own
+    public record Band(MemorySegment pixels, int top, int rows, int width, int stride) {
+        long offset(int row) {
+            return (long) row * stride * Integer.BYTES;
+        }
+    }
+
+    // Gets every band top to bottom, then finish once the last one was handed over
+    public interface Stage {
+        void accept(Band band) throws IOException;
+
+        default void finish() throws IOException {
+        }
+    }
+
+    // Builds the stages once the band height is known, any buffers they need come from the stream's arena
+    public interface Pipeline {
+        Stage build(int bandRows) throws IOException;
+    }
+
+    interface Reader extends Closeable {
+        int width();
+
+        int height();
+
+        // Decodes the next rows (at most rows) into band and returns how many it decoded
+        int read(MemorySegment band, int rows) throws IOException;
+
+        // Bytes the reader holds on top of the band, e.g. row buffers
+        long overhead();
+
+        // Band rows' worth it holds for every row in the band
+        default double rowCost() {
+            return 0;
+        }
+    }
+
+    private final Reader reader;
+    private final Arena arena = Arena.ofConfined();
+
+    private SheetStream(Reader reader) {
+        this.reader = reader;
+    }
+
+    public static void setMemoryBudget(long megabytes) {
+        if (megabytes < 1) {
+            throw new IllegalArgumentException("Sheet memory budget must be at least 1 MB");
+        }
+        budget = megabytes * 1024 * 1024;
+    }
+
+    // Non-interlaced PNGs are inflated as the rows are needed, anything else is read region by region through ImageIO
+    public static SheetStream open(Path sheet) throws IOException {
+        Reader reader = PngBandReader.open(sheet);
+        return new SheetStream(reader != null ? reader : ImageIoReader.open(sheet));
+    }
+
+    public int width() {
+        return reader.width();
+    }
+
+    public int height() {
+        return reader.height();
+    }
+
+    // Only usable on the thread that opened the stream, and freed when it is closed
+    public Arena arena() {
+        return arena;
+    }
+
+    // rowCost is how many band rows' worth the stages hold for every row in the band (e.g. the rows a resample
+    // writes), fixed is what they hold whatever the band height; at least one row even if that is over the budget
+    public int bandRows(double rowCost, long fixed) {
+        long rowBytes = (long) width() * Integer.BYTES;
+        long left = budget - fixed - reader.overhead();
+        long rows = (long) (left / (rowBytes * (1 + rowCost + reader.rowCost())));
+        return Math.clamp(rows, 1, height());
+    }
+
+    public long footprint(int bandRows, double rowCost, long fixed) {
+        long rowBytes = (long) width() * Integer.BYTES;
+        return (long) (bandRows * rowBytes * (1 + rowCost + reader.rowCost())) + fixed + reader.overhead();
+    }
+
+    // Decodes the whole sheet into the pipeline, waiting for room in the DecodePool budget first
+    public void run(double rowCost, long fixed, Pipeline pipeline) throws IOException, InterruptedException {
+        int bandRows = bandRows(rowCost, fixed);
+
+        try (DecodePool.Reservation _ = DecodePool.reserve(footprint(bandRows, rowCost, fixed))) {
+            Stage stage = pipeline.build(bandRows);
+            MemorySegment band = arena.allocate((long) bandRows * width() * Integer.BYTES, Integer.BYTES);
+
+            for (int top = 0; top < height(); ) {
+                int rows = reader.read(band, bandRows);
+                if (rows <= 0) {
+                    throw new IOException("Image data ends after " + top + " of " + height() + " rows");
+                }
+                stage.accept(new Band(band, top, rows, width(), width()));
+                top += rows;
+            }
+            stage.finish();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } finally {
+            arena.close();
+        }
+    }
+
+    // Interlaced PNGs and other formats, one band per read with only that region kept
+    // Every read decodes the image from the start again, which is slow but still never holds the whole sheet
+    private static final class ImageIoReader implements Reader {
+        private final InputStream in;
+        private final ImageInputStream stream;
+        private final ImageReader imageReader;
+        private final int width;
+        private final int height;
+        private final int[] row;
+        private int y;
+
+        private ImageIoReader(InputStream in, ImageInputStream stream, ImageReader imageReader) throws IOException {
+            this.in = in;
+            this.stream = stream;
+            this.imageReader = imageReader;
+            this.width = imageReader.getWidth(0);
+            this.height = imageReader.getHeight(0);
+            this.row = new int[width];
+        }
+
+        static ImageIoReader open(Path sheet) throws IOException {
+            InputStream in = new BufferedInputStream(Files.newInputStream(sheet));
+            ImageInputStream stream = new MemoryCacheImageInputStream(in);
+            try {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+                if (!readers.hasNext()) {
+                    throw new IOException("not an image format ImageIO can read");
+                }
+
+                ImageReader imageReader = readers.next();
+                imageReader.setInput(stream, false, true);
+                return new ImageIoReader(in, stream, imageReader);
+            } catch (IOException | RuntimeException e) {
+                stream.close();
+                in.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public int width() {
+            return width;
+        }
+
+        @Override
+        public int height() {
+            return height;
+        }
+
+        @Override
+        public int read(MemorySegment band, int rows) throws IOException {
+            rows = Math.min(rows, height - y);
+            if (rows <= 0) return 0;
+
+            ImageReadParam param = imageReader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, y, width, rows));
+            BufferedImage region = imageReader.read(0, param);
+
+            for (int r = 0; r < rows; r++) {
+                region.getRGB(0, r, width, 1, row, 0, width);
+                MemorySegment.copy(row, 0, band, JAVA_INT, (long) r * width * Integer.BYTES, width);
+            }
+            y += rows;
+            return rows;
+        }
+
+        @Override
+        public long overhead() {
+            return (long) width * Integer.BYTES;
+        }
+
+        // The decoded region is about as big as the band again
+        @Override
+        public double rowCost() {
+            return 1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            imageReader.dispose();
+            stream.close();
+            in.close();
+        }
+    }
+}
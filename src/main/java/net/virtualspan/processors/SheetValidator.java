@@ -0,0 +1,113 @@
+package net.virtualspan.processors;
+
+import net.virtualspan.AssetInventory;
+import net.virtualspan.model.SheetValidation;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+// Fully decodes sprite sheets on the DecodePool, so a corrupt or truncated PNG fails the conversion
+// instead of crashing the desktop app
+public class SheetValidator {
+    // sheets are relative to the spritesheet folder, frameSheets maps config.txt keys to the sheet each one describes
+    // (see GremlinRules.frameSheets), values are the config.txt values
+    public static SheetValidation validate(
+            Path spriteSheetFolder,
+            Collection<String> sheets,
+            Map<String, String> frameSheets,
+            Map<String, Integer> values,
+            AssetInventory inventory) {
+        Map<String, String> frameKeys = new HashMap<>();
+        frameSheets.forEach((key, sheet) -> frameKeys.putIfAbsent(sheet, key));
+
+        List<Callable<SheetValidation>> tasks = new ArrayList<>();
+        for (String sheet : new TreeSet<>(sheets)) {
+            Path png = spriteSheetFolder.resolve(sheet);
+            if (inventory.exists(png)) {
+                String key = frameKeys.get(sheet);
+                tasks.add(() -> check(sheet, key, png, values));
+            }
+        }
+
+        List<String> errors = new ArrayList<>();
+        List<String> warnings = new ArrayList<>();
+
+        try {
+            for (SheetValidation check : DecodePool.runAll(tasks)) {
+                errors.addAll(check.errors());
+                warnings.addAll(check.warnings());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.add("Validation was interrupted");
+        } catch (ExecutionException e) {
+            errors.add(e.getCause().toString());
+        }
+
+        return new SheetValidation(errors, warnings);
+    }
+
+    private static SheetValidation check(String sheet, String key, Path png, Map<String, Integer> values) throws InterruptedException {
+        List<String> errors = new ArrayList<>();
+        List<String> warnings = new ArrayList<>();
+
+        // Streamed, so only a band of the sheet is held however big it is
+        try (SheetStream stream = SheetStream.open(png)) {
+            // Decoding every row is the check, the frames are only scanned when config.txt says where they are
+            AlphaScan scan = frameScan(sheet, key, stream.width(), stream.height(), values, warnings);
+            SheetStream.Stage stage = scan != null ? scan : _ -> {
+            };
+            stream.run(0, 0, _ -> stage);
+
+            if (scan != null) blankFrames(sheet, scan, warnings);
+        } catch (IOException | RuntimeException e) {
+            errors.add(sheet + " can't be decoded: " + (e.getMessage() == null ? e.toString() : e.getMessage()));
+        }
+
+        return new SheetValidation(errors, warnings);
+    }
+
+    // Scans the frames config.txt says the sheet has, null if there is nothing to check
+    // key is the sheet's config.txt frame count key, null for sheets without one
+    private static AlphaScan frameScan(String sheet, String key, int width, int height, Map<String, Integer> values, List<String> warnings) {
+        int frameWidth = values.getOrDefault("WIDTH", 0);
+        int frameHeight = values.getOrDefault("HEIGHT", 0);
+        int column = values.getOrDefault("COLUMN", 0);
+
+        // SheetProbe already warns about sheets that aren't a multiple of the frame size
+        if (frameWidth <= 0 || frameHeight <= 0) return null;
+
+        // A single short row is fine, but with more rows than that the app reads frames from the wrong place
+        if (column * frameWidth > width && height > frameHeight) {
+            warnings.add("COLUMN=" + column + " needs " + sheet + " to be " + column * frameWidth
+                    + " px wide, but it is " + width + " px");
+        }
+
+        int frames = key != null ? values.getOrDefault(key, 0) : 0;
+        int columns = column > 0 ? Math.min(column, width / frameWidth) : width / frameWidth;
+        if (frames <= 0 || columns <= 0) return null;
+
+        // Frames past the end of the sheet are clamped and reported by SheetProbe
+        int inside = Math.min(frames, columns * (height / frameHeight));
+        return inside > 0 ? new AlphaScan(frameWidth, frameHeight, columns, inside) : null;
+    }
+
+    // Fully transparent frames show up as the gremlin flickering out of view
+    private static void blankFrames(String sheet, AlphaScan scan, List<String> warnings) {
+        Rectangle[] frames = scan.frames();
+        List<Integer> blank = new ArrayList<>();
+        for (int frame = 0; frame < frames.length; frame++) {
+            if (frames[frame] == null) blank.add(frame + 1);
+        }
+
+        if (blank.size() == frames.length) {
+            warnings.add(sheet + " is fully transparent");
+        } else if (!blank.isEmpty()) {
+            warnings.add(sheet + " has fully transparent frames " + blank);
+        }
+    }
+}
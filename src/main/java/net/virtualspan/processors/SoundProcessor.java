@@ -1,89 +1,74 @@
 package net.virtualspan.processors;
 
+import net.virtualspan.AssetInventory;
+import net.virtualspan.CopyExecutor;
 import net.virtualspan.model.SoundResult;
 import net.virtualspan.model.AssetEntry;
+import net.virtualspan.model.EmoteConfig;
+import net.virtualspan.model.SfxDurations;
+import net.virtualspan.model.SfxMap;
+import net.virtualspan.output.FolderSink;
+import net.virtualspan.output.OutputSink;
+import net.virtualspan.rules.GremlinRules;
 
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.UnsupportedAudioFileException;
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
-import static net.virtualspan.FileUtils.copyFile;
-import static net.virtualspan.FileUtils.ioExceptionPrompt;
+import static net.virtualspan.FileUtils.copyFiles;
 
 public class SoundProcessor {
     public static SoundResult process(
             Path soundFolder,
             Path convertedSoundFolder,
-            String walkSound,
-            String emoteSoundChoice,
-            String patSound) {
-        // List of copy operations
-        List<Path[]> soundCopies = List.of(
-                // Sounds folder
-                new Path[]{soundFolder.resolve("emote.wav"), convertedSoundFolder.resolve("emote.wav")},
-                new Path[]{soundFolder.resolve("grab.wav"), convertedSoundFolder.resolve("grab.wav")},
-                new Path[]{soundFolder.resolve("hover.wav"), convertedSoundFolder.resolve("hover.wav")},
-                new Path[]{soundFolder.resolve("intro.wav"), convertedSoundFolder.resolve("intro.wav")},
-                new Path[]{soundFolder.resolve("outro.wav"), convertedSoundFolder.resolve("outro.wav")},
-                new Path[]{soundFolder.resolve("pat.wav"), convertedSoundFolder.resolve("pat.wav")},
-                new Path[]{soundFolder.resolve("poke.wav"), convertedSoundFolder.resolve("poke.wav")},
-                new Path[]{soundFolder.resolve("sleep.wav"), convertedSoundFolder.resolve("sleep.wav")},
-                new Path[]{soundFolder.resolve(walkSound), convertedSoundFolder.resolve("walk.wav")},
+            GremlinRules rules,
+            Map<String, String> chosen,
+            AssetInventory inventory) {
+        return process(soundFolder, convertedSoundFolder, rules, chosen, inventory, FolderSink.INSTANCE, false);
+    }
 
-                // Emote and other sounds (these sometimes don't have an original sound to copy and need placeholders)
-                new Path[]{soundFolder.resolve(emoteSoundChoice), convertedSoundFolder.resolve("emote.wav")},
-                new Path[]{soundFolder.resolve("emote2.wav"), convertedSoundFolder.resolve("poke.wav")},
-                new Path[]{soundFolder.resolve(patSound), convertedSoundFolder.resolve("pat.wav")}
-        );
+    // chosen holds the picks of the rules' choices (walk, emote and pat sounds)
+    // With references, sounds that would be a copy of another one (e.g. pat.wav made from emote2.wav)
+    // aren't copied, sfx-map.json names the original for them instead
+    public static SoundResult process(
+            Path soundFolder,
+            Path convertedSoundFolder,
+            GremlinRules rules,
+            Map<String, String> chosen,
+            AssetInventory inventory,
+            OutputSink sink,
+            boolean references) {
+        List<Path[]> soundCopies = rules.soundCopies(soundFolder, convertedSoundFolder, chosen);
+        Map<Path, Path> sources = CopyExecutor.plan(soundCopies, inventory::exists);
+        Map<Path, Path> aliases = references ? CopyExecutor.aliases(sources) : Map.of();
 
         // Perform all sound file copies
-        for (Path[] pair : soundCopies) {
-            try {
-                copyFile(pair[0], pair[1]);
-            } catch (IOException e) {
-                ioExceptionPrompt("Failed copying from " + pair[0] + " to " + pair[1], e);
-            }
-        }
-
-        // Calculate emote duration for emote config
-        Path soundFile = soundFolder.resolve(emoteSoundChoice);
-        File file = soundFile.toFile();
-        AudioInputStream ais = null;
-        int durationMs;
-        try {
-            ais = AudioSystem.getAudioInputStream(file);
-        } catch (UnsupportedAudioFileException | IOException _) {
-        }
-        AudioFormat format;
-        if (ais != null) {
-            format = ais.getFormat();
+        copyFiles(soundCopies, inventory, sink, aliases);
 
-            long frames = ais.getFrameLength();
-            float frameRate = format.getFrameRate();
+        return result(soundFolder, convertedSoundFolder, chosen.get("emoteSound"), sources, aliases, inventory);
+    }
 
-            durationMs = (int) Math.ceil((frames / frameRate) * 1000);
-        } else {
-            durationMs = 0;
-        }
+    // emote-config.json, sfx-map.json and sfx-durations.json for the sounds that were copied
+    // Durations are read from the source each converted sound was copied from (sources maps target -> source),
+    // so they are right even when the copies went into an archive
+    // aliases maps sounds that weren't copied to the converted sound they would have duplicated
+    public static SoundResult result(
+            Path soundFolder,
+            Path convertedSoundFolder,
+            String emoteSoundChoice,
+            Map<Path, Path> sources,
+            Map<Path, Path> aliases,
+            AssetInventory inventory) {
+        // Calculate emote duration for emote config
+        int durationMs = WavProbe.durationMs(soundFolder.resolve(emoteSoundChoice));
 
         // emote-config.json
-        String emoteConfigFile =
-                "{\n" +
-                        "    \"AnnoyEmote\": true,\n" +
-                        "    \"MinEmoteTriggerMinutes\": 5,\n" +
-                        "    \"MaxEmoteTriggerMinutes\": 15,\n" +
-                        "    \"EmoteDuration\": " + durationMs + "\n" +
-                        "}";
+        EmoteConfig emoteConfig = new EmoteConfig(true, 5, 15, durationMs);
 
         // sfx-map.json
-        List<String> soundJsonLines = new ArrayList<>();
+        List<AssetEntry> soundJsonEntries = new ArrayList<>();
 
         List<AssetEntry> soundEntryList = List.of(
                 new AssetEntry("Hover", "hover.wav"),
@@ -99,18 +84,22 @@ public class SoundProcessor {
                 new AssetEntry("Emote", "emote.wav")
         );
 
+        // sfx-durations.json, the length of every converted sound so the app doesn't have to probe them itself
+        Map<String, Integer> durations = new LinkedHashMap<>();
+
         // Shows the corresponding filename if it exists, else shows "" (none)
         for (AssetEntry entry : soundEntryList) {
             Path currentSoundFile = convertedSoundFolder.resolve(entry.fileName());
-            String value = Files.exists(currentSoundFile) ? entry.fileName() : "";
-            soundJsonLines.add("    \"" + entry.key() + "\": \"" + value + "\"");
-        }
+            currentSoundFile = aliases.getOrDefault(currentSoundFile, currentSoundFile);
+            boolean exists = inventory.exists(currentSoundFile);
+            String value = exists ? currentSoundFile.getFileName().toString() : "";
+            soundJsonEntries.add(new AssetEntry(entry.key(), value));
 
-        String sfxMapFile =
-                "{\n" +
-                        String.join(",\n", soundJsonLines) +
-                        "\n}";
+            if (exists) {
+                durations.put(entry.key(), WavProbe.durationMs(sources.getOrDefault(currentSoundFile, currentSoundFile)));
+            }
+        }
 
-        return new SoundResult(emoteConfigFile, sfxMapFile);
+        return new SoundResult(emoteConfig, new SfxMap(soundJsonEntries), new SfxDurations(durations));
     }
-}
\ No newline at end of file
+}
@@ -1,139 +1,116 @@
 package net.virtualspan.processors;
 
+import net.virtualspan.AssetInventory;
+import net.virtualspan.CopyExecutor;
+import net.virtualspan.FileUtils;
 import net.virtualspan.model.AssetEntry;
+import net.virtualspan.model.Hotspots;
+import net.virtualspan.model.SpriteMap;
 import net.virtualspan.model.SpriteResult;
+import net.virtualspan.output.FolderSink;
+import net.virtualspan.output.OutputSink;
+import net.virtualspan.rules.GremlinRules;
+import net.virtualspan.rules.Rule;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.stream.Stream;
 
-import static net.virtualspan.FileUtils.copyFile;
+import static net.virtualspan.FileUtils.copyFiles;
 import static net.virtualspan.FileUtils.ioExceptionPrompt;
 
 public class SpriteProcessor {
+    // Actions that fall back to no sprite at all instead of idle.png
+    public static final Set<String> SKIP = Set.of("LeftAction", "RightAction", "Reload");
+
     public static SpriteResult process(
             Path spriteSheetFolder,
             Path convertedSpriteFolder,
             Path originalConfigPath,
-            String emoteSpriteChoice,
-            String patSpriteChoice,
-            String pokeSprite) {
-        // Paths to directories containing sprites
-        Path actions = spriteSheetFolder.resolve("Actions");
-        Path run = spriteSheetFolder.resolve("Run");
-
-        // Copies and renames hover.png or idle.png to intro.png and outro.png as a placeholder if they aren't present
-        // This fixes issues with starting/closing the Gremlin and gets overridden if they are present
-        String introSprite = "intro.png";
-        String outroSprite = "outro.png";
-
-        try {
-            if (!Files.exists(actions.resolve("intro.png"))) {
-                Files.copy(actions.resolve("idle.png"),
-                        convertedSpriteFolder.resolve("intro.png"), StandardCopyOption.REPLACE_EXISTING);
-
-                introSprite = "idle.png";
-            }
+            GremlinRules rules,
+            Map<String, String> chosen,
+            AssetInventory inventory) {
+        return process(spriteSheetFolder, convertedSpriteFolder, originalConfigPath,
+                rules, chosen, inventory, FolderSink.INSTANCE, false, false, 0);
+    }
 
-            if (!Files.exists(actions.resolve("outro.png"))) {
-                if (Files.exists(actions.resolve("hover.png"))) {
-                    Files.copy(actions.resolve("grab.png"),
-                            convertedSpriteFolder.resolve("outro.png"), StandardCopyOption.REPLACE_EXISTING);
+    // chosen holds the picks of the rules' choices (intro/outro placeholders, emote, pat and poke sprites)
+    // With references, sprites that would be a copy of another one (e.g. intro.png made from idle.png)
+    // aren't copied, sprite-map.json names the original for them instead
+    // With mirror, sideways movement sheets that weren't copied are flipped from the opposite one (see MirrorProcessor)
+    // A repack above 0 lays every sheet out again when any is bigger than that many pixels (see RepackProcessor)
+    public static SpriteResult process(
+            Path spriteSheetFolder,
+            Path convertedSpriteFolder,
+            Path originalConfigPath,
+            GremlinRules rules,
+            Map<String, String> chosen,
+            AssetInventory inventory,
+            OutputSink sink,
+            boolean references,
+            boolean mirror,
+            int repack) {
+        List<Path[]> spriteCopies = rules.spriteCopies(spriteSheetFolder, convertedSpriteFolder, chosen);
+        Map<Path, Path> copied = CopyExecutor.plan(spriteCopies, inventory::exists);
+        Map<Path, Path> aliases = references ? CopyExecutor.aliases(copied) : Map.of();
 
-                    outroSprite = "grab.png";
-                } else {
-                    Files.copy(actions.resolve("idle.png"),
-                            convertedSpriteFolder.resolve("outro.png"), StandardCopyOption.REPLACE_EXISTING);
+        // Read config.txt
+        Map<String, Integer> values = readConfig(originalConfigPath);
 
-                    outroSprite = "idle.png";
-                }
-            }
-        } catch (
-                IOException e) {
-            ioExceptionPrompt("Failed to copy and rename to intro/outro.png placeholder files", e);
-        }
+        // Check config.txt frame counts against the sheet sizes
+        List<String> warnings = SheetProbe.correctFrameCounts(
+                spriteSheetFolder, rules.frameSheets(inventory, spriteSheetFolder, chosen), values, inventory);
+        rules.applyCounts(values);
 
-        // List of copy operations
-        List<Path[]> spriteCopies = List.of(
-                // Actions folder
-                new Path[]{actions.resolve("grab.png"), convertedSpriteFolder.resolve("grab.png")},
-                new Path[]{actions.resolve("hover.png"), convertedSpriteFolder.resolve("hover.png")},
-                new Path[]{actions.resolve("idle.png"), convertedSpriteFolder.resolve("idle.png")},
-                new Path[]{actions.resolve(introSprite), convertedSpriteFolder.resolve("intro.png")},
-                new Path[]{actions.resolve(outroSprite), convertedSpriteFolder.resolve("outro.png")},
-                new Path[]{actions.resolve("runIdle.png"), convertedSpriteFolder.resolve("walk-idle.png")},
-                new Path[]{actions.resolve("sleep.png"), convertedSpriteFolder.resolve("sleep.png")},
-
-                // Run folder
-                new Path[]{run.resolve("downLeft.png"), convertedSpriteFolder.resolve("run-downleft.png")},
-                new Path[]{run.resolve("downRight.png"), convertedSpriteFolder.resolve("run-downright.png")},
-                new Path[]{run.resolve("runDown.png"), convertedSpriteFolder.resolve("run-down.png")},
-                new Path[]{run.resolve("runLeft.png"), convertedSpriteFolder.resolve("run-left.png")},
-                new Path[]{run.resolve("runRight.png"), convertedSpriteFolder.resolve("run-right.png")},
-                new Path[]{run.resolve("runUp.png"), convertedSpriteFolder.resolve("run-up.png")},
-                new Path[]{run.resolve("upLeft.png"), convertedSpriteFolder.resolve("run-upleft.png")},
-                new Path[]{run.resolve("upRight.png"), convertedSpriteFolder.resolve("run-upright.png")},
-
-                // Emote and idle sprites converted to other files
-                new Path[]{spriteSheetFolder.resolve(emoteSpriteChoice), convertedSpriteFolder.resolve("emote.png")},
-                new Path[]{spriteSheetFolder.resolve(patSpriteChoice), convertedSpriteFolder.resolve("pat.png")},
-                new Path[]{spriteSheetFolder.resolve(pokeSprite), convertedSpriteFolder.resolve("poke.png")}
-                );
+        // Sheets that get repacked are written from their source instead of copied
+        Map<Path, Path> sheets = new LinkedHashMap<>(copied);
+        sheets.keySet().removeAll(aliases.keySet());
+        int columns = repack > 0 ? RepackProcessor.plan(sheets, values, repack, warnings) : 0;
+        Map<Path, Path> repacked = columns > 0 ? sheets : Map.of();
 
         // Perform all sprite file copies
-        for (Path[] pair : spriteCopies) {
-            try {
-                copyFile(pair[0], pair[1]);
-            } catch (IOException e) {
-                ioExceptionPrompt("Failed copying from " + pair[0] + " to " + pair[1], e);
-            }
+        List<Path[]> copies = new ArrayList<>();
+        for (Path[] copy : spriteCopies) {
+            if (!repacked.containsKey(copy[1])) copies.add(copy);
+        }
+        copyFiles(copies, inventory, sink, aliases);
+
+        List<Path> missing = new ArrayList<>();
+        if (columns > 0) {
+            Map<Path, Path> written = RepackProcessor.process(repacked, columns, values, sink, warnings);
+            written.keySet().forEach(inventory::recordWritten);
+            missing.addAll(repacked.keySet());
+            missing.removeAll(written.keySet());
         }
 
-        // Read config.txt
-        Map<String, Integer> values = new HashMap<>();
-
-        try (Stream<String> lines = Files.lines(originalConfigPath)) {
-            lines.forEach(line -> {
-                line = line.trim();
-
-                // Skip comments and empty lines
-                if (line.isEmpty() || line.startsWith("//")) return;
-
-                // Skip SCALE
-                if (line.startsWith("SCALE")) return;
+        // After the frame counts are corrected, the mirrored sheets take theirs from the sheets they're flipped from
+        Map<Path, Path> planned = MirrorProcessor.plan(rules, convertedSpriteFolder, copied);
+        Map<Path, Path> mirrored = mirror
+                ? MirrorProcessor.process(rules, convertedSpriteFolder, planned, columns, values, inventory, sink, warnings)
+                : Map.of();
+        missing.addAll(planned.keySet());
+        missing.removeAll(mirrored.keySet());
 
-                // Expect KEY=value
-                String[] parts = line.split("=");
-                if (parts.length != 2) return;
+        // Left behind by an earlier conversion, they'd still be named in sprite-map.json
+        FileUtils.deleteOutputs(missing, inventory, sink);
 
-                String key = parts[0].trim();
-                String val = parts[1].trim();
+        SpriteMap spriteMap = RepackProcessor.apply(
+                spriteMap(rules, convertedSpriteFolder, values, inventory, aliases), columns);
 
-                try {
-                    values.put(key, Integer.parseInt(val));
-                } catch (NumberFormatException ignored) {
-                    // Skip non-integer values
-                }
-            });
-        } catch (IOException e) {
-            ioExceptionPrompt("Failed to read config.txt", e);
-        }
-
-        // sprite-map.json
-        List<String> spriteJsonLines = new ArrayList<>();
+        return new SpriteResult(spriteMap, SKIP, values, warnings, mirrored, columns);
+    }
 
-        spriteJsonLines.add("    \"FrameRate\": 60");
-        spriteJsonLines.add("    \"SpriteColumn\": " + values.get("COLUMN"));
-        spriteJsonLines.add("    \"FrameHeight\": " + values.get("HEIGHT"));
-        spriteJsonLines.add("    \"FrameWidth\": " + values.get("WIDTH"));
-        spriteJsonLines.add("    \"TopHotspotHeight\": 175");
-        spriteJsonLines.add("    \"TopHotspotWidth\": 150");
-        spriteJsonLines.add("    \"SideHotspotHeight\": 0");
-        spriteJsonLines.add("    \"SideHotspotWidth\": 0");
-        spriteJsonLines.add("    \"HasReloadAnimation\": false");
+    // sprite-map.json, from the config values and the sprites that were copied
+    // aliases maps sprites that weren't copied to the converted sprite they would have duplicated
+    public static SpriteMap spriteMap(
+            GremlinRules rules,
+            Path convertedSpriteFolder,
+            Map<String, Integer> values,
+            AssetInventory inventory,
+            Map<Path, Path> aliases) {
+        List<AssetEntry> spriteJsonEntries = new ArrayList<>();
 
         List<AssetEntry> spriteEntryList = List.of(
                 new AssetEntry("Idle", "idle.png"),
@@ -163,57 +140,85 @@ public class SpriteProcessor {
         // Else shows the filename for idle.png,
         // except if it's LeftAction, RightAction or Reload, then it shows none
         // This fixes issues with low-sprite gremlins from being stuck and repeating a sprite
-        // Also uses run-right and/or run-left sprites (depending on what's available)
-        // instead of idle.png if movement sprites don't exist
-        Set<String> skip = Set.of("LeftAction", "RightAction", "Reload");
-
-        Set<String> rightMovementSprites = Set.of(
-                "Up", "Right", "UpRight", "DownRight"
-        );
-
-        Set<String> leftMovementSprites = Set.of(
-                "Down", "Left", "UpLeft", "DownLeft"
-        );
-
-        String runRightIfExists;
-        String runLeftIfExists;
-
-        if (Files.exists(convertedSpriteFolder.resolve("run-right.png"))) {
-            runRightIfExists = "run-right.png";
-        } else {
-            runRightIfExists = "idle.png";
-        }
-
-        if (Files.exists(convertedSpriteFolder.resolve("run-left.png"))) {
-            runLeftIfExists = "run-left.png";
-        } else {
-            runLeftIfExists = "idle.png";
+        // Movement sprites use the first sprite of their movement group in the rules (run-right or run-left)
+        // instead of idle.png when it exists
+        Map<String, String> movementFallbacks = new HashMap<>();
+        for (Rule.Movement group : rules.movement()) {
+            String fallback = inventory.exists(convertedSpriteFolder.resolve(group.first().file()))
+                    ? group.first().file()
+                    : "idle.png";
+
+            for (Rule.Sheet sheet : group.sheets()) {
+                movementFallbacks.put(sheet.file(), fallback);
+            }
         }
 
         for (AssetEntry entry : spriteEntryList) {
             Path currentSpriteFile = convertedSpriteFolder.resolve(entry.fileName());
 
-            boolean exists = Files.exists(currentSpriteFile);
+            Path original = aliases.get(currentSpriteFile);
+            if (original != null) {
+                spriteJsonEntries.add(new AssetEntry(entry.key(), original.getFileName().toString()));
+                continue;
+            }
+
+            boolean exists = inventory.exists(currentSpriteFile);
 
             String value = exists
                     ? entry.fileName()
-                    : (skip.contains(entry.key())
+                    : SKIP.contains(entry.key())
                     ? ""
-                    : rightMovementSprites.contains(entry.key())
-                    ? runRightIfExists
-                    : leftMovementSprites.contains(entry.key())
-                    ? runLeftIfExists
-                    : "idle.png"
-            );
-
-            spriteJsonLines.add("    \"" + entry.key() + "\": \"" + value + "\"");
+                    : movementFallbacks.getOrDefault(entry.fileName(), "idle.png");
+
+            spriteJsonEntries.add(new AssetEntry(entry.key(), value));
         }
 
-        String spriteSheetFile =
-                "{\n" +
-                        String.join(",\n", spriteJsonLines) +
-                        "\n}";
+        // HotspotProcessor replaces the hotspots with measured ones where it can
+        Hotspots hotspots = Hotspots.defaults();
+
+        return new SpriteMap(
+                60,
+                values.get("COLUMN"),
+                values.get("HEIGHT"),
+                values.get("WIDTH"),
+                hotspots.topHeight(),
+                hotspots.topWidth(),
+                hotspots.sideHeight(),
+                hotspots.sideWidth(),
+                false,
+                spriteJsonEntries);
+    }
+
+    public static Map<String, Integer> readConfig(Path originalConfigPath) {
+        Map<String, Integer> values = new HashMap<>();
+
+        try (Stream<String> lines = Files.lines(originalConfigPath)) {
+            lines.forEach(line -> {
+                line = line.trim();
+
+                // Skip comments and empty lines
+                if (line.isEmpty() || line.startsWith("//")) return;
+
+                // Skip SCALE
+                if (line.startsWith("SCALE")) return;
+
+                // Expect KEY=value
+                String[] parts = line.split("=");
+                if (parts.length != 2) return;
+
+                String key = parts[0].trim();
+                String val = parts[1].trim();
+
+                try {
+                    values.put(key, Integer.parseInt(val));
+                } catch (NumberFormatException ignored) {
+                    // Skip non-integer values
+                }
+            });
+        } catch (IOException e) {
+            ioExceptionPrompt("Failed to read config.txt", e);
+        }
 
-        return new SpriteResult(spriteSheetFile, introSprite, outroSprite, skip, values);
+        return values;
     }
 }
@@ -0,0 +1,55 @@
+package net.virtualspan.processors;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteOrder;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+// AlphaScan's rows a vector at a time, only loaded when jdk.incubator.vector is
+// Both take a run of count packed ARGB ints starting at index start and return the index in that run, or -1
+final class VectorAlphaScan {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    private VectorAlphaScan() {
+    }
+
+    static int first(MemorySegment pixels, long start, int count) {
+        int bound = INTS.loopBound(count);
+
+        int i = 0;
+        for (; i < bound; i += INTS.length()) {
+            VectorMask<Integer> opaque = load(pixels, start + i);
+            if (opaque.anyTrue()) return i + opaque.firstTrue();
+        }
+
+        for (; i < count; i++) {
+            if (pixels.getAtIndex(JAVA_INT, start + i) >>> 24 != 0) return i;
+        }
+        return -1;
+    }
+
+    static int last(MemorySegment pixels, long start, int count) {
+        int bound = INTS.loopBound(count);
+        for (int i = count - 1; i >= bound; i--) {
+            if (pixels.getAtIndex(JAVA_INT, start + i) >>> 24 != 0) return i;
+        }
+
+        for (int i = bound - INTS.length(); i >= 0; i -= INTS.length()) {
+            VectorMask<Integer> opaque = load(pixels, start + i);
+            if (opaque.anyTrue()) return i + opaque.lastTrue();
+        }
+        return -1;
+    }
+
+    // Lanes whose alpha, the top byte, isn't 0
+    private static VectorMask<Integer> load(MemorySegment pixels, long index) {
+        return IntVector.fromMemorySegment(INTS, pixels, index * Integer.BYTES, ByteOrder.nativeOrder())
+                .lanewise(VectorOperators.LSHR, 24)
+                .compare(VectorOperators.NE, 0);
+    }
+}
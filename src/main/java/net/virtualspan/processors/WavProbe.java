@@ -0,0 +1,127 @@
+package net.virtualspan.processors;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class WavProbe {
+    private static final int RIFF = 0x46464952; // "RIFF" read little-endian
+    private static final int WAVE = 0x45564157; // "WAVE"
+    private static final int FMT = 0x20746D66;  // "fmt "
+    private static final int FACT = 0x74636166; // "fact"
+    private static final int DATA = 0x61746164; // "data"
+
+    private static final int FORMAT_PCM = 0x0001;
+    private static final int FORMAT_MS_ADPCM = 0x0002;
+    private static final int FORMAT_IEEE_FLOAT = 0x0003;
+    private static final int FORMAT_ALAW = 0x0006;
+    private static final int FORMAT_MULAW = 0x0007;
+    private static final int FORMAT_IMA_ADPCM = 0x0011;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    // Works out the duration from the RIFF chunk headers alone, the audio itself is never read or decoded
+    // Returns 0 for anything that isn't a WAV file it understands, same as the old Java Sound fallback
+    public static int durationMs(Path wav) {
+        try (SeekableByteChannel channel = Files.newByteChannel(wav)) {
+            long fileSize = channel.size();
+            ByteBuffer header = read(channel, 0, 12);
+            if (header == null || header.getInt() != RIFF) return 0;
+            header.getInt(); // RIFF size, often wrong in the wild so the real file size is used instead
+            if (header.getInt() != WAVE) return 0;
+
+            int format = -1;
+            int sampleRate = 0;
+            int byteRate = 0;
+            int blockAlign = 0;
+            int samplesPerBlock = 0;
+            long factSamples = -1;
+            long dataLength = -1;
+
+            long position = 12;
+            while (position + 8 <= fileSize) {
+                ByteBuffer chunk = read(channel, position, 8);
+                if (chunk == null) break;
+
+                int id = chunk.getInt();
+                long size = Integer.toUnsignedLong(chunk.getInt());
+                long body = position + 8;
+
+                if (id == FMT) {
+                    ByteBuffer fmt = read(channel, body, (int) Math.min(size, 40));
+                    if (fmt == null || fmt.remaining() < 16) return 0;
+
+                    format = Short.toUnsignedInt(fmt.getShort(0));
+                    sampleRate = fmt.getInt(4);
+                    byteRate = fmt.getInt(8);
+                    blockAlign = Short.toUnsignedInt(fmt.getShort(12));
+
+                    // WAVE_FORMAT_EXTENSIBLE keeps the real format in the first two bytes of the SubFormat GUID
+                    if (format == FORMAT_EXTENSIBLE && fmt.remaining() >= 26) {
+                        format = Short.toUnsignedInt(fmt.getShort(24));
+                    }
+
+                    // ADPCM headers store samples per block right after cbSize
+                    if ((format == FORMAT_MS_ADPCM || format == FORMAT_IMA_ADPCM) && fmt.remaining() >= 20) {
+                        samplesPerBlock = Short.toUnsignedInt(fmt.getShort(18));
+                    }
+                } else if (id == FACT && size >= 4) {
+                    ByteBuffer fact = read(channel, body, 4);
+                    if (fact != null) factSamples = Integer.toUnsignedLong(fact.getInt());
+                } else if (id == DATA) {
+                    // Streaming writers leave the size at 0 or 0xFFFFFFFF, the data then runs to the end of the file
+                    // and there are no chunk headers after it, only samples
+                    if (size == 0 || body + size > fileSize) {
+                        dataLength = fileSize - body;
+                        break;
+                    }
+                    dataLength = size;
+                }
+
+                // Chunks are padded to an even size
+                position = body + size + (size & 1);
+            }
+
+            if (format < 0 || sampleRate <= 0 || dataLength < 0) return 0;
+
+            long frames = switch (format) {
+                case FORMAT_PCM, FORMAT_IEEE_FLOAT, FORMAT_ALAW, FORMAT_MULAW ->
+                        blockAlign > 0 ? dataLength / blockAlign : -1;
+                case FORMAT_MS_ADPCM, FORMAT_IMA_ADPCM -> {
+                    if (factSamples >= 0) yield factSamples;
+                    if (blockAlign <= 0 || samplesPerBlock <= 0) yield -1;
+
+                    // Count a trailing partial block by the share of the block it fills
+                    long blocks = dataLength / blockAlign;
+                    long partial = dataLength % blockAlign * samplesPerBlock / blockAlign;
+                    yield blocks * samplesPerBlock + partial;
+                }
+                default -> factSamples;
+            };
+
+            if (frames < 0 && byteRate > 0) {
+                return (int) Math.ceil(dataLength * 1000.0 / byteRate);
+            }
+            if (frames < 0) return 0;
+
+            return (int) Math.ceil(frames * 1000.0 / sampleRate);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static ByteBuffer read(SeekableByteChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        channel.position(position);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) break;
+        }
+
+        // Truncated file
+        if (buffer.hasRemaining()) return null;
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,248 @@
+package net.virtualspan.rules;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Loads conversion-rules.txt (and any --rules files) once and compiles a GremlinRules per gremlin
+// Gremlins without a section of their own all share the same compiled rules
+public class ConversionRules {
+    private static final String BUILT_IN = "conversion-rules.txt";
+
+    // Lines outside any [gremlin] section, then the lines of each section, from one rule file
+    private record Layer(List<Rule> global, Map<String, List<Rule>> gremlins) {
+    }
+
+    private static final List<Layer> layers = new ArrayList<>();
+    private static final Map<String, GremlinRules> compiled = new ConcurrentHashMap<>();
+    private static List<Rule> builtInGlobal;
+    private static GremlinRules global;
+
+    static {
+        try (InputStream in = ConversionRules.class.getResourceAsStream(BUILT_IN)) {
+            if (in == null) {
+                throw new IllegalStateException(BUILT_IN + " is missing from the jar");
+            }
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            layers.add(parse(reader.lines().toList(), BUILT_IN));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read " + BUILT_IN, e);
+        }
+
+        builtInGlobal = layers.getFirst().global();
+        global = new GremlinRules(builtInGlobal, false);
+    }
+
+    // Layers a rule file on top of what is already loaded, e.g. fixes for gremlins this version doesn't know about
+    public static synchronized void addRules(Path file) throws IOException {
+        layers.add(parse(Files.readAllLines(file), file.toString()));
+
+        List<Rule> rules = builtInGlobal;
+        for (Layer layer : layers.subList(1, layers.size())) {
+            rules = merge(rules, layer.global());
+        }
+        global = new GremlinRules(rules, !rules.equals(builtInGlobal));
+        compiled.clear();
+    }
+
+    public static GremlinRules forGremlin(String name) {
+        GremlinRules rules = compiled.get(name);
+        if (rules != null) return rules;
+
+        synchronized (ConversionRules.class) {
+            return compiled.computeIfAbsent(name, ConversionRules::compile);
+        }
+    }
+
+    private static GremlinRules compile(String name) {
+        List<Rule> rules = global.rules();
+        boolean overridden = false;
+
+        for (Layer layer : layers) {
+            List<Rule> section = layer.gremlins().get(name);
+            if (section != null) {
+                rules = merge(rules, section);
+                overridden = true;
+            }
+        }
+
+        return overridden ? new GremlinRules(rules, true) : global;
+    }
+
+    // Every key the layer has replaces all earlier lines with that key, at the position of the first of them
+    private static List<Rule> merge(List<Rule> base, List<Rule> layer) {
+        if (layer.isEmpty()) return base;
+
+        Map<String, List<Rule>> replacements = new LinkedHashMap<>();
+        for (Rule rule : layer) {
+            replacements.computeIfAbsent(rule.key(), _ -> new ArrayList<>()).add(rule);
+        }
+
+        List<Rule> merged = new ArrayList<>();
+        Set<String> placed = new HashSet<>();
+
+        for (Rule rule : base) {
+            List<Rule> replacement = replacements.get(rule.key());
+            if (replacement == null) {
+                merged.add(rule);
+            } else if (placed.add(rule.key())) {
+                merged.addAll(replacement);
+            }
+        }
+
+        replacements.forEach((key, rules) -> {
+            if (!placed.contains(key)) merged.addAll(rules);
+        });
+
+        return List.copyOf(merged);
+    }
+
+    private static Layer parse(List<String> lines, String source) {
+        List<Rule> global = new ArrayList<>();
+        Map<String, List<Rule>> gremlins = new LinkedHashMap<>();
+        List<Rule> current = global;
+
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+
+            // Skip comments and empty lines
+            if (line.isEmpty() || line.startsWith("//")) continue;
+
+            try {
+                if (line.startsWith("[") && line.endsWith("]")) {
+                    String[] section = line.substring(1, line.length() - 1).trim().split("\\s+", 2);
+                    if (section.length != 2 || !section[0].equals("gremlin")) {
+                        throw new IllegalArgumentException("expected [gremlin <name>]");
+                    }
+                    current = gremlins.computeIfAbsent(section[1], _ -> new ArrayList<>());
+                    continue;
+                }
+
+                current.add(parseRule(line));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(source + " line " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+
+        return new Layer(List.copyOf(global), gremlins);
+    }
+
+    private static Rule parseRule(String line) {
+        String[] words = line.split("\\s+", 2);
+        String rest = words.length > 1 ? words[1] : "";
+
+        return switch (words[0]) {
+            case "require" -> {
+                String[] parts = rest.split("\\s+", 3);
+                if (parts.length < 3) throw new IllegalArgumentException("expected require <sprite|sound> <file> | <title> | <message>");
+                String root = root(parts[0]);
+
+                if (parts[2].equals("-")) {
+                    yield new Rule.Requirement(root, parts[1], null, null);
+                }
+
+                String[] text = parts[2].split("\\|", -1);
+                if (text.length != 3 || !text[0].isBlank()) {
+                    throw new IllegalArgumentException("expected require <sprite|sound> <file> | <title> | <message>");
+                }
+                yield new Rule.Requirement(root, parts[1], text[1].trim(), text[2].trim().replace("\\n", "\n"));
+            }
+            case "choice" -> {
+                String[] parts = rest.split("=", 2);
+                String[] name = parts[0].trim().split("\\s+");
+                if (parts.length != 2 || name.length != 2) {
+                    throw new IllegalArgumentException("expected choice <sprite|sound> <name> = <candidate> | ...");
+                }
+
+                List<Rule.Candidate> candidates = new ArrayList<>();
+                for (String candidate : parts[1].split("\\|")) {
+                    candidates.add(candidate(candidate.trim()));
+                }
+                yield new Rule.Choice(root(name[0]), name[1], List.copyOf(candidates));
+            }
+            case "sprite", "sound" -> {
+                String[] parts = rest.split("\\s*<-\\s*", 2);
+                if (parts.length != 2 || parts[0].isBlank() || parts[1].isBlank()) {
+                    throw new IllegalArgumentException("expected " + words[0] + " <converted file> <- <source>");
+                }
+
+                String source = parts[1].trim();
+                if (source.startsWith("${") && source.endsWith("}")) {
+                    yield new Rule.Copy(words[0], parts[0].trim(), null, source.substring(2, source.length() - 1));
+                }
+                yield new Rule.Copy(words[0], parts[0].trim(), source, null);
+            }
+            case "frames" -> {
+                String[] parts = rest.split("\\s+");
+                if (parts.length != 2) throw new IllegalArgumentException("expected frames <sprite> <config.txt key>");
+                yield new Rule.Frames(parts[0], parts[1]);
+            }
+            case "sheet" -> {
+                String[] parts = rest.split("\\s+");
+                if (parts.length != 2) throw new IllegalArgumentException("expected sheet <converted sheet> <config.txt key>");
+                yield new Rule.SheetFrames(parts[0], parts[1]);
+            }
+            case "count" -> {
+                String[] parts = rest.split("\\s+");
+                if (parts.length != 2) throw new IllegalArgumentException("expected count <config.txt key> <frames>");
+                try {
+                    yield new Rule.Count(parts[0], Integer.parseInt(parts[1]));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("expected a frame count, got " + parts[1]);
+                }
+            }
+            case "movement" -> {
+                String[] parts = rest.split("\\s+");
+                if (parts.length < 2) throw new IllegalArgumentException("expected movement <right|left> <sheet>=<key> ...");
+
+                List<Rule.Sheet> sheets = new ArrayList<>();
+                for (int i = 1; i < parts.length; i++) {
+                    String[] sheet = parts[i].split("=", 2);
+                    if (sheet.length != 2) throw new IllegalArgumentException("expected <sheet>=<config.txt key>, got " + parts[i]);
+                    sheets.add(new Rule.Sheet(sheet[0], sheet[1]));
+                }
+                yield new Rule.Movement(parts[0], List.copyOf(sheets));
+            }
+            case "mirror" -> {
+                String[] parts = rest.split("\\s*<-\\s*", 2);
+                if (parts.length != 2 || parts[0].isBlank() || parts[1].isBlank()) {
+                    throw new IllegalArgumentException("expected mirror <converted sheet> <- <converted sheet>");
+                }
+                yield new Rule.Mirror(parts[0].trim(), parts[1].trim());
+            }
+            default -> throw new IllegalArgumentException("unknown rule " + words[0]);
+        };
+    }
+
+    // <file> [if <file> !<file> ...]
+    private static Rule.Candidate candidate(String text) {
+        String[] parts = text.split("\\s+if\\s+", 2);
+        List<String> present = new ArrayList<>();
+        List<String> absent = new ArrayList<>();
+
+        if (parts.length == 2) {
+            for (String condition : parts[1].trim().split("\\s+")) {
+                if (condition.startsWith("!")) {
+                    absent.add(condition.substring(1));
+                } else {
+                    present.add(condition);
+                }
+            }
+        }
+        return new Rule.Candidate(parts[0].trim(), List.copyOf(present), List.copyOf(absent));
+    }
+
+    private static String root(String root) {
+        if (!root.equals("sprite") && !root.equals("sound")) {
+            throw new IllegalArgumentException("expected sprite or sound, got " + root);
+        }
+        return root;
+    }
+}
@@ -0,0 +1,222 @@
+package net.virtualspan.rules;
+
+import net.virtualspan.AssetInventory;
+import net.virtualspan.IncompatibleGremlinException;
+import net.virtualspan.model.ConversionChoices;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.zip.CRC32C;
+
+// The rules for one gremlin, sorted by kind once so a conversion only has to look files up in its inventory
+public final class GremlinRules {
+    private final List<Rule> rules;
+
+    private final List<Rule.Requirement> requirements = new ArrayList<>();
+    private final Map<String, Rule.Choice> choices = new LinkedHashMap<>();
+    private final List<Rule.Copy> spriteCopies = new ArrayList<>();
+    private final List<Rule.Copy> soundCopies = new ArrayList<>();
+    private final Map<String, String> frameKeys = new HashMap<>();
+    private final Map<String, String> sheetKeys = new HashMap<>();
+    private final Map<String, Integer> counts = new LinkedHashMap<>();
+    private final List<Rule.Movement> movement = new ArrayList<>();
+    private final List<Rule.Mirror> mirrors = new ArrayList<>();
+
+    // Only set for rules that differ from the built-in ones, so they can be told apart in the manifest
+    private final String fingerprint;
+
+    GremlinRules(List<Rule> rules, boolean custom) {
+        this.rules = rules;
+
+        for (Rule rule : rules) {
+            switch (rule) {
+                case Rule.Requirement requirement -> {
+                    if (requirement.title() != null) requirements.add(requirement);
+                }
+                case Rule.Choice choice -> choices.put(choice.name(), choice);
+                case Rule.Copy copy -> (copy.root().equals("sprite") ? spriteCopies : soundCopies).add(copy);
+                case Rule.Frames frames -> frameKeys.put(frames.sprite(), frames.configKey());
+                case Rule.SheetFrames sheet -> sheetKeys.put(sheet.sheet(), sheet.configKey());
+                case Rule.Count count -> counts.put(count.configKey(), count.frames());
+                case Rule.Movement group -> movement.add(group);
+                case Rule.Mirror mirror -> mirrors.add(mirror);
+            }
+        }
+
+        // A copy from a choice that doesn't exist would silently copy nothing
+        for (Rule.Copy copy : spriteCopies) requireChoice(copy);
+        for (Rule.Copy copy : soundCopies) requireChoice(copy);
+
+        if (custom) {
+            CRC32C crc = new CRC32C();
+            crc.update(rules.toString().getBytes(StandardCharsets.UTF_8));
+            fingerprint = Long.toHexString(crc.getValue());
+        } else {
+            fingerprint = null;
+        }
+    }
+
+    private void requireChoice(Rule.Copy copy) {
+        if (copy.choice() != null && !choices.containsKey(copy.choice())) {
+            throw new IllegalArgumentException(copy.key() + " uses ${" + copy.choice() + "}, but there is no such choice");
+        }
+    }
+
+    List<Rule> rules() {
+        return rules;
+    }
+
+    public String fingerprint() {
+        return fingerprint;
+    }
+
+    // The first required file that is missing, or null when everything is there
+    public Rule.Requirement missing(AssetInventory inventory, Path spriteSheetFolder, Path soundFolder) {
+        for (Rule.Requirement requirement : requirements) {
+            Path root = requirement.root().equals("sprite") ? spriteSheetFolder : soundFolder;
+            if (!inventory.exists(root.resolve(requirement.file()))) {
+                return requirement;
+            }
+        }
+        return null;
+    }
+
+    // Same checks as the dialogs in Main, but throws instead of prompting
+    public void require(AssetInventory inventory, Path spriteSheetFolder, Path soundFolder) {
+        Rule.Requirement missing = missing(inventory, spriteSheetFolder, soundFolder);
+        if (missing != null) {
+            throw new IncompatibleGremlinException(missing.message().replace('\n', ' '));
+        }
+    }
+
+    // Every choice, by name, as a path relative to the spritesheet or sounds folder
+    // emoteSprite, patSprite and emoteSound come from choices unless those are "default"
+    public Map<String, String> choose(
+            AssetInventory inventory,
+            Path spriteSheetFolder,
+            Path soundFolder,
+            ConversionChoices userChoices) {
+        Map<String, String> chosen = new LinkedHashMap<>();
+
+        for (Rule.Choice choice : choices.values()) {
+            Path root = choice.root().equals("sprite") ? spriteSheetFolder : soundFolder;
+            chosen.put(choice.name(), pick(choice, path -> inventory.exists(root.resolve(path))));
+        }
+
+        if (!userChoices.emoteSprite().equals("default")) chosen.put("emoteSprite", userChoices.emoteSprite());
+        if (!userChoices.patSprite().equals("default")) chosen.put("patSprite", userChoices.patSprite());
+        if (!userChoices.emoteSound().equals("default")) chosen.put("emoteSound", userChoices.emoteSound());
+
+        return chosen;
+    }
+
+    private static String pick(Rule.Choice choice, Predicate<String> exists) {
+        List<Rule.Candidate> candidates = choice.candidates();
+
+        for (int i = 0; i < candidates.size() - 1; i++) {
+            Rule.Candidate candidate = candidates.get(i);
+
+            boolean matches = candidate.guarded()
+                    ? candidate.present().stream().allMatch(exists) && candidate.absent().stream().noneMatch(exists)
+                    : exists.test(candidate.file());
+            if (matches) return candidate.file();
+        }
+
+        // The last candidate is the fallback
+        return candidates.getLast().file();
+    }
+
+    // {from, to} pairs into the converted sprites folder, in rule order
+    public List<Path[]> spriteCopies(Path spriteSheetFolder, Path convertedSpriteFolder, Map<String, String> chosen) {
+        return copies(spriteCopies, spriteSheetFolder, convertedSpriteFolder, chosen);
+    }
+
+    public List<Path[]> soundCopies(Path soundFolder, Path convertedSoundFolder, Map<String, String> chosen) {
+        return copies(soundCopies, soundFolder, convertedSoundFolder, chosen);
+    }
+
+    private static List<Path[]> copies(List<Rule.Copy> rules, Path from, Path to, Map<String, String> chosen) {
+        List<Path[]> copies = new ArrayList<>(rules.size());
+        for (Rule.Copy copy : rules) {
+            String source = source(copy, chosen);
+            copies.add(new Path[]{from.resolve(source), to.resolve(copy.target())});
+        }
+        return copies;
+    }
+
+    private static String source(Rule.Copy copy, Map<String, String> chosen) {
+        return copy.source() != null ? copy.source() : chosen.get(copy.choice());
+    }
+
+    // The candidate a choice falls back to when none of the others exist
+    public String fallback(String choice) {
+        return choices.get(choice).candidates().getLast().file();
+    }
+
+    // The config.txt key whose frame count a chosen sprite uses, null when there isn't one
+    public String frameKey(String sprite) {
+        return frameKeys.get(sprite);
+    }
+
+    // config.txt frame count keys and the source sheet (relative to the spritesheet folder) each one describes
+    // A sheet copied by a sprite line is keyed by the sheet or movement line of what it's copied into, a copy of a
+    // choice (or of a sheet without such a line) by the frames line of the source, and the first keeps the key
+    // e.g. with "sprite idle.png <- Actions/hover.png" IDLE is Actions/hover.png, whatever introSprite picked
+    public Map<String, String> frameSheets(AssetInventory inventory, Path spriteSheetFolder, Map<String, String> chosen) {
+        // Same as the copies, the last line whose source exists writes each converted sheet
+        Map<String, Rule.Copy> copies = new LinkedHashMap<>();
+        for (Rule.Copy copy : spriteCopies) {
+            if (inventory.exists(spriteSheetFolder.resolve(source(copy, chosen)))) {
+                copies.put(copy.target(), copy);
+            }
+        }
+
+        Map<String, String> sheets = new TreeMap<>();
+        for (Rule.Copy copy : copies.values()) {
+            String key = copy.source() != null ? sheetKeys.getOrDefault(copy.target(), movementKey(copy.target())) : null;
+            if (key != null) sheets.putIfAbsent(key, copy.source());
+        }
+        for (Rule.Copy copy : copies.values()) {
+            String key = frameKeys.get(source(copy, chosen));
+            if (key != null) sheets.putIfAbsent(key, source(copy, chosen));
+        }
+        return sheets;
+    }
+
+    // Call after SheetProbe.correctFrameCounts, the rules know better than the sheet size
+    public void applyCounts(Map<String, Integer> values) {
+        values.putAll(counts);
+    }
+
+    public List<Rule.Movement> movement() {
+        return movement;
+    }
+
+    // The config.txt key of a movement sheet, null for any other sheet
+    public String movementKey(String file) {
+        for (Rule.Movement group : movement) {
+            for (Rule.Sheet sheet : group.sheets()) {
+                if (sheet.file().equals(file)) return sheet.configKey();
+            }
+        }
+        return null;
+    }
+
+    public List<Rule.Mirror> mirrors() {
+        return mirrors;
+    }
+
+    // The sheet the group falls back to: its own first sheet, else another group's, else null (idle.png)
+    public Rule.Sheet movementFallback(Rule.Movement group, Predicate<String> converted) {
+        if (converted.test(group.first().file())) return group.first();
+
+        for (Rule.Movement other : movement) {
+            if (other != group && converted.test(other.first().file())) {
+                return other.first();
+            }
+        }
+        return null;
+    }
+}
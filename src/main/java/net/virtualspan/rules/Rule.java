@@ -0,0 +1,76 @@
+package net.virtualspan.rules;
+
+import java.util.List;
+
+// One line of a rule file, lines with the same key in a later layer or gremlin section replace earlier ones
+public sealed interface Rule {
+    String key();
+
+    // root is "sprite" or "sound", a requirement without a title was dropped by a later line
+    record Requirement(String root, String file, String title, String message) implements Rule {
+        public String key() {
+            return "require " + root + " " + file;
+        }
+    }
+
+    record Choice(String root, String name, List<Candidate> candidates) implements Rule {
+        public String key() {
+            return "choice " + name;
+        }
+    }
+
+    // Without conditions a candidate is picked when its own file exists
+    record Candidate(String file, List<String> present, List<String> absent) {
+        boolean guarded() {
+            return !present.isEmpty() || !absent.isEmpty();
+        }
+    }
+
+    // Exactly one of source and choice is set
+    record Copy(String root, String target, String source, String choice) implements Rule {
+        public String key() {
+            return root + " " + target;
+        }
+    }
+
+    record Frames(String sprite, String configKey) implements Rule {
+        public String key() {
+            return "frames " + sprite;
+        }
+    }
+
+    // The config.txt frame count a converted sheet copied by a sprite line has
+    record SheetFrames(String sheet, String configKey) implements Rule {
+        public String key() {
+            return "sheet " + sheet;
+        }
+    }
+
+    record Movement(String direction, List<Sheet> sheets) implements Rule {
+        public String key() {
+            return "movement " + direction;
+        }
+
+        public Sheet first() {
+            return sheets.getFirst();
+        }
+    }
+
+    record Sheet(String file, String configKey) {
+    }
+
+    // Replaces the config.txt frame count after it was checked against the sheet, for sheets whose last row is only
+    // partly filled, which the sheet size can't show
+    record Count(String configKey, int frames) implements Rule {
+        public String key() {
+            return "count " + configKey;
+        }
+    }
+
+    // Converted sheets, target is made from source with every frame flipped left to right
+    record Mirror(String target, String source) implements Rule {
+        public String key() {
+            return "mirror " + target;
+        }
+    }
+}
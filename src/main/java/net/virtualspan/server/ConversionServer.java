@@ -0,0 +1,474 @@
+package net.virtualspan.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.virtualspan.ArchiveInputs;
+import net.virtualspan.Converter;
+import net.virtualspan.JsonWriter;
+import net.virtualspan.model.ConversionChoices;
+import net.virtualspan.model.ConversionOptions;
+import net.virtualspan.model.ConversionResult;
+import net.virtualspan.model.ExportStrategy;
+import net.virtualspan.model.GremlinJob;
+import net.virtualspan.model.OutputFormat;
+import net.virtualspan.processors.ScaleProcessor;
+import net.virtualspan.rules.ConversionRules;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Lets other local tools convert gremlins over HTTP instead of starting the jar for each one
+//   POST /convert?sprites=<folder>&sounds=<folder>   folders on this machine, <archive>.zip!/<folder> works too
+//   POST /convert with a zip as the body             every gremlin in an uploaded release zip
+//   GET  /metrics                                    queue depth, in-flight jobs, latencies and bytes
+// Requests beyond the workers wait in a bounded queue, once that is full new ones get a 429 straight away
+// Only ever bound to the loopback address
+public class ConversionServer {
+    private static final String USAGE = """
+            Usage: java -jar GremlinConverter.jar --serve [options]
+
+            Options:
+              --port <n>                 port on 127.0.0.1 (default: 8765)
+              --workers <n>              requests converted at once (default: available processors)
+              --queue <n>                requests that can wait for a worker before new ones get a 429 (default: 16)
+              --output <folder>          export folder (default: ~/ConvertedGremlins)
+              --max-upload-mb <n>        largest zip accepted as a request body (default: 512)
+              --rules <file>             extra conversion rules, same as --rules in batch mode
+
+            POST /convert query parameters:
+              sprites, sounds            folders to convert, or folders inside the uploaded zip (default: all of them)
+              package                    folder, zip or tar (default: folder)
+              download                   send the converted archive back instead of where it was written
+              install                    also install into ~/.config/linux-desktop-gremlin/gremlins
+              force, references, dedup   same as --force, --references and --dedup in batch mode
+              validate                   same as --validate in batch mode, corrupt sheets fail the gremlin
+              preview                    preview=false is the same as --no-preview in batch mode
+              scale                      same as --scale in batch mode, e.g. scale=0.5,2
+              mirror                     same as --mirror in batch mode
+              repack                     same as --repack in batch mode, e.g. repack=4096
+              exportStrategy, emoteSprite, patSprite, emoteSound
+            """;
+
+    private final Path exportFolder;
+    private final int capacity;
+    private final long maxUploadBytes;
+
+    // Held from the moment a request is accepted, so it covers both waiting and converting
+    private final Semaphore admitted;
+    private final Semaphore workers;
+
+    private final ServerMetrics metrics = new ServerMetrics();
+
+    // Two requests for the same gremlin would write into the same output folder, so they take turns
+    private final Map<String, ReentrantLock> gremlinLocks = new ConcurrentHashMap<>();
+
+    private record Outcome(String name, ConversionResult result, long nanos, String error) {
+    }
+
+    // Turned into an error response with this status
+    private static class RequestException extends Exception {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private ConversionServer(Path exportFolder, int workers, int capacity, long maxUploadBytes) {
+        this.exportFolder = exportFolder;
+        this.capacity = capacity;
+        this.maxUploadBytes = maxUploadBytes;
+        this.admitted = new Semaphore(workers + capacity);
+        this.workers = new Semaphore(workers);
+    }
+
+    public static void run(String[] args) {
+        // No dialogs from a server, errors go back in the response instead
+        System.setProperty("java.awt.headless", "true");
+
+        int port = 8765;
+        int workers = Runtime.getRuntime().availableProcessors();
+        int capacity = 16;
+        long maxUploadMb = 512;
+        Path exportFolder = Converter.defaultExportFolder();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--port" -> port = Integer.parseInt(value(args, ++i));
+                    case "--workers" -> workers = Integer.parseInt(value(args, ++i));
+                    case "--queue" -> capacity = Integer.parseInt(value(args, ++i));
+                    case "--output" -> exportFolder = Path.of(value(args, ++i));
+                    case "--max-upload-mb" -> maxUploadMb = Long.parseLong(value(args, ++i));
+                    case "--rules" -> ConversionRules.addRules(Path.of(value(args, ++i)));
+                    case "--help", "-h" -> {
+                        System.out.print(USAGE);
+                        return;
+                    }
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+
+            if (workers < 1) {
+                throw new IllegalArgumentException("--workers must be at least 1");
+            }
+            if (capacity < 0) {
+                throw new IllegalArgumentException("--queue can't be negative");
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        ConversionServer server = new ConversionServer(exportFolder, workers, capacity, maxUploadMb * 1_048_576);
+
+        try {
+            HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            http.createContext("/convert", server::convert);
+            http.createContext("/metrics", server::metrics);
+
+            // Handlers block while they wait for a worker, which costs nothing on a virtual thread
+            http.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+            http.start();
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> http.stop(1)));
+            System.out.printf("Listening on http://127.0.0.1:%d (%d workers, queue of %d)%n",
+                    http.getAddress().getPort(), workers, capacity);
+        } catch (IOException e) {
+            System.err.println("Failed to start the conversion server: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private void convert(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                sendError(exchange, 405, "Use POST");
+                return;
+            }
+
+            // Checked before the body is read, a full queue shouldn't have to wait for an upload first
+            if (!admitted.tryAcquire()) {
+                metrics.rejected.increment();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendError(exchange, 429, "The conversion queue is full");
+                return;
+            }
+
+            Path upload = null;
+            try {
+                Map<String, String> query = query(exchange);
+                ConversionOptions options = options(query);
+                ConversionChoices choices = new ConversionChoices(
+                        query.getOrDefault("emoteSprite", "default"),
+                        query.getOrDefault("patSprite", "default"),
+                        query.getOrDefault("emoteSound", "default"));
+
+                boolean download = flag(query, "download");
+                if (download && options.outputFormat() == OutputFormat.FOLDER) {
+                    throw new RequestException(400, "download needs package=zip or package=tar");
+                }
+
+                if (hasBody(exchange)) {
+                    upload = receive(exchange);
+                }
+                List<GremlinJob> jobs = jobs(query, upload);
+
+                List<Outcome> outcomes = run(jobs, choices, options);
+                respond(exchange, outcomes, download);
+            } catch (RequestException e) {
+                metrics.failed.increment();
+                sendError(exchange, e.status, e.getMessage());
+            } finally {
+                admitted.release();
+
+                if (upload != null) {
+                    ArchiveInputs.close(upload);
+                    Files.deleteIfExists(upload);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Waits for a worker, then converts every job in the request one after another
+    private List<Outcome> run(List<GremlinJob> jobs, ConversionChoices choices, ConversionOptions options)
+            throws RequestException {
+        long queuedAt = System.nanoTime();
+        metrics.queued.incrementAndGet();
+        try {
+            workers.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestException(503, "The server is shutting down");
+        } finally {
+            metrics.queued.decrementAndGet();
+        }
+
+        long start = System.nanoTime();
+        metrics.queueWait.record(start - queuedAt);
+        metrics.inFlight.incrementAndGet();
+
+        try {
+            List<Outcome> outcomes = new ArrayList<>();
+            Set<String> names = new HashSet<>();
+
+            for (GremlinJob job : jobs) {
+                String name = Converter.normalise(job.spriteSheetFolder());
+                if (!names.add(name)) {
+                    outcomes.add(new Outcome(name, null, 0, "Another gremlin in this request converts to the same folder"));
+                    continue;
+                }
+
+                ReentrantLock lock = gremlinLocks.computeIfAbsent(name, _ -> new ReentrantLock());
+                lock.lock();
+                long jobStart = System.nanoTime();
+                try {
+                    ConversionResult result = Converter.convert(job.spriteSheetFolder(), job.soundFolder(), choices, options);
+                    outcomes.add(new Outcome(name, result, System.nanoTime() - jobStart, null));
+
+                    metrics.gremlinsConverted.increment();
+                    metrics.bytesWritten.add(result.bytesWritten());
+                } catch (RuntimeException e) {
+                    String message = e.getMessage() == null ? e.toString() : e.getMessage();
+                    outcomes.add(new Outcome(name, null, System.nanoTime() - jobStart,
+                            message.strip().replaceAll("\\s*\\n\\s*", " ")));
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            boolean failed = outcomes.stream().anyMatch(outcome -> outcome.error() != null);
+            (failed ? metrics.failed : metrics.succeeded).increment();
+            return outcomes;
+        } finally {
+            metrics.inFlight.decrementAndGet();
+            metrics.conversion.record(System.nanoTime() - start);
+            workers.release();
+        }
+    }
+
+    private void respond(HttpExchange exchange, List<Outcome> outcomes, boolean download) throws IOException {
+        boolean failed = outcomes.stream().anyMatch(outcome -> outcome.error() != null);
+
+        if (download && !failed) {
+            if (outcomes.size() != 1) {
+                sendError(exchange, 400, "download only works for a single gremlin, this request converted " + outcomes.size());
+                return;
+            }
+
+            Path archive = outcomes.getFirst().result().gremlinFolder();
+            String fileName = archive.getFileName().toString();
+            exchange.getResponseHeaders().set("Content-Type",
+                    fileName.endsWith(".zip") ? "application/zip" : "application/x-tar");
+            exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+            exchange.getResponseHeaders().set("X-Gremlin-Output", archive.toAbsolutePath().toString());
+            exchange.sendResponseHeaders(200, Files.size(archive));
+
+            try (OutputStream body = exchange.getResponseBody()) {
+                Files.copy(archive, body);
+            }
+            return;
+        }
+
+        StringWriter text = new StringWriter();
+        try (JsonWriter json = new JsonWriter(text)) {
+            json.beginObject().name("gremlins").beginObject();
+            for (Outcome outcome : outcomes) {
+                json.name(outcome.name()).beginObject();
+
+                ConversionResult result = outcome.result();
+                if (result == null) {
+                    json.name("status").value("FAILED");
+                    json.name("error").value(outcome.error());
+                } else {
+                    json.name("status").value(result.upToDate() ? "SKIPPED" : result.installed() ? "INSTALL" : "OK");
+                    json.name("output").value(result.gremlinFolder().toAbsolutePath().toString());
+                    json.name("files").value(result.filesWritten());
+                    json.name("bytes").value(result.bytesWritten());
+                }
+                json.name("ms").value(outcome.nanos() / 1_000_000);
+
+                json.endObject();
+            }
+            json.endObject().endObject();
+        }
+
+        send(exchange, failed ? 500 : 200, "application/json", text + "\n");
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                sendError(exchange, 405, "Use GET");
+                return;
+            }
+
+            StringWriter text = new StringWriter();
+            try (PrintWriter out = new PrintWriter(text)) {
+                metrics.print(out, capacity);
+            }
+            send(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", text.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private ConversionOptions options(Map<String, String> query) throws RequestException {
+        try {
+            return new ConversionOptions(
+                    exportFolder,
+                    flag(query, "install"),
+                    !flag(query, "force"),
+                    ExportStrategy.valueOf(query.getOrDefault("exportStrategy", "auto").toUpperCase(Locale.ROOT)),
+                    OutputFormat.valueOf(query.getOrDefault("package", "folder").toUpperCase(Locale.ROOT)),
+                    flag(query, "dedup"),
+                    flag(query, "references"),
+                    flag(query, "validate"),
+                    !query.containsKey("preview") || flag(query, "preview"),
+                    query.containsKey("scale") ? ScaleProcessor.parse(query.get("scale")) : List.of(),
+                    flag(query, "mirror"),
+                    Integer.parseInt(query.getOrDefault("repack", "0")));
+        } catch (IllegalArgumentException e) {
+            throw new RequestException(400, "Unknown option value: " + e.getMessage());
+        }
+    }
+
+    // Folders given in the query, or everything in the uploaded zip
+    private static List<GremlinJob> jobs(Map<String, String> query, Path upload) throws RequestException {
+        String sprites = query.get("sprites");
+        String sounds = query.get("sounds");
+
+        try {
+            if (sprites == null && sounds == null) {
+                if (upload == null) {
+                    throw new RequestException(400, "Give sprites and sounds folders, or send a release zip as the body");
+                }
+                return ArchiveInputs.discover(upload);
+            }
+            if (sprites == null || sounds == null) {
+                throw new RequestException(400, "sprites and sounds have to be given together");
+            }
+
+            // Inside an upload the folders are relative to the root of the zip
+            String prefix = upload == null ? "" : upload + "!/";
+            GremlinJob job = new GremlinJob(
+                    ArchiveInputs.resolve(Path.of(""), prefix + strip(sprites, upload)),
+                    ArchiveInputs.resolve(Path.of(""), prefix + strip(sounds, upload)));
+
+            if (!Files.isDirectory(job.spriteSheetFolder()) || !Files.isDirectory(job.soundFolder())) {
+                throw new RequestException(400, "No such folder: "
+                        + (Files.isDirectory(job.spriteSheetFolder()) ? sounds : sprites));
+            }
+            return List.of(job);
+        } catch (IOException e) {
+            throw new RequestException(400, "Failed to open archive: " + e.getMessage());
+        }
+    }
+
+    private static String strip(String folder, Path upload) {
+        return upload != null && folder.startsWith("/") ? folder.substring(1) : folder;
+    }
+
+    private Path receive(HttpExchange exchange) throws IOException, RequestException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        try {
+            if (length != null && Long.parseLong(length.trim()) > maxUploadBytes) {
+                throw new RequestException(413, "Uploads are limited to " + maxUploadBytes / 1_048_576 + " MB");
+            }
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, "Invalid Content-Length " + length);
+        }
+
+        Path upload = Files.createTempFile("gremlin-upload-", ".zip");
+        long total = 0;
+
+        try (InputStream in = exchange.getRequestBody();
+             OutputStream out = Files.newOutputStream(upload)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+                if (total > maxUploadBytes) {
+                    throw new RequestException(413, "Uploads are limited to " + maxUploadBytes / 1_048_576 + " MB");
+                }
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException | RequestException e) {
+            Files.deleteIfExists(upload);
+            throw e;
+        }
+
+        metrics.bytesReceived.add(total);
+        return upload;
+    }
+
+    private static boolean hasBody(HttpExchange exchange) {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null) return !length.equals("0");
+        return exchange.getRequestHeaders().containsKey("Transfer-Encoding");
+    }
+
+    // A parameter without a value (?force) counts as true
+    private static boolean flag(Map<String, String> query, String name) {
+        String value = query.get(name);
+        return value != null && !value.equalsIgnoreCase("false");
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> query = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) return query;
+
+        for (String parameter : raw.split("&")) {
+            if (parameter.isEmpty()) continue;
+
+            int equals = parameter.indexOf('=');
+            String name = equals < 0 ? parameter : parameter.substring(0, equals);
+            String value = equals < 0 ? "" : parameter.substring(equals + 1);
+            query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringWriter text = new StringWriter();
+        try (JsonWriter json = new JsonWriter(text)) {
+            json.beginObject().name("error").value(message).endObject();
+        }
+        send(exchange, status, "application/json", text + "\n");
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(args[i - 1] + " needs a value");
+        }
+        return args[i];
+    }
+}
@@ -0,0 +1,100 @@
+package net.virtualspan.server;
+
+import net.virtualspan.events.Metrics;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters behind the conversion server's /metrics, printed in the Prometheus text format
+public class ServerMetrics {
+    // Upper bounds in seconds, a gremlin usually converts in well under a second but big uploads can take longer
+    private static final double[] BUCKETS = {0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+
+    final AtomicInteger queued = new AtomicInteger();
+    final AtomicInteger inFlight = new AtomicInteger();
+
+    final LongAdder succeeded = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder rejected = new LongAdder();
+    final LongAdder bytesReceived = new LongAdder();
+    final LongAdder bytesWritten = new LongAdder();
+    final LongAdder gremlinsConverted = new LongAdder();
+
+    final Histogram queueWait = new Histogram();
+    final Histogram conversion = new Histogram();
+
+    static class Histogram {
+        // One count per bucket plus +Inf, not cumulative until printed
+        private final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            double seconds = nanos / 1e9;
+
+            int bucket = 0;
+            while (bucket < BUCKETS.length && seconds > BUCKETS[bucket]) {
+                bucket++;
+            }
+            counts[bucket].increment();
+            sumNanos.add(nanos);
+        }
+
+        void print(PrintWriter out, String name, String help) {
+            out.println("# HELP " + name + " " + help);
+            out.println("# TYPE " + name + " histogram");
+
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += counts[i].sum();
+                out.printf(Locale.ROOT, "%s_bucket{le=\"%s\"} %d%n", name, BUCKETS[i], cumulative);
+            }
+            cumulative += counts[BUCKETS.length].sum();
+            out.printf("%s_bucket{le=\"+Inf\"} %d%n", name, cumulative);
+            out.printf(Locale.ROOT, "%s_sum %.6f%n", name, sumNanos.sum() / 1e9);
+            out.printf("%s_count %d%n", name, cumulative);
+        }
+    }
+
+    void print(PrintWriter out, int capacity) {
+        gauge(out, "gremlin_server_queue_depth", "Requests waiting for a worker", queued.get());
+        gauge(out, "gremlin_server_queue_capacity", "Requests that can wait before new ones get a 429", capacity);
+        gauge(out, "gremlin_server_jobs_in_flight", "Requests being converted right now", inFlight.get());
+
+        out.println("# HELP gremlin_server_requests_total Conversion requests by outcome");
+        out.println("# TYPE gremlin_server_requests_total counter");
+        out.printf("gremlin_server_requests_total{outcome=\"ok\"} %d%n", succeeded.sum());
+        out.printf("gremlin_server_requests_total{outcome=\"failed\"} %d%n", failed.sum());
+        out.printf("gremlin_server_requests_total{outcome=\"rejected\"} %d%n", rejected.sum());
+
+        counter(out, "gremlin_server_gremlins_converted_total", "Gremlins converted, an upload can hold several",
+                gremlinsConverted.sum());
+        counter(out, "gremlin_server_bytes_received_total", "Bytes of uploaded archives", bytesReceived.sum());
+        counter(out, "gremlin_server_bytes_written_total", "Bytes of converted output", bytesWritten.sum());
+
+        queueWait.print(out, "gremlin_server_queue_wait_seconds", "Time requests waited for a worker");
+        conversion.print(out, "gremlin_server_conversion_seconds", "Time spent converting a request");
+
+        // Stage timings and file operations, shared with batch mode
+        Metrics.printPrometheus(out);
+    }
+
+    private static void gauge(PrintWriter out, String name, String help, long value) {
+        out.println("# HELP " + name + " " + help);
+        out.println("# TYPE " + name + " gauge");
+        out.println(name + " " + value);
+    }
+
+    private static void counter(PrintWriter out, String name, String help, long value) {
+        out.println("# HELP " + name + " " + help);
+        out.println("# TYPE " + name + " counter");
+        out.println(name + " " + value);
+    }
+}
@@ -0,0 +1,89 @@
+package net.virtualspan.processors;
+
+import net.virtualspan.model.SheetSize;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Path;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BandOpsTest {
+    private static final int FRAME = 4;
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void regrid() throws Exception {
+        // 4 columns of 3 rows into 5 columns, which leaves the last row partly empty
+        assertRegrid(4, 3, 4, 12, 5);
+    }
+
+    // A sheet narrower than COLUMN still counts the cells past its right edge as (empty) frames
+    @Test
+    void regridNarrowerThanColumn() throws Exception {
+        assertRegrid(2, 2, 4, 6, 3);
+    }
+
+    // Every frame gets its own colour, regrid moves frame i from (i % column, i / column) to (i % columns, i / columns)
+    // and the cells without a source frame stay transparent
+    private void assertRegrid(int sheetColumns, int sheetRows, int column, int expectedFrames, int columns) throws Exception {
+        BufferedImage sheet = new BufferedImage(sheetColumns * FRAME, sheetRows * FRAME, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < sheet.getHeight(); y++) {
+            for (int x = 0; x < sheet.getWidth(); x++) {
+                sheet.setRGB(x, y, color(y / FRAME * column + x / FRAME, x % FRAME, y % FRAME));
+            }
+        }
+        Path png = folder.resolve("sheet.png");
+        assertTrue(ImageIO.write(sheet, "png", png.toFile()));
+
+        int frames = RepackProcessor.frames(new SheetSize(sheet.getWidth(), sheet.getHeight()), FRAME, FRAME, column);
+        assertEquals(expectedFrames, frames);
+
+        int width = Math.min(columns, frames) * FRAME;
+        int height = Math.ceilDiv(frames, columns) * FRAME;
+        int[] expected = new int[width * height];
+        for (int frame = 0; frame < frames; frame++) {
+            boolean inside = frame % column < sheetColumns;
+            for (int y = 0; y < FRAME; y++) {
+                for (int x = 0; x < FRAME; x++) {
+                    int to = (frame / columns * FRAME + y) * width + frame % columns * FRAME + x;
+                    expected[to] = inside ? color(frame, x, y) : 0;
+                }
+            }
+        }
+
+        int[] pixels = new int[width * height];
+        boolean[] finished = new boolean[1];
+        try (SheetStream stream = SheetStream.open(png)) {
+            stream.run(0, 0, _ -> BandOps.regrid(stream.arena(), FRAME, FRAME, column, columns, frames, new SheetStream.Stage() {
+                @Override
+                public void accept(SheetStream.Band band) {
+                    assertEquals(width, band.width());
+                    for (int r = 0; r < band.rows(); r++) {
+                        MemorySegment.copy(band.pixels(), JAVA_INT, band.offset(r), pixels, (band.top() + r) * width, width);
+                    }
+                }
+
+                @Override
+                public void finish() {
+                    finished[0] = true;
+                }
+            }));
+        }
+
+        assertTrue(finished[0]);
+        assertArrayEquals(expected, pixels);
+    }
+
+    private static int color(int frame, int x, int y) {
+        return 0xFF000000 | (frame + 1) * 20 << 16 | x * 60 << 8 | y * 60;
+    }
+}
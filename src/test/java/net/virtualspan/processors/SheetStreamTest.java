@@ -0,0 +1,305 @@
+package net.virtualspan.processors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// PngBandReader against sheets ImageIO wrote, one per colour type, and against hand-filtered ones for every filter,
+// and PngBandWriter's output read back by both
+class SheetStreamTest {
+    // Odd, so rows of 1, 2 and 4 bit samples end partway through a byte
+    private static final int WIDTH = 13;
+    private static final int HEIGHT = 7;
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void rgba() throws Exception {
+        assertDecodes(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB), 255,
+                s -> s[3] << 24 | s[0] << 16 | s[1] << 8 | s[2]);
+    }
+
+    @Test
+    void rgb() throws Exception {
+        assertDecodes(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB), 255,
+                s -> 0xFF000000 | s[0] << 16 | s[1] << 8 | s[2]);
+    }
+
+    @Test
+    void gray() throws Exception {
+        assertDecodes(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY), 255, s -> opaqueGray(s[0]));
+    }
+
+    @Test
+    void gray16() throws Exception {
+        assertDecodes(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_USHORT_GRAY), 65535, s -> opaqueGray(s[0] >>> 8));
+    }
+
+    // A palette of evenly spaced grays is written as a gray image of that bit depth, which gets stretched to 0-255
+    @Test
+    void lowDepthGray() throws Exception {
+        for (int depth : new int[]{1, 2, 4}) {
+            int size = 1 << depth;
+            byte[] levels = new byte[size];
+            for (int i = 0; i < size; i++) levels[i] = (byte) (i * 255 / (size - 1));
+
+            IndexColorModel model = new IndexColorModel(depth, size, levels, levels, levels);
+            assertDecodes(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_BINARY, model), size - 1,
+                    s -> model.getRGB(s[0]));
+        }
+    }
+
+    @Test
+    void grayAlpha() throws Exception {
+        ColorModel model = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY),
+                true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+        assertDecodes(new BufferedImage(model, model.createCompatibleWritableRaster(WIDTH, HEIGHT), false, null), 255,
+                s -> s[1] << 24 | s[0] << 16 | s[0] << 8 | s[0]);
+    }
+
+    @Test
+    void rgba16() throws Exception {
+        ColorModel model = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+                true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_USHORT);
+        assertDecodes(new BufferedImage(model, model.createCompatibleWritableRaster(WIDTH, HEIGHT), false, null), 65535,
+                s -> (s[3] >>> 8) << 24 | (s[0] >>> 8) << 16 | (s[1] >>> 8) << 8 | s[2] >>> 8);
+    }
+
+    // Colours that aren't grays keep the palette, and the alpha in tRNS
+    @Test
+    void indexed() throws Exception {
+        byte[] r = new byte[16];
+        byte[] g = new byte[16];
+        byte[] b = new byte[16];
+        byte[] a = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            r[i] = (byte) (i * 16);
+            g[i] = (byte) (255 - i * 9);
+            b[i] = (byte) (i * 53);
+            a[i] = (byte) (i * 17);
+        }
+
+        IndexColorModel model = new IndexColorModel(4, 16, r, g, b, a);
+        assertDecodes(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_BINARY, model), 15, s -> model.getRGB(s[0]));
+    }
+
+    // ImageIO picks its own filters, so these sheets are filtered by hand with every filter type in turn
+    @Test
+    void everyFilterRgba() throws Exception {
+        byte[][] rows = rows(WIDTH * 4);
+        int[] expected = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0, p = 0; x < WIDTH; x++, p += 4) {
+                expected[y * WIDTH + x] = argb(rows[y][p + 3], rows[y][p], rows[y][p + 1], rows[y][p + 2]);
+            }
+        }
+
+        assertArrayEquals(expected, decode(writeFiltered(8, 6, 4, rows)));
+    }
+
+    @Test
+    void everyFilterRgba16() throws Exception {
+        byte[][] rows = rows(WIDTH * 8);
+        int[] expected = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0, p = 0; x < WIDTH; x++, p += 8) {
+                expected[y * WIDTH + x] = argb(rows[y][p + 6], rows[y][p], rows[y][p + 2], rows[y][p + 4]);
+            }
+        }
+
+        assertArrayEquals(expected, decode(writeFiltered(16, 6, 8, rows)));
+    }
+
+    // Samples smaller than a byte are filtered against the byte before
+    @Test
+    void everyFilterGray4() throws Exception {
+        byte[][] rows = rows((WIDTH + 1) / 2);
+        int[] expected = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int value = (rows[y][x / 2] & 0xFF) >>> (x % 2 == 0 ? 4 : 0) & 0xF;
+                expected[y * WIDTH + x] = opaqueGray(value * 17);
+            }
+        }
+
+        assertArrayEquals(expected, decode(writeFiltered(4, 0, 1, rows)));
+    }
+
+    // Noise and flat runs, so the writer's filter choice changes from row to row
+    @Test
+    void writerRoundTrip() throws Exception {
+        int width = 41;
+        int height = 23;
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = y % 3 == 0
+                        ? 0x80000000 | x * 6 << 16 | y * 11 << 8
+                        : (x * 7919 + y * 104729) * 0x9E3779B9;
+            }
+        }
+
+        Path png = folder.resolve("written.png");
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment segment = arena.allocate((long) pixels.length * Integer.BYTES, Integer.BYTES);
+            MemorySegment.copy(pixels, 0, segment, JAVA_INT, 0, pixels.length);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PngBandWriter writer = new PngBandWriter(out, width, height);
+
+            // Bands of 5 rows, the last one shorter
+            for (int top = 0; top < height; top += 5) {
+                int rows = Math.min(5, height - top);
+                writer.accept(new SheetStream.Band(
+                        segment.asSlice((long) top * width * Integer.BYTES), top, rows, width, width));
+            }
+            writer.finish();
+            Files.write(png, out.toByteArray());
+        }
+
+        BufferedImage read = ImageIO.read(png.toFile());
+        assertArrayEquals(pixels, read.getRGB(0, 0, width, height, null, 0, width));
+        assertArrayEquals(pixels, decode(png));
+    }
+
+    // Every pixel of the sheet as ARGB, decoded band by band
+    static int[] decode(Path png) throws Exception {
+        try (SheetStream stream = SheetStream.open(png)) {
+            int width = stream.width();
+            int[] pixels = new int[width * stream.height()];
+            stream.run(0, 0, _ -> band -> {
+                for (int r = 0; r < band.rows(); r++) {
+                    MemorySegment.copy(band.pixels(), JAVA_INT, band.offset(r), pixels, (band.top() + r) * width, band.width());
+                }
+            });
+            return pixels;
+        }
+    }
+
+    // Fills every sample with values that change along both axes (up to max), writes the image with ImageIO and
+    // checks the decoded pixels against what argb makes of each pixel's samples
+    private void assertDecodes(BufferedImage image, int max, Function<int[], Integer> argb) throws Exception {
+        WritableRaster raster = image.getRaster();
+        int[] expected = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                for (int band = 0; band < raster.getNumBands(); band++) {
+                    raster.setSample(x, y, band, (int) ((x * 7919L + y * 6673L + band * 4051L) % (max + 1)));
+                }
+                expected[y * WIDTH + x] = argb.apply(raster.getPixel(x, y, (int[]) null));
+            }
+        }
+
+        Path png = folder.resolve("sheet.png");
+        assertTrue(ImageIO.write(image, "png", png.toFile()), "ImageIO has no PNG writer for " + image);
+        assertArrayEquals(expected, decode(png));
+    }
+
+    private static int opaqueGray(int gray) {
+        return 0xFF000000 | gray << 16 | gray << 8 | gray;
+    }
+
+    private static int argb(byte a, byte r, byte g, byte b) {
+        return (a & 0xFF) << 24 | (r & 0xFF) << 16 | (g & 0xFF) << 8 | b & 0xFF;
+    }
+
+    private static byte[][] rows(int rowBytes) {
+        byte[][] rows = new byte[HEIGHT][rowBytes];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int i = 0; i < rowBytes; i++) {
+                rows[y][i] = (byte) (i * 31 + y * 57 + i * y % 13);
+            }
+        }
+        return rows;
+    }
+
+    // A PNG whose row y uses filter type y % 5, stride is the filter's bytes per pixel
+    private Path writeFiltered(int depth, int colorType, int stride, byte[][] rows) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflated = new DeflaterOutputStream(data, new Deflater())) {
+            byte[] above = new byte[rows[0].length];
+            for (int y = 0; y < rows.length; y++) {
+                deflated.write(filter(y % 5, rows[y], above, stride));
+                above = rows[y];
+            }
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream ihdr = new DataOutputStream(header);
+        ihdr.writeInt(WIDTH);
+        ihdr.writeInt(HEIGHT);
+        ihdr.write(new byte[]{(byte) depth, (byte) colorType, 0, 0, 0});
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(png);
+        out.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+        chunk(out, "IHDR", header.toByteArray());
+        chunk(out, "IDAT", data.toByteArray());
+        chunk(out, "IEND", new byte[0]);
+
+        Path file = folder.resolve("filtered.png");
+        Files.write(file, png.toByteArray());
+        return file;
+    }
+
+    private static byte[] filter(int type, byte[] row, byte[] above, int stride) {
+        byte[] filtered = new byte[row.length + 1];
+        filtered[0] = (byte) type;
+        for (int i = 0; i < row.length; i++) {
+            int left = i >= stride ? row[i - stride] & 0xFF : 0;
+            int up = above[i] & 0xFF;
+            int upLeft = i >= stride ? above[i - stride] & 0xFF : 0;
+            int predicted = switch (type) {
+                case 0 -> 0;
+                case 1 -> left;
+                case 2 -> up;
+                case 3 -> (left + up) / 2;
+                default -> paeth(left, up, upLeft);
+            };
+            filtered[i + 1] = (byte) (row[i] - predicted);
+        }
+        return filtered;
+    }
+
+    private static int paeth(int left, int up, int upLeft) {
+        int p = left + up - upLeft;
+        int pLeft = Math.abs(p - left);
+        int pUp = Math.abs(p - up);
+        int pUpLeft = Math.abs(p - upLeft);
+        if (pLeft <= pUp && pLeft <= pUpLeft) return left;
+        return pUp <= pUpLeft ? up : upLeft;
+    }
+
+    private static void chunk(DataOutputStream out, String type, byte[] data) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data);
+
+        out.writeInt(data.length);
+        out.write(name);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+}